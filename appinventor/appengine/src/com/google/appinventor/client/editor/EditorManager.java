@@ -17,6 +17,8 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
@@ -25,6 +27,7 @@ import com.google.gwt.user.client.Timer;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,6 +54,9 @@ public final class EditorManager {
   // TODO(user): Make this configurable.
   private static final int AUTO_SAVE_FORCED_TIMEOUT = 30000;
 
+  // Files shorter than this are always saved whole, since a delta wouldn't save much.
+  private static final int MIN_DELTA_FILE_LENGTH = 4096;
+
   // Fields used for saving and auto-saving.
   private final Set<ProjectSettings> dirtyProjectSettings;
   private final Set<FileEditor> dirtyFileEditors;
@@ -58,6 +64,10 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // The content of each file as the server last acknowledged saving it, keyed by
+  // "projectId/fileId". Later saves of the file only send a delta from this content.
+  private final Map<String, String> savedFileContents;
+
   private class DateHolder {
     long date;
     long projectId;
@@ -71,6 +81,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedFileContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -146,6 +157,7 @@ public final class EditorManager {
         if (fileEditor != null) {
           dirtyFileEditors.remove(fileEditor);
         }
+        savedFileContents.remove(getSavedFileContentKey(projectId, fileId));
       }
       projectEditor.closeFileEditors(fileIds);
     }
@@ -165,6 +177,12 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    Iterator<String> keys = savedFileContents.keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(projectId + "/")) {
+        keys.remove();
+      }
+    }
   }
 
   /**
@@ -369,35 +387,60 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
-            @Override
-            public void onSuccess(Long date) {
-              if (dateHolder.date != 0) {
-                // This sets the project modification time to that of one of
-                // the successful file saves. It doesn't really matter which
-                // file date we use, they will all be close. However it is important
-                // to use some files date because that will be based on the server's
-                // time. If we used the local clients time, then we may be off if the
-                // client's computer's time isn't set correctly.
-                dateHolder.date = date;
-                dateHolder.projectId = projectId;
-              }
-              if (afterSavingFiles != null) {
-                afterSavingFiles.execute();
-              }
+        final String key = getSavedFileContentKey(projectId, fileId);
+        OdeAsyncCallback<Long> callback =
+            new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+          @Override
+          public void onSuccess(Long date) {
+            savedFileContents.put(key, content);
+            if (dateHolder.date != 0) {
+              // This sets the project modification time to that of one of
+              // the successful file saves. It doesn't really matter which
+              // file date we use, they will all be close. However it is important
+              // to use some files date because that will be based on the server's
+              // time. If we used the local clients time, then we may be off if the
+              // client's computer's time isn't set correctly.
+              dateHolder.date = date;
+              dateHolder.projectId = projectId;
             }
-            @Override
-            public void onFailure(Throwable caught) {
+            if (afterSavingFiles != null) {
+              afterSavingFiles.execute();
+            }
+          }
+          @Override
+          public void onFailure(Throwable caught) {
+            if (caught instanceof FileDeltaMismatchException) {
+              // The server doesn't have the content the delta was made from, so send the whole
+              // content instead.
+              savedFileContents.remove(key);
+              Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                  projectId, fileId, false, content, this);
+            } else if (caught instanceof BlocksTruncatedException) {
               // Here is where we handle BlocksTruncatedException
-              if (caught instanceof BlocksTruncatedException) {
-                Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
-              } else {
-                super.onFailure(caught);
-              }
+              Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+            } else {
+              super.onFailure(caught);
             }
-          });
+          }
+        };
+        // Send only what changed since the last save, unless that isn't much smaller.
+        String savedContent = savedFileContents.get(key);
+        FileDelta delta = null;
+        if (savedContent != null && content.length() >= MIN_DELTA_FILE_LENGTH) {
+          delta = FileDelta.create(savedContent, content);
+        }
+        if (delta != null && delta.getReplacementLength() < content.length() / 2) {
+          Ode.getInstance().getProjectService().saveDelta(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, delta, callback);
+        } else {
+          Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, content, callback);
+        }
       }
     }
   }
+
+  private static String getSavedFileContentKey(long projectId, String fileId) {
+    return projectId + "/" + fileId;
+  }
 }
@@ -298,6 +298,9 @@ public final class YoungAndroidFormUpgrader {
       } else if (componentType.equals("TimePicker")) {
         srcCompVersion = upgradeTimePickerProperties(componentProperties, srcCompVersion);
 
+      } else if (componentType.equals("TinyDB")) {
+        srcCompVersion = upgradeTinyDBProperties(componentProperties, srcCompVersion);
+
       } else if (componentType.equals("TinyWebDB")) {
         srcCompVersion = upgradeTinyWebDBProperties(componentProperties, srcCompVersion);
 
@@ -460,6 +463,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothClient.DataReceivedEventEnabled property and DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
 
@@ -486,6 +494,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothServer.DataReceivedEventEnabled property and DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
   private static int upgradeSliderProperties(Map<String, JSONValue> componentProperties,
@@ -993,6 +1006,16 @@ public final class YoungAndroidFormUpgrader {
       componentProperties.remove("BaseURL");
       srcCompVersion = 3;
     }
+    if (srcCompVersion < 4) {
+      // The designer properties RawResults and ResultsPageSize were added.
+      // No properties need to be modified to upgrade to version 4.
+      srcCompVersion = 4;
+    }
+    if (srcCompVersion < 5) {
+      // The designer properties UpdateBatchSize and CompressUpdates were added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
     return srcCompVersion;
   }
 
@@ -1045,6 +1068,16 @@ public final class YoungAndroidFormUpgrader {
     return srcCompVersion;
   }
 
+  private static int upgradeTinyDBProperties(Map<String, JSONValue> componentProperties,
+      int srcCompVersion) {
+    if (srcCompVersion < 2) {
+      // The StoreValues and GetValues methods were added.
+      // No properties need to be modified to upgrade to version 2.
+      srcCompVersion = 2;
+    }
+    return srcCompVersion;
+  }
+
   private static int upgradeTinyWebDBProperties(Map<String, JSONValue> componentProperties,
       int srcCompVersion) {
     if (srcCompVersion < 2) {
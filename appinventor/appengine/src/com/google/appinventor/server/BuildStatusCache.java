@@ -0,0 +1,171 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+
+/**
+ * Keeps the status of each user's latest build of a project and build target
+ * in memcache, so that requests for build results can be answered without
+ * querying the datastore or asking the build server.
+ *
+ * <p>The status is recorded when the build server accepts a build and is
+ * completed by {@link ReceiveBuildServlet} once the build output has been
+ * stored. If the status isn't in memcache, for instance because it has been
+ * evicted, callers must fall back to reading the build output from storage.
+ */
+public final class BuildStatusCache {
+
+  /**
+   * The status of a build.
+   */
+  public static final class Status implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final String buildId;
+    private final int progress;
+    private final long progressTimeMillis;
+    private final String buildOutput;
+
+    private Status(String host, String buildId, int progress, long progressTimeMillis,
+        String buildOutput) {
+      this.host = host;
+      this.buildId = buildId;
+      this.progress = progress;
+      this.progressTimeMillis = progressTimeMillis;
+      this.buildOutput = buildOutput;
+    }
+
+    /**
+     * Returns host[:port] of the build server running the build.
+     */
+    public String getHost() {
+      return host;
+    }
+
+    /**
+     * Returns the ID the build server gave the build, or null if it didn't
+     * give one.
+     */
+    public String getBuildId() {
+      return buildId;
+    }
+
+    /**
+     * Returns the last known progress of the build, as a percentage.
+     */
+    public int getProgress() {
+      return progress;
+    }
+
+    /**
+     * Returns when the progress was last read from the build server.
+     */
+    public long getProgressTimeMillis() {
+      return progressTimeMillis;
+    }
+
+    /**
+     * Returns the content of the build.out file sent back by the build server,
+     * or null if the build hasn't finished.
+     */
+    public String getBuildOutput() {
+      return buildOutput;
+    }
+  }
+
+  // Prefix of the memcache keys
+  private static final String CACHE_KEY = "buildstatus";
+
+  // How long to keep the status of a build, in seconds
+  private static final int CACHE_SECONDS = 60 * 60;
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  /**
+   * Returns the status of the latest build, or null if it isn't known.
+   *
+   * @param userId the user id
+   * @param projectId the project id
+   * @param buildFileDir the folder for the build output files, e.g. build/Android
+   */
+  public Status get(String userId, long projectId, String buildFileDir) {
+    return (Status) memcache.get(getCacheKey(userId, projectId, buildFileDir));
+  }
+
+  /**
+   * Forgets the status of the latest build. Called before a new build is
+   * requested, so that the result of the previous build isn't returned.
+   */
+  public void clear(String userId, long projectId, String buildFileDir) {
+    memcache.delete(getCacheKey(userId, projectId, buildFileDir));
+  }
+
+  /**
+   * Records that a build server accepted a build.
+   *
+   * @param host host[:port] of the build server
+   * @param buildId the ID the build server gave the build, or null
+   */
+  public void buildStarted(String userId, long projectId, String buildFileDir, String host,
+      String buildId) {
+    memcache.put(getCacheKey(userId, projectId, buildFileDir),
+        new Status(host, buildId, 0, System.currentTimeMillis(), null),
+        Expiration.byDeltaSeconds(CACHE_SECONDS));
+  }
+
+  /**
+   * Records the latest progress of a build, unless the build has finished or
+   * a newer build has started meanwhile.
+   *
+   * @param status the status the progress was read for
+   * @param progress the progress, as a percentage
+   */
+  public void setProgress(String userId, long projectId, String buildFileDir, Status status,
+      int progress) {
+    String key = getCacheKey(userId, projectId, buildFileDir);
+    MemcacheService.IdentifiableValue value = memcache.getIdentifiable(key);
+    if (value == null || !isSameBuild((Status) value.getValue(), status)) {
+      return;
+    }
+    memcache.putIfUntouched(key, value,
+        new Status(status.host, status.buildId, progress, System.currentTimeMillis(), null),
+        Expiration.byDeltaSeconds(CACHE_SECONDS));
+  }
+
+  /**
+   * Records that a build has finished and its output files have been stored.
+   *
+   * @param buildOutput the content of the build.out file
+   */
+  public void buildFinished(String userId, long projectId, String buildFileDir,
+      String buildOutput) {
+    String key = getCacheKey(userId, projectId, buildFileDir);
+    Status status = (Status) memcache.get(key);
+    memcache.put(key,
+        new Status(status != null ? status.host : null, status != null ? status.buildId : null,
+            100, System.currentTimeMillis(), buildOutput),
+        Expiration.byDeltaSeconds(CACHE_SECONDS));
+  }
+
+  private static boolean isSameBuild(Status status1, Status status2) {
+    if (status1 == null || status1.buildOutput != null) {
+      return false;
+    }
+    return status1.host.equals(status2.host) && (status1.buildId == null
+        ? status2.buildId == null : status1.buildId.equals(status2.buildId));
+  }
+
+  private static String getCacheKey(String userId, long projectId, String buildFileDir) {
+    return CACHE_KEY + "|" + userId + "|" + projectId + "|" + buildFileDir;
+  }
+}
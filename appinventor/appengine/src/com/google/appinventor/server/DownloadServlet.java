@@ -7,13 +7,14 @@
 package com.google.appinventor.server;
 
 import com.google.appinventor.common.utils.StringUtils;
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.util.CacheHeaders;
 import com.google.appinventor.server.util.CacheHeadersImpl;
 import com.google.appinventor.shared.rpc.ServerLayout;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import javax.servlet.ServletOutputStream;
@@ -94,7 +95,10 @@ public class DownloadServlet extends OdeServlet {
     CACHE_HEADERS.setNotCacheable(resp);
     resp.setContentType(CONTENT_TYPE);
 
-    RawFile downloadableFile;
+    RawFile downloadableFile = null;
+    // Zips are written directly to the response as their files are read, instead of being
+    // built in memory first.
+    ProjectSourceZipWriter downloadableZip = null;
 
     String userId = null;
 
@@ -122,9 +126,8 @@ public class DownloadServlet extends OdeServlet {
         final boolean includeProjectHistory = true;
         String zipName = (projectTitle == null) ? null :
             StringUtils.normalizeForFilename(projectTitle) + ".aia";
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
+        downloadableZip = fileExporter.prepareProjectSourceZip(userId,
             projectId, includeProjectHistory, false, zipName);
-        downloadableFile = zipFile.getRawFile();
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         // Download project source files for the specified user project as a zip.
@@ -154,9 +157,10 @@ public class DownloadServlet extends OdeServlet {
           projectName = storageIo.getProjectName(projectUserId, projectId);
         } catch (NumberFormatException e) {
           // assume we got a name instead
-          for (Long pid: storageIo.getProjects(projectUserId)) {
-            if (storageIo.getProjectName(projectUserId, pid).equals(projectIdOrName)) {
-              projectId = pid;
+          for (UserProject userProject : storageIo.getUserProjects(projectUserId,
+              storageIo.getProjects(projectUserId))) {
+            if (userProject.getProjectName().equals(projectIdOrName)) {
+              projectId = userProject.getProjectId();
             }
           }
           if (projectId == 0) {
@@ -173,15 +177,13 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
+        downloadableZip = fileExporter.prepareProjectSourceZip(projectUserId,
             projectId, /* include history*/ true, /* include keystore */ true, zipName);
-        downloadableFile = zipFile.getRawFile();
         
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
-        ProjectSourceZip zipFile = fileExporter.exportAllProjectsSourceZip(
+        downloadableZip = fileExporter.prepareAllProjectsSourceZip(
             userId, "all-projects.zip");
-        downloadableFile = zipFile.getRawFile();
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_FILE)) {
         // Download a specific file.
@@ -204,6 +206,21 @@ public class DownloadServlet extends OdeServlet {
       } else {
         throw new IllegalArgumentException("Unknown download kind: " + downloadKind);
       }
+
+      if (downloadableZip != null) {
+        // Set http response information. The length of the zip isn't known in advance.
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setHeader("content-disposition",
+            "attachment; filename=\"" + downloadableZip.getFileName() + "\"");
+        resp.setContentType(StorageUtil.getContentTypeForFilePath(downloadableZip.getFileName()));
+
+        // Attach download data. Nothing is written if there turn out to be no files, so the
+        // error can still be reported.
+        ServletOutputStream out = resp.getOutputStream();
+        downloadableZip.writeTo(out);
+        out.close();
+        return;
+      }
     } catch (IllegalArgumentException e) {
       throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
     }
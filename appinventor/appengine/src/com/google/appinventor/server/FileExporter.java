@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server;
 
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
@@ -55,16 +56,39 @@ public interface FileExporter {
       throws IOException;
 
   /**
-   * Exports all of the user's projects' source files as a zip of zips.
+   * Prepares to export the project source files as a zip that is written
+   * directly to a stream, without holding the whole zip in memory.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param zipName the desired name for the zip, or null for a name to be generated
+   * @return the name of the zip, and a way to write it
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files)
+   * @throws IOException if files cannot be read
+   */
+  ProjectSourceZipWriter prepareProjectSourceZip(String userId, long projectId,
+                                                 boolean includeProjectHistory,
+                                                 boolean includeAndroidKeystore,
+                                                 @Nullable String zipName)
+      throws IOException;
+
+  /**
+   * Prepares to export all of the user's projects' source files as a zip of
+   * zips that is written directly to a stream. The projects are read one at a
+   * time while the zip is written, so the memory used doesn't depend on the
+   * number of projects. Projects whose files can't be read are left out.
    *
    * @param userId the userId
    * @param zipName the desired name for the zip
-   * @return the name, contents, and number of files in the zip
+   * @return the name of the zip, and a way to write it
    * @throws IllegalArgumentException if download request cannot be fulfilled
    *         (no projects)
-   * @throws IOException if files cannot be written
    */
-  ProjectSourceZip exportAllProjectsSourceZip(String userId, String zipName) throws IOException;
+  ProjectSourceZipWriter prepareAllProjectsSourceZip(String userId, String zipName);
 
   /**
    * Exports a specific project file.
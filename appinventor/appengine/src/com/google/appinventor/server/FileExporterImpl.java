@@ -8,16 +8,21 @@ package com.google.appinventor.server;
 
 import com.google.common.base.Strings;
 import com.google.appinventor.server.storage.ObjectifyStorageIo;
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.server.util.UncloseableOutputStream;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -72,72 +77,90 @@ public final class FileExporterImpl implements FileExporter {
   }
 
   @Override
-  public ProjectSourceZip exportAllProjectsSourceZip(String userId,
-      String zipName) throws IOException {
-    // Create a zip file for each project's sources.
-    List<Long> projectIds = storageIo.getProjects(userId);
+  public ProjectSourceZipWriter prepareProjectSourceZip(String userId, long projectId,
+                                                        boolean includeProjectHistory,
+                                                        boolean includeAndroidKeystore,
+                                                        @Nullable String zipName)
+      throws IOException {
+    return storageIo.prepareProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName);
+  }
+
+  @Override
+  public ProjectSourceZipWriter prepareAllProjectsSourceZip(final String userId,
+                                                            final String zipName) {
+    final List<Long> projectIds = storageIo.getProjects(userId);
     if (projectIds.size() == 0) {
       throw new IllegalArgumentException("No projects to download");
     }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
-    int count = 0;
-    String metadata = "";
-    for (Long projectId : projectIds) {
-      try {
-        ProjectSourceZip projectSourceZip =
-            exportProjectSourceZip(userId, projectId, false, false, null);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, rename duplicate projects
-        while (true) {
+    return new ProjectSourceZipWriter() {
+      @Override
+      public String getFileName() {
+        return zipName;
+      }
+
+      @Override
+      public int writeTo(OutputStream outputStream) throws IOException {
+        // Create a zip file for each project's sources, and copy it into the big zip file. Each
+        // project's zip is completed in memory first, so that a project whose files can't be read
+        // is skipped instead of leaving a truncated entry. The big zip file isn't started until a
+        // project has been found with files, so that nothing is written if there are no files to
+        // download.
+        ZipOutputStream out = null;
+        Set<String> names = new HashSet<String>();
+        ByteArrayOutputStream projectZip = new ByteArrayOutputStream();
+        int count = 0;
+        for (Long projectId : projectIds) {
+          String name;
           try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
+            ProjectSourceZipWriter projectSourceZip =
+                prepareProjectSourceZip(userId, projectId, false, false, null);
+            name = projectSourceZip.getFileName();
+            projectZip.reset();
+            projectSourceZip.writeTo(projectZip);
+          } catch (IllegalArgumentException e) {
+            System.err.println("No files found for userid: " + userId +
+                " for projectid: " + projectId);
+            continue;
           } catch (IOException e) {
+            System.err.println("IOException while reading files found for userid: " +
+                userId + " for projectid: " + projectId);
+            continue;
+          }
+
+          // If necessary, rename duplicate projects
+          while (!names.add(name)) {
             name = "duplicate-" + name;
           }
+          if (out == null) {
+            out = new ZipOutputStream(new UncloseableOutputStream(outputStream));
+          }
+          out.putNextEntry(new ZipEntry(name));
+          projectZip.writeTo(out);
+          out.closeEntry();
+          count++;
+        }
+        if (count == 0) {
+          throw new IllegalArgumentException("No files to download");
         }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
-      } catch (IllegalArgumentException e) {
-        System.err.println("No files found for userid: " + userId +
-            " for projectid: " + projectId);
-        continue;
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
-      }
-    }
-    if (count == 0) {
-      throw new IllegalArgumentException("No files to download");
-    }
-
-    List<String> userFiles = storageIo.getUserFiles(userId);
-    if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
-      byte[] androidKeystoreBytes =
-          storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-      if (androidKeystoreBytes.length > 0) {
-        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-        out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
-        out.closeEntry();
-        count++;
-      }
-    }
 
-    out.close();
+        List<String> userFiles = storageIo.getUserFiles(userId);
+        if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
+          byte[] androidKeystoreBytes =
+              storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
+          if (androidKeystoreBytes.length > 0) {
+            out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+            out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
+            out.closeEntry();
+            count++;
+          }
+        }
 
-    // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
-    return projectSourceZip;
+        out.close();
+        return count;
+      }
+    };
   }
 
   @Override
@@ -205,11 +205,13 @@ public final class FileImporterImpl implements FileImporter {
 
   @Override
   public Set<String> getProjectNames(final String userId) {
-    List<Long> projectIds = storageIo.getProjects(userId);
-    Iterable<String> names = Iterables.transform(projectIds, new Function<Long, String>() {
+    List<UserProject> userProjects =
+        storageIo.getUserProjects(userId, storageIo.getProjects(userId));
+    Iterable<String> names = Iterables.transform(userProjects,
+        new Function<UserProject, String>() {
       @Override
-      public String apply(Long projectId) {
-        return storageIo.getProjectName(userId, projectId);
+      public String apply(UserProject userProject) {
+        return userProject.getProjectName();
       }
     });
     return ImmutableSet.copyOf(names);
@@ -0,0 +1,561 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.shared.rpc.semweb.SemWebConstants;
+import com.google.common.annotations.VisibleForTesting;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An index of the labels of the classes and properties defined by the
+ * configured ontologies, used to autocomplete ontology terms in the designer.
+ *
+ * <p>Each label is split into lower case words, which are kept sorted so that
+ * the terms containing a word that starts with the text being typed can be
+ * found with a binary search. Words that are misspelled by a character or two
+ * still match when nothing matches exactly.
+ *
+ * <p>Building the index requires fetching the ontologies, so the index is
+ * normally built when App Inventor is built and serialized to a file, see
+ * {@link #main}.
+ */
+final class OntologyTermIndex implements Serializable {
+  private static final long serialVersionUID = -2745195837408624165L;
+
+  private static final Logger LOG = Logger.getLogger(OntologyTermIndex.class.getName());
+
+  private static final String CLASSES_QUERY =
+      "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
+      "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> " +
+      "PREFIX owl: <http://www.w3.org/2002/07/owl#> " +
+      "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { " +
+      "{ ?uri a owl:Class } UNION { ?uri a rdfs:Class }" +
+      "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
+      "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
+      "FILTER(isURI(?uri)) " +
+      "} GROUP BY ?uri";
+
+  private static final String PROPERTIES_QUERY =
+      "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> " +
+      "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> " +
+      "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> " +
+      "PREFIX owl: <http://www.w3.org/2002/07/owl#> " +
+      "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { " +
+      "{ ?uri a owl:ObjectProperty } UNION { ?uri a owl:DatatypeProperty } " +
+      "UNION { ?uri a rdf:Property } " +
+      "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
+      "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
+      "FILTER(isURI(?uri)) " +
+      "} GROUP BY ?uri";
+
+  // Scores of the ways a word of the search text can match a word of a label.
+  private static final int EXACT_WORD_SCORE = 3;
+  private static final int PREFIX_WORD_SCORE = 2;
+  private static final int FUZZY_WORD_SCORE = 1;
+  // Bonuses for a label that starts with, or is, the search text.
+  private static final int LABEL_PREFIX_SCORE = 4;
+  private static final int EXACT_LABEL_SCORE = 8;
+
+  // Timeouts for fetching an ontology, so an unresponsive server can't hang the build or a search.
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  /**
+   * A class or property.
+   */
+  static final class Term implements Serializable {
+    private static final long serialVersionUID = 5217040862207611306L;
+
+    final String uri;
+    final String label;
+    // The prefixed name of the term, e.g. foaf:Person, or null
+    final String qname;
+
+    Term(String uri, String label, String qname) {
+      this.uri = uri;
+      this.label = label;
+      this.qname = qname;
+    }
+  }
+
+  /*
+   * The terms of one kind, and the words in their labels.
+   */
+  private static final class TermTable implements Serializable {
+    private static final long serialVersionUID = 3395416616788779658L;
+
+    private final Term[] terms;
+    // The lower case labels, parallel to terms
+    private final String[] labels;
+    // The distinct words of all labels, sorted
+    private final String[] words;
+    // For each word, the indexes of the terms whose labels contain it
+    private final int[][] postings;
+
+    TermTable(List<Term> termList) {
+      terms = termList.toArray(new Term[termList.size()]);
+      labels = new String[terms.length];
+      TreeMap<String, List<Integer>> wordMap = new TreeMap<String, List<Integer>>();
+      for (int i = 0; i < terms.length; i++) {
+        labels[i] = normalize(terms[i].label);
+        for (String word : splitWords(terms[i].label)) {
+          List<Integer> termIndexes = wordMap.get(word);
+          if (termIndexes == null) {
+            termIndexes = new ArrayList<Integer>();
+            wordMap.put(word, termIndexes);
+          }
+          if (termIndexes.isEmpty() || termIndexes.get(termIndexes.size() - 1) != i) {
+            termIndexes.add(i);
+          }
+        }
+      }
+      words = wordMap.keySet().toArray(new String[wordMap.size()]);
+      postings = new int[words.length][];
+      int w = 0;
+      for (List<Integer> termIndexes : wordMap.values()) {
+        int[] posting = new int[termIndexes.size()];
+        for (int i = 0; i < posting.length; i++) {
+          posting[i] = termIndexes.get(i);
+        }
+        postings[w++] = posting;
+      }
+    }
+
+    List<Term> search(String text, int maxResults) {
+      List<String> queryWords = splitWords(text);
+      if (queryWords.isEmpty() || maxResults <= 0) {
+        return Collections.emptyList();
+      }
+
+      // Every word of the text must match a word of the label. A term's score is the sum of the
+      // best match for each word of the text.
+      Map<Integer, Integer> scores = null;
+      for (String queryWord : queryWords) {
+        Map<Integer, Integer> wordScores = matchWord(queryWord);
+        if (scores == null) {
+          scores = wordScores;
+        } else {
+          Map<Integer, Integer> combined = new HashMap<Integer, Integer>();
+          for (Map.Entry<Integer, Integer> entry : wordScores.entrySet()) {
+            Integer score = scores.get(entry.getKey());
+            if (score != null) {
+              combined.put(entry.getKey(), score + entry.getValue());
+            }
+          }
+          scores = combined;
+        }
+        if (scores.isEmpty()) {
+          return Collections.emptyList();
+        }
+      }
+
+      String normalizedText = normalize(text);
+      final Map<Integer, Integer> finalScores = new HashMap<Integer, Integer>();
+      for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+        String label = labels[entry.getKey()];
+        int score = entry.getValue();
+        if (label.equals(normalizedText)) {
+          score += EXACT_LABEL_SCORE;
+        } else if (label.startsWith(normalizedText)) {
+          score += LABEL_PREFIX_SCORE;
+        }
+        finalScores.put(entry.getKey(), score);
+      }
+
+      // Keep the best maxResults terms. The head of the queue is the worst of them.
+      final Comparator<Integer> ranking = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          int result = finalScores.get(b) - finalScores.get(a);
+          if (result == 0) {
+            // Prefer shorter labels, which are closer to the text.
+            result = labels[a].length() - labels[b].length();
+          }
+          if (result == 0) {
+            result = labels[a].compareTo(labels[b]);
+          }
+          return (result == 0) ? a - b : result;
+        }
+      };
+      PriorityQueue<Integer> best = new PriorityQueue<Integer>(maxResults + 1,
+          Collections.reverseOrder(ranking));
+      for (Integer termIndex : finalScores.keySet()) {
+        best.add(termIndex);
+        if (best.size() > maxResults) {
+          best.poll();
+        }
+      }
+      Integer[] termIndexes = best.toArray(new Integer[best.size()]);
+      Arrays.sort(termIndexes, ranking);
+      List<Term> results = new ArrayList<Term>(termIndexes.length);
+      for (Integer termIndex : termIndexes) {
+        results.add(terms[termIndex]);
+      }
+      return results;
+    }
+
+    /*
+     * Returns the terms with a word matching the given word of the search text, and the score of
+     * the best match for each term.
+     */
+    private Map<Integer, Integer> matchWord(String queryWord) {
+      Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+      int start = Arrays.binarySearch(words, queryWord);
+      if (start < 0) {
+        start = -start - 1;
+      }
+      for (int w = start; w < words.length && words[w].startsWith(queryWord); w++) {
+        int score = words[w].length() == queryWord.length() ? EXACT_WORD_SCORE : PREFIX_WORD_SCORE;
+        addScores(scores, w, score);
+      }
+      if (scores.isEmpty()) {
+        int maxEdits = maxEdits(queryWord);
+        if (maxEdits > 0) {
+          for (int w = 0; w < words.length; w++) {
+            if (isWithinEdits(queryWord, words[w], maxEdits)) {
+              addScores(scores, w, FUZZY_WORD_SCORE);
+            }
+          }
+        }
+      }
+      return scores;
+    }
+
+    private void addScores(Map<Integer, Integer> scores, int word, int score) {
+      for (int termIndex : postings[word]) {
+        Integer previous = scores.get(termIndex);
+        if (previous == null || previous < score) {
+          scores.put(termIndex, score);
+        }
+      }
+    }
+  }
+
+  private final TermTable classes;
+  private final TermTable properties;
+
+  @VisibleForTesting
+  OntologyTermIndex(List<Term> classes, List<Term> properties) {
+    this.classes = new TermTable(classes);
+    this.properties = new TermTable(properties);
+  }
+
+  /**
+   * Returns true if the index has no classes and no properties, for example
+   * because none of the ontologies could be fetched when it was built.
+   */
+  boolean isEmpty() {
+    return classes.terms.length == 0 && properties.terms.length == 0;
+  }
+
+  /**
+   * Returns the classes whose labels best match the given text.
+   *
+   * @param text  the text typed by the user
+   * @param maxResults  the maximum number of classes to return
+   * @return  the matching classes, best match first
+   */
+  List<Term> searchClasses(String text, int maxResults) {
+    return classes.search(text, maxResults);
+  }
+
+  /**
+   * Returns the properties whose labels best match the given text.
+   *
+   * @param text  the text typed by the user
+   * @param maxResults  the maximum number of properties to return
+   * @return  the matching properties, best match first
+   */
+  List<Term> searchProperties(String text, int maxResults) {
+    return properties.search(text, maxResults);
+  }
+
+  /**
+   * Builds an index of the classes and properties defined in the given model.
+   */
+  static OntologyTermIndex build(Model model) {
+    model.removeNsPrefix("");
+    return new OntologyTermIndex(findTerms(model, CLASSES_QUERY),
+        findTerms(model, PROPERTIES_QUERY));
+  }
+
+  /**
+   * Builds an index of the ontologies listed in SemWebConstants.properties,
+   * fetching them from the web.
+   */
+  static OntologyTermIndex build() {
+    long start = System.currentTimeMillis();
+    Model model = ModelFactory.createDefaultModel();
+    for (String ontology : getOntologies()) {
+      readOntology(model, ontology);
+    }
+    OntologyTermIndex index = build(model);
+    LOG.info("Built the ontology term index in " + (System.currentTimeMillis() - start) +
+        " ms.");
+    return index;
+  }
+
+  /**
+   * Reads an index written by {@link #writeTo}.
+   */
+  static OntologyTermIndex readFrom(InputStream in) throws IOException {
+    ObjectInputStream objectIn = new ObjectInputStream(new BufferedInputStream(in));
+    try {
+      return (OntologyTermIndex) objectIn.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    } catch (ClassCastException e) {
+      throw new IOException(e);
+    } finally {
+      objectIn.close();
+    }
+  }
+
+  /**
+   * Reads the index from the given file.
+   *
+   * @return  the index, or null if the file doesn't exist or can't be read
+   */
+  static OntologyTermIndex readFrom(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      long start = System.currentTimeMillis();
+      OntologyTermIndex index = readFrom(new FileInputStream(file));
+      LOG.info("Read the ontology term index in " + (System.currentTimeMillis() - start) +
+          " ms.");
+      return index;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read the ontology term index " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index to the given stream, which is closed.
+   */
+  void writeTo(OutputStream out) throws IOException {
+    ObjectOutputStream objectOut = new ObjectOutputStream(new BufferedOutputStream(out));
+    try {
+      objectOut.writeObject(this);
+    } finally {
+      objectOut.close();
+    }
+  }
+
+  /**
+   * Builds the index of the ontologies listed in SemWebConstants.properties
+   * and writes it to the file given as the only argument. If none of the
+   * ontologies can be fetched, no file is written, so that the server builds
+   * the index itself on first use.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: OntologyTermIndex <output file>");
+      System.exit(1);
+    }
+    OntologyTermIndex index = build();
+    if (index.isEmpty()) {
+      System.err.println("No ontologies could be read; " + args[0] + " was not written.");
+      System.exit(1);
+    }
+    index.writeTo(new FileOutputStream(args[0]));
+  }
+
+  private static List<Term> findTerms(Model model, String queryText) {
+    List<Term> terms = new ArrayList<Term>();
+    QueryExecution qe = QueryExecutionFactory.create(queryText, model);
+    try {
+      ResultSet rs = qe.execSelect();
+      while (rs.hasNext()) {
+        QuerySolution qs = rs.nextSolution();
+        String uri = qs.getResource("uri").getURI();
+        RDFNode label = qs.get("label");
+        String labelText;
+        if (label == null) {
+          int idx = Math.max(uri.lastIndexOf('/'), uri.lastIndexOf('#'));
+          labelText = uri.substring(idx + 1);
+        } else if (label.isLiteral()) {
+          labelText = label.asLiteral().getString();
+        } else {
+          labelText = label.toString();
+        }
+        terms.add(new Term(uri, labelText, model.qnameFor(uri)));
+      }
+    } finally {
+      qe.close();
+    }
+    return terms;
+  }
+
+  private static List<String> getOntologies() {
+    Properties props = new Properties();
+    try {
+      InputStream in = SemWebConstants.class.getResourceAsStream("SemWebConstants.properties");
+      if (in != null) {
+        try {
+          props.load(in);
+        } finally {
+          in.close();
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read SemWebConstants.properties", e);
+    }
+    List<String> ontologies = new ArrayList<String>();
+    for (String ontology : props.getProperty("ontologies", "").split(",")) {
+      if (!ontology.trim().isEmpty()) {
+        ontologies.add(ontology.trim());
+      }
+    }
+    return ontologies;
+  }
+
+  private static void readOntology(Model model, String ontology) {
+    LOG.info("Reading <" + ontology + "> ...");
+    try {
+      // we use this instead of Model.read(String) because Jena would
+      // use Apache HTTP commons, which attempts to read the jssecacerts file.
+      // AppEngine throws an AccessControlException that is never caught
+      // and ultimately will cause this to fail. By using our own connection
+      // we bypass this issue.
+      HttpURLConnection conn = (HttpURLConnection) new URL(ontology).openConnection();
+      conn.addRequestProperty("Accept", "application/rdf+xml,text/turtle,text/n3");
+      conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+      conn.setDoInput(true);
+      conn.connect();
+      String contentType = String.valueOf(conn.getContentType());
+      if (contentType.startsWith("application/rdf+xml")) {
+        model.read(conn.getInputStream(), ontology);
+      } else if (contentType.startsWith("text/turtle")) {
+        model.read(conn.getInputStream(), ontology, "TTL");
+      } else if (contentType.startsWith("text/n3")) {
+        model.read(conn.getInputStream(), ontology, "N3");
+      } else if (contentType.startsWith("text/plain")) {
+        // for non-compliant servers that return turtle as plain text
+        model.read(conn.getInputStream(), ontology, "TTL");
+      } else {
+        LOG.warning("Unexpected content type '" + contentType + "' returned by server.");
+      }
+    } catch (Exception e) {
+      LOG.log(Level.WARNING, "Unable to read ontology " + ontology, e);
+    }
+  }
+
+  private static String normalize(String text) {
+    return text.trim().toLowerCase(Locale.ENGLISH);
+  }
+
+  /*
+   * Splits text into lower case words, at non-alphanumeric characters and
+   * camel case boundaries, e.g. "familyName (FOAF)" becomes [family, name, foaf].
+   */
+  @VisibleForTesting
+  static List<String> splitWords(String text) {
+    List<String> words = new ArrayList<String>();
+    StringBuilder word = new StringBuilder();
+    char previous = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        addWord(words, word);
+      } else {
+        if (Character.isUpperCase(c) && Character.isLowerCase(previous)) {
+          addWord(words, word);
+        }
+        word.append(Character.toLowerCase(c));
+      }
+      previous = c;
+    }
+    addWord(words, word);
+    return words;
+  }
+
+  private static void addWord(List<String> words, StringBuilder word) {
+    if (word.length() > 0) {
+      words.add(word.toString());
+      word.setLength(0);
+    }
+  }
+
+  /*
+   * Longer words may be misspelled by more characters.
+   */
+  private static int maxEdits(String word) {
+    if (word.length() < 4) {
+      return 0;
+    }
+    return (word.length() < 8) ? 1 : 2;
+  }
+
+  /*
+   * Returns true if the Levenshtein distance between a and b is at most maxEdits.
+   */
+  @VisibleForTesting
+  static boolean isWithinEdits(String a, String b, int maxEdits) {
+    if (Math.abs(a.length() - b.length()) > maxEdits) {
+      return false;
+    }
+    int[] previousRow = new int[b.length() + 1];
+    int[] row = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previousRow[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      row[0] = i;
+      int rowMin = row[0];
+      for (int j = 1; j <= b.length(); j++) {
+        int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+        row[j] = Math.min(Math.min(row[j - 1] + 1, previousRow[j] + 1),
+            previousRow[j - 1] + cost);
+        rowMin = Math.min(rowMin, row[j]);
+      }
+      if (rowMin > maxEdits) {
+        return false;
+      }
+      int[] swap = previousRow;
+      previousRow = row;
+      row = swap;
+    }
+    return previousRow[b.length()] <= maxEdits;
+  }
+}
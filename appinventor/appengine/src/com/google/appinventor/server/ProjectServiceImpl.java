@@ -20,6 +20,8 @@ import com.google.appinventor.shared.rpc.InvalidSessionException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
@@ -238,12 +240,7 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   @Override
   public List<UserProject> getProjectInfos() {
     String userId = userInfoProvider.getUserId();
-    List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      projectInfos.add(makeUserProject(userId, projectId));
-    }
-    return projectInfos;
+    return storageIo.getUserProjects(userId, storageIo.getProjects(userId));
   }
 
   /**
@@ -458,6 +455,27 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param delta  the change from the stored content to the content to be saved
+   * @return modification date for project
+   */
+  @Override
+  public long saveDelta(String sessionId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws InvalidSessionException, BlocksTruncatedException,
+      FileDeltaMismatchException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).saveDelta(userId, projectId, fileId, force,
+        delta);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
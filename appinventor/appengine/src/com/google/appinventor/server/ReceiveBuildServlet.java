@@ -36,8 +36,12 @@ public class ReceiveBuildServlet extends OdeServlet {
   // Logging support
   private static final Logger LOG = Logger.getLogger(ReceiveBuildServlet.class.getName());
 
+  // The file in which the build server reports the result of the build
+  private static final String BUILD_OUTPUT_FILENAME = "build.out";
+
   private final OdeAuthFilter odeFilter = new OdeAuthFilter();
   private final transient StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+  private final transient BuildStatusCache buildStatusCache = new BuildStatusCache();
 
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -62,6 +66,7 @@ public class ReceiveBuildServlet extends OdeServlet {
     odeFilter.setUserFromUserId(userId);
     try {
       String buildFileDirPath = uriComponents[4];
+      String buildOutput = null;
       ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
       while (true) {
         ZipEntry zipEntry = zipInputStream.getNextEntry();
@@ -79,8 +84,16 @@ public class ReceiveBuildServlet extends OdeServlet {
           LOG.info("Saving build output files: " + filePath);
           storageIo.addOutputFilesToProject(userId, projectId, filePath);
           storageIo.uploadRawFileForce(projectId, filePath, userId, fileBytes);
+          if (BUILD_OUTPUT_FILENAME.equals(fileName)) {
+            buildOutput = new String(fileBytes, "UTF-8");
+          }
         }
       }
+      if (buildOutput != null) {
+        // Only now that all the output files are stored can clients be told that the build is
+        // done.
+        buildStatusCache.buildFinished(userId, projectId, buildFileDirPath, buildOutput);
+      }
     } finally {
       odeFilter.removeUser();
     }
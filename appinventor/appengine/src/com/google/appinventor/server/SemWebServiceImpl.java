@@ -1,38 +1,19 @@
 package com.google.appinventor.server;
 
-import java.io.IOException;
+import java.io.File;
 import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
-import org.apache.jena.larq.IndexBuilderString;
-import org.apache.jena.larq.IndexWriterFactory;
-import org.apache.jena.larq.LARQ;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
-import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.SerialMergeScheduler;
-import org.apache.lucene.store.RAMDirectory;
 
-import com.google.appinventor.shared.rpc.semweb.SemWebConstants;
+import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.shared.rpc.semweb.SemWebService;
-import com.hp.hpl.jena.query.Query;
-import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
-import com.hp.hpl.jena.query.QueryFactory;
-import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSetFactory;
-import com.hp.hpl.jena.query.ResultSetRewindable;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.ModelFactory;
 
 /**
  * Implementation of the semantic web service that provides features
@@ -51,16 +32,26 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
   private static final long serialVersionUID = 8321583419959798841L;
 
   /**
-   * Stores all ontology information.
+   * The maximum number of terms returned by a search.
    */
-  private static final transient Model ontologyModel;
+  private static final int MAX_RESULTS = 25;
 
   /**
-   * Sets up the ontology model and performs lucene indexing
+   * The file written by {@link OntologyTermIndex#main} when App Inventor is
+   * built, relative to the war directory.
+   */
+  private static final Flag<String> ontologyIndexFile =
+      Flag.createFlag("semweb.ontology.index", "WEB-INF/ontology-index.ser");
+
+  /**
+   * Index of the classes and properties of the ontologies, created on first use.
+   */
+  private static OntologyTermIndex ontologyIndex;
+
+  /**
+   * Configures log4j, which is used by Jena.
    */
   static {
-    long start = System.currentTimeMillis();
-    // configure log4j
     // TODO: put together a log4j.properties
     ConsoleAppender x = new ConsoleAppender();
     x.setWriter(new PrintWriter(System.err));
@@ -68,81 +59,21 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
     Logger log = Logger.getRootLogger();
     log.addAppender(x);
     log.setLevel(Level.DEBUG);
+  }
 
-    // read properties file
-    log.info("Initializing Lucene index for OWL ontologies...");
-    Properties props = new Properties();
-    try {
-      props.load(SemWebConstants.class.getResourceAsStream("SemWebConstants.properties"));
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    String ontologiesList = props.getProperty("ontologies", "");
-    String ontologies[] = ontologiesList.split(",");
-
-    // configure the index writer to use serial merge as
-    // AppEngine does not allow spawning threads
-    /*
-    IndexWriter writer = null;
-    try {
-      writer = IndexWriterFactory.create(new RAMDirectory());
-      writer.setMergeScheduler(new SerialMergeScheduler());
-    } catch (CorruptIndexException e1) {
-      // TODO Auto-generated catch block
-      e1.printStackTrace();
-    } catch (IOException e1) {
-      // TODO Auto-generated catch block
-      e1.printStackTrace();
-    }
-    IndexBuilderString larqBuilder;
-    if(writer == null) {
-      larqBuilder = new IndexBuilderString();
-    } else {
-      larqBuilder = new IndexBuilderString(writer);
-    }
-    */
-
-    // create the ontology model and load ontologies
-    ontologyModel = ModelFactory.createDefaultModel();
-    //ontologyModel.register(larqBuilder);
-    for(int i=0;i<ontologies.length;i++) {
-      log.debug("Reading <"+ontologies[i]+"> ...");
-      try {
-        // we use this instead of Model.read(String) because Jena would
-        // use Apache HTTP commons, which attempts to read the jssecacerts file.
-        // AppEngine throws an AccessControlException that is never caught
-        // and ultimately will cause this to fail. By using our own connection
-        // we bypass this issue.
-        HttpURLConnection conn = (HttpURLConnection)new URL(ontologies[i]).openConnection();
-        conn.addRequestProperty("Accept", "application/rdf+xml,text/turtle,text/n3");
-        conn.setDoInput(true);
-        conn.connect();
-        String contentType = conn.getContentType();
-        if(contentType.equals("application/rdf+xml")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i]);
-        } else if(contentType.equals("text/turtle")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i], "TTL");
-        } else if(contentType.equals("text/n3")) {
-          ontologyModel.read(conn.getInputStream(), ontologies[i], "N3");
-        } else if(contentType.equals("text/plain")) {
-          // for non-compliant servers that return turtle as plain text
-          try {
-            ontologyModel.read(conn.getInputStream(), ontologies[i], "TTL");
-          } catch(Exception e) {
-            log.warn("Unexpected content type 'text/plain' returned by server.");
-          }
-        } else {
-          log.warn("Unexpected content type '"+contentType+"' returned by server.");
-        }
-      } catch(Exception e) {
-        Logger.getRootLogger().warn("Unable to read ontology "+ontologies[i], e);
+  /**
+   * Returns the ontology index, reading it from the file built with App
+   * Inventor. If there is no such file, the index is built by fetching the
+   * ontologies instead, which is much slower.
+   */
+  private static synchronized OntologyTermIndex getOntologyIndex() {
+    if (ontologyIndex == null) {
+      ontologyIndex = OntologyTermIndex.readFrom(new File(ontologyIndexFile.get()));
+      if (ontologyIndex == null || ontologyIndex.isEmpty()) {
+        ontologyIndex = OntologyTermIndex.build();
       }
     }
-    //larqBuilder.closeWriter();
-    //ontologyModel.unregister(larqBuilder);
-    //LARQ.setDefaultIndex(larqBuilder.getIndex());
-    log.info("Lucene initialization completed in " + (System.currentTimeMillis()-start) + " ms.");
-    ontologyModel.removeNsPrefix("");
+    return ontologyIndex;
   }
 
   public void initialize() {
@@ -166,85 +97,33 @@ public class SemWebServiceImpl extends OdeRemoteServiceServlet implements
   }
 
   /**
-   * Processes the results of a query (assumes label, uri variables) and
-   * generates objects to be sent back to the client.
-   * @param queryText SPARQL query to be executed over the ontologies
+   * Generates the objects sent back to the client for the terms found by a
+   * search.
+   * @param terms Terms found, best match first
    * @return
    */
-  private List<Map<String, String>> processQuery(String queryText) {
-    final Logger log = Logger.getRootLogger();
+  private List<Map<String, String>> createEntries(List<OntologyTermIndex.Term> terms) {
     final List<Map<String, String>> pairs = new ArrayList<Map<String, String>>();
-    Query query = QueryFactory.create(queryText);
-    QueryExecution qe = QueryExecutionFactory.create(query, ontologyModel);
-    if(query.isSelectType()) {
-      // handle SELECT queries
-      ResultSetRewindable rs = ResultSetFactory.makeRewindable(qe.execSelect());
-      while(rs.hasNext()) {
-        // convert the query solution into a more compact representation
-        QuerySolution qs = rs.nextSolution();
-        String label = null;
-        if ( qs.getLiteral("label") != null ) {
-          label = qs.getLiteral("label").getString();
-        } else if( qs.get( "label" ) != null ) {
-          label = qs.get( "label" ).toString();
-        } else if( qs.getResource( "uri" ) != null ) {
-          label = qs.getResource( "uri" ).getURI();
-          int idx = Math.max(label.lastIndexOf("/"), label.lastIndexOf("#"));
-          label = label.substring(idx+1);
-        } else {
-          // uri was null so this entry is pretty useless.
-          continue;
-        }
-        final String value = qs.getResource("uri").getURI();
-        final String prefix = ontologyModel.qnameFor(value);
-        log.info(label+","+value+","+prefix);
-        pairs.add(createEntry(label, value, prefix));
-      }
-      if ( pairs.size() == 0 ) {
-        Map<String, String> nullPair = new HashMap<String, String>();
-        nullPair.put("label", "No results found");
-        nullPair.put("value", "");
-        pairs.add(nullPair);
-      }
-      log.info("Finished query");
-    } else {
-      log.warn("Unexpected query type");
+    for(OntologyTermIndex.Term term : terms) {
+      pairs.add(createEntry(term.label, term.uri, term.qname));
+    }
+    if ( pairs.size() == 0 ) {
+      Map<String, String> nullPair = new HashMap<String, String>();
+      nullPair.put("label", "No results found");
+      nullPair.put("value", "");
+      pairs.add(nullPair);
     }
     return pairs;
   }
 
   @Override
   public List<Map<String, String>> searchClasses(String text) {
-    // TODO: Escape the incoming text
-    String queryText = "PREFIX pf: <http://jena.hpl.hp.com/ARQ/property#> "+
-        "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "+
-        "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "+
-        "PREFIX owl: <http://www.w3.org/2002/07/owl#> "+
-        "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { "+
-        "{ ?uri a owl:Class } UNION { ?uri a rdfs:Class }" +
-        "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
-        "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
-        "FILTER(regex(?lbl, \""+text+"\", \"i\")) "+
-        "} GROUP BY ?uri ORDER BY ?label";
-    return processQuery(queryText);
+    return createEntries(getOntologyIndex().searchClasses(text, MAX_RESULTS));
   }
 
   @Override
   public List<Map<String, String>> searchProperties(String text) {
-    // TODO: Escape the incoming text
-    String queryText = "PREFIX pf: <http://jena.hpl.hp.com/ARQ/property#> "+
-        "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "+
-        "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> "+
-        "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> "+
-        "PREFIX owl: <http://www.w3.org/2002/07/owl#> "+
-        "SELECT DISTINCT ?uri (SAMPLE(?lbl) AS ?label) WHERE { "+
-        "{ ?uri a owl:ObjectProperty } UNION { ?uri a owl:DatatypeProperty } " +
-        "UNION { ?uri a rdf:Property } " +
-        "{ ?uri rdfs:label ?lbl } UNION { ?uri skos:prefLabel ?lbl } " +
-        "FILTER(lang(?lbl) = \"\" || langMatches(lang(?lbl), \"EN\")) . " +
-        "FILTER(regex(?lbl, \""+text+"\", \"i\")) "+
-        "} GROUP BY ?uri ORDER BY ?label";
-    return processQuery(queryText);
+    return createEntries(getOntologyIndex().searchProperties(text, MAX_RESULTS));
   }
 
 }
@@ -11,12 +11,15 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FileDelta;
+import com.google.appinventor.shared.rpc.project.FileDeltaMismatchException;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.util.Base64Util;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -120,9 +123,7 @@ public abstract class CommonProjectService {
    * @return modification date for project
    */
   public long deleteFile(String userId, long projectId, String fileId) {
-    final long date = storageIo.deleteFile(userId, projectId, fileId);
-    storageIo.removeSourceFilesFromProject(userId, projectId, false, fileId);
-    return date;
+    return storageIo.deleteFile(userId, projectId, fileId);
   }
 
   /**
@@ -134,14 +135,17 @@ public abstract class CommonProjectService {
    * @param directory path of the directory
    */
   public long deleteFiles(String userId, long projectId, String directory) {
-    // TODO(user): This is not efficient.
+    List<String> filesToDelete = new ArrayList<String>();
     for (String fileId : storageIo.getProjectSourceFiles(userId, projectId)) {
       if (fileId.startsWith(directory + '/') && fileId.indexOf('/', directory.length() + 1) == -1) {
-        storageIo.deleteFile(userId, projectId, fileId);
-        storageIo.removeSourceFilesFromProject(userId, projectId, false, fileId);
+        filesToDelete.add(fileId);
       }
     }
-    return storageIo.getProjectDateModified(userId, projectId);
+    if (filesToDelete.isEmpty()) {
+      return storageIo.getProjectDateModified(userId, projectId);
+    }
+    return storageIo.deleteFiles(userId, projectId,
+        filesToDelete.toArray(new String[filesToDelete.size()]));
   }
 
   /**
@@ -270,6 +274,36 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileId  project node whose source should be saved
+   * @param force  whether to save a trivial (empty) blocks file workspace
+   * @param delta  the change from the stored content to the content to be saved
+   * @return modification date for project
+   * @throws FileDeltaMismatchException if the stored content isn't the one the
+   *         delta was created for
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#saveDelta(String, long, String,
+   *      boolean, FileDelta)
+   */
+  public long saveDelta(String userId, long projectId, String fileId, boolean force,
+      FileDelta delta) throws BlocksTruncatedException, FileDeltaMismatchException {
+    String content = delta.applyTo(
+        storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET));
+    if (content == null) {
+      throw new FileDeltaMismatchException();
+    }
+    if (delta.isEmpty()) {
+      // The content hasn't changed, so there is nothing to write.
+      return storageIo.getProjectDateModified(userId, projectId);
+    }
+    return save2(userId, projectId, fileId, force, content);
+  }
+
   /**
    * Invokes a build command for the project.
    *
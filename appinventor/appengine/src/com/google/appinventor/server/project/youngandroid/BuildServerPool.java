@@ -0,0 +1,264 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The build servers to which builds are sent.
+ *
+ * <p>New builds go to the least loaded build server. The load of each build
+ * server is read from the counters on its /buildserver/vars page, which are
+ * fetched at most once every {@link #LOAD_REFRESH_MILLIS}. The vars pages of
+ * all the build servers whose load is out of date are fetched at once, so a
+ * slow or unreachable build server delays a build by at most one timeout. In
+ * between, each build sent to a build server counts as one more build task on
+ * it.
+ */
+class BuildServerPool {
+  private static final Logger LOG = Logger.getLogger(BuildServerPool.class.getName());
+
+  // How long the load of a build server is trusted before it is fetched again
+  @VisibleForTesting
+  static final long LOAD_REFRESH_MILLIS = 10 * 1000;
+
+  // How long to wait for a build server's vars page
+  private static final int VARS_TIMEOUT_MILLIS = 2000;
+
+  // Matches a variable on the vars page: <b>name</b> value<br>
+  private static final Pattern VARIABLE_PATTERN = Pattern.compile("<b>([^<]*)</b> ([^<]*)<br>");
+
+  /*
+   * The load of a build server.
+   */
+  private static class Load {
+    // The number of build tasks running or waiting on the build server
+    int tasks;
+    // The number of build tasks that the build server can run at once
+    int slots = 1;
+    // False if the build server couldn't be reached or turned down a build
+    boolean available;
+    long fetchTimeMillis;
+
+    double getTasksPerSlot() {
+      return available ? (double) tasks / slots : Double.POSITIVE_INFINITY;
+    }
+  }
+
+  private final List<String> hosts;
+
+  // The last known load of each build server. Guarded by this.
+  private final Map<String, Load> loads = new HashMap<String, Load>();
+
+  /**
+   * Creates a pool of the given build servers.
+   *
+   * @param hostList  host[:port] of each build server, separated by commas
+   */
+  BuildServerPool(String hostList) {
+    List<String> hosts = new ArrayList<String>();
+    for (String host : hostList.split(",")) {
+      if (!host.trim().isEmpty()) {
+        hosts.add(host.trim());
+      }
+    }
+    if (hosts.isEmpty()) {
+      throw new IllegalArgumentException("No build server hosts in \"" + hostList + "\"");
+    }
+    this.hosts = Collections.unmodifiableList(hosts);
+  }
+
+  /**
+   * Returns the build servers in the order they are listed.
+   */
+  List<String> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * Returns the build servers, least loaded first. A build should be sent to
+   * the first one, and to the next ones in turn if the previous ones turn it
+   * down.
+   */
+  List<String> getHostsByLoad() {
+    if (hosts.size() == 1) {
+      return hosts;
+    }
+    final Map<String, Double> currentLoads = new HashMap<String, Double>();
+    for (Map.Entry<String, Load> entry : getLoads().entrySet()) {
+      currentLoads.put(entry.getKey(), entry.getValue().getTasksPerSlot());
+    }
+    List<String> sortedHosts = new ArrayList<String>(hosts);
+    // The sort is stable, so equally loaded build servers are tried in the
+    // order they are listed.
+    Collections.sort(sortedHosts, new Comparator<String>() {
+      @Override
+      public int compare(String host1, String host2) {
+        return Double.compare(currentLoads.get(host1), currentLoads.get(host2));
+      }
+    });
+    return sortedHosts;
+  }
+
+  /**
+   * Records that a build was sent to the given build server, so that the
+   * next builds go elsewhere until its load is fetched again.
+   */
+  synchronized void buildStarted(String host) {
+    Load load = loads.get(host);
+    if (load != null) {
+      load.available = true;
+      load.tasks++;
+    }
+  }
+
+  /**
+   * Records that the given build server turned down a build or couldn't be
+   * reached, so that it is tried last until its load is fetched again.
+   */
+  synchronized void buildRejected(String host) {
+    Load load = new Load();
+    load.available = false;
+    load.fetchTimeMillis = System.currentTimeMillis();
+    loads.put(host, load);
+  }
+
+  /*
+   * Returns the load of each build server, fetching the loads that are out
+   * of date.
+   */
+  private Map<String, Load> getLoads() {
+    Map<String, Load> currentLoads = new HashMap<String, Load>();
+    List<String> staleHosts = new ArrayList<String>();
+    synchronized (this) {
+      for (String host : hosts) {
+        Load load = loads.get(host);
+        if (load != null &&
+            System.currentTimeMillis() - load.fetchTimeMillis < LOAD_REFRESH_MILLIS) {
+          currentLoads.put(host, load);
+        } else {
+          staleHosts.add(host);
+        }
+      }
+    }
+    if (staleHosts.isEmpty()) {
+      return currentLoads;
+    }
+
+    // Start fetching all of the out of date loads before waiting for any of
+    // them, and without holding the lock, since it may take a while.
+    long fetchTimeMillis = System.currentTimeMillis();
+    Map<String, Future<String>> varsPages = new LinkedHashMap<String, Future<String>>();
+    for (String host : staleHosts) {
+      try {
+        varsPages.put(host, fetchVars(host));
+      } catch (IOException e) {
+        varsPages.put(host, Futures.<String>immediateFailedFuture(e));
+      }
+    }
+    for (Map.Entry<String, Future<String>> entry : varsPages.entrySet()) {
+      String host = entry.getKey();
+      Load load = new Load();
+      load.fetchTimeMillis = fetchTimeMillis;
+      try {
+        Map<String, String> vars = parseVars(entry.getValue().get());
+        load.available = true;
+        load.tasks = getInt(vars, "active-build-tasks", 0) +
+            getInt(vars, "queued-build-tasks", 0);
+        // The maximum is "unlimited" if there is no limit, in which case the
+        // build server can run about as many tasks as it has processors.
+        load.slots = Math.max(1, getInt(vars, "maximum-simultaneous-build-tasks-allowed",
+            getInt(vars, "num-processors", 1)));
+      } catch (ExecutionException e) {
+        LOG.warning("Unable to read the load of build server " + host + ": " + e.getCause());
+        load.available = false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        load.available = false;
+      }
+      currentLoads.put(host, load);
+    }
+    synchronized (this) {
+      for (String host : staleHosts) {
+        loads.put(host, currentLoads.get(host));
+      }
+    }
+    return currentLoads;
+  }
+
+  private static int getInt(Map<String, String> vars, String name, int defaultValue) {
+    String value = vars.get(name);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        // Use the default value.
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Parses the variables on a build server's vars page.
+   */
+  @VisibleForTesting
+  static Map<String, String> parseVars(String html) {
+    Map<String, String> vars = new HashMap<String, String>();
+    Matcher matcher = VARIABLE_PATTERN.matcher(html);
+    while (matcher.find()) {
+      vars.put(matcher.group(1).trim(), matcher.group(2).trim());
+    }
+    return vars;
+  }
+
+  /**
+   * Starts fetching the vars page of the given build server, without waiting
+   * for it.
+   */
+  @VisibleForTesting
+  Future<String> fetchVars(final String host) throws IOException {
+    URL varsUrl = new URL("http://" + host + "/buildserver/vars");
+    HTTPRequest request = new HTTPRequest(varsUrl, HTTPMethod.GET,
+        FetchOptions.Builder.withDeadline(VARS_TIMEOUT_MILLIS / 1000.0));
+    Future<HTTPResponse> response = URLFetchServiceFactory.getURLFetchService()
+        .fetchAsync(request);
+    return Futures.lazyTransform(response, new Function<HTTPResponse, String>() {
+      @Override
+      public String apply(HTTPResponse response) {
+        if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+          throw new IllegalStateException("Response code " + response.getResponseCode() +
+              " from " + host);
+        }
+        return new String(response.getContent(), Charsets.UTF_8);
+      }
+    });
+  }
+}
@@ -11,6 +11,7 @@ import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.server.BuildStatusCache;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.FileExporterImpl;
@@ -20,6 +21,7 @@ import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.project.CommonProjectService;
 import com.google.appinventor.server.project.utils.Security;
 import com.google.appinventor.server.properties.json.ServerJsonParser;
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.shared.properties.json.JSONParser;
 import com.google.appinventor.shared.rpc.RpcResult;
@@ -28,7 +30,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -50,6 +51,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -59,15 +61,20 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -78,7 +85,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -110,10 +116,25 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   public static final String PROJECT_KEYSTORE_LOCATION = "android.keystore";
 
-  // host[:port] to use for connecting to the build server
+  // host[:port] of each build server, separated by commas
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
 
+  // The build servers, created from buildServerHost when first needed
+  private static BuildServerPool buildServerPool;
+
+  // The response header that carries the ID of a build accepted by the build server.
+  // Must match BuildServer.BUILD_ID_HEADER
+  private static final String BUILD_ID_HEADER = "X-Build-Id";
+
+  // The file in which the build server reports the result of the build
+  private static final String BUILD_OUTPUT_FILENAME = "build.out";
+
+  // How long the progress of a build is shown before the build server is asked for it again
+  private static final long PROGRESS_REFRESH_MILLIS = 5 * 1000;
+
+  private final BuildStatusCache buildStatusCache = new BuildStatusCache();
+
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
   }
@@ -405,8 +426,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
             // the blocks file to Blockly format and name. Leave the old
             // codeblocks file around for now (for debugging) but don't send it to the client.
             String blocklyFileContents = convertCodeblocksToBlockly(userId, projectId, fileId);
-            storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
-            storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
+            storageIo.createSourceFiles(userId, projectId,
+                Collections.singletonMap(blocklyFileName, blocklyFileContents),
                 StorageUtil.DEFAULT_CHARSET);
             sourceNode = new YoungAndroidBlocksNode(blocklyFileName);
           }
@@ -455,19 +476,12 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           !sourceFiles.contains(blocklyFileName) &&
           !sourceFiles.contains(yailFileName)) {
 
-        String formFileContents = getInitialFormPropertiesFileContents(qualifiedFormName);
-        storageIo.addSourceFilesToProject(userId, projectId, false, formFileName);
-        storageIo.uploadFileForce(projectId, formFileName, userId, formFileContents,
-            StorageUtil.DEFAULT_CHARSET);
-
-        String blocklyFileContents = getInitialBlocklySourceFileContents(qualifiedFormName);
-        storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
-        storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
-            StorageUtil.DEFAULT_CHARSET);
-
-        String yailFileContents = "";  // start empty
-        storageIo.addSourceFilesToProject(userId, projectId, false, yailFileName);
-        return storageIo.uploadFileForce(projectId, yailFileName, userId, yailFileContents,
+        // Add all three files in one transaction.
+        Map<String, String> contents = Maps.newLinkedHashMap();
+        contents.put(formFileName, getInitialFormPropertiesFileContents(qualifiedFormName));
+        contents.put(blocklyFileName, getInitialBlocklySourceFileContents(qualifiedFormName));
+        contents.put(yailFileName, "");  // start empty
+        return storageIo.createSourceFiles(userId, projectId, contents,
             StorageUtil.DEFAULT_CHARSET);
       } else {
         throw new IllegalStateException("One or more files to be added already exists.");
@@ -491,13 +505,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       String blocklyFileName = YoungAndroidBlocksNode.getBlocklyFileId(qualifiedFormName);
       String codeblocksFileName = YoungAndroidBlocksNode.getCodeblocksFileId(qualifiedFormName);
       String yailFileName = YoungAndroidYailNode.getYailFileId(qualifiedFormName);
-      storageIo.deleteFile(userId, projectId, formFileName);
-      storageIo.deleteFile(userId, projectId, blocklyFileName);
-      storageIo.deleteFile(userId, projectId, codeblocksFileName);
-      storageIo.deleteFile(userId, projectId, yailFileName);
-      storageIo.removeSourceFilesFromProject(userId, projectId, true,
+      return storageIo.deleteFiles(userId, projectId,
           formFileName, blocklyFileName, codeblocksFileName, yailFileName);
-      return storageIo.getProjectDateModified(userId, projectId);
 
     } else {
       return super.deleteFile(userId, projectId, fileId);
@@ -526,72 +535,102 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
     storageIo.storeNonce(nonce, userId, projectId);
 
-    // Delete the existing build output files, if any, so that future attempts to get it won't get
-    // old versions.
+    // Forget the status of the previous build and delete the existing build output files, if any,
+    // so that future attempts to get it won't get old versions.
+    buildStatusCache.clear(userId, projectId, outputFileDir);
     List<String> buildOutputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    for (String buildOutputFile : buildOutputFiles) {
-      storageIo.deleteFile(userId, projectId, buildOutputFile);
+    if (!buildOutputFiles.isEmpty()) {
+      storageIo.deleteFiles(userId, projectId,
+          buildOutputFiles.toArray(new String[buildOutputFiles.size()]));
     }
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    // The size of the zip sent to the build server, or -1 if none was sent
+    long zipFileLength = -1;
     try {
-      buildServerUrl = new URL(getBuildServerUrlStr(
-          user.getUserEmail(),
-          userId,
-          projectId,
-          outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+      // The project files are only read from storage while they are being written into the
+      // request, so the whole zip is never held in memory.
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-          projectName + ".aia");
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
-
-      int responseCode = 0;
-      try {
-          responseCode = connection.getResponseCode();
-      } catch (IOException e) {
-          throw new CouldNotFetchException();
-      }
-      if (responseCode != HttpURLConnection.HTTP_OK) {
-        // Put the HTTP response code into the RpcResult so the client code in BuildCommand.java
-        // can provide an appropriate error message to the user.
-        // NOTE(lizlooney) - There is some weird bug/problem with HttpURLConnection. When the
-        // responseCode is 503, connection.getResponseMessage() returns "OK", but it should return
-        // "Service Unavailable". If I make the request with curl and look at the headers, they
-        // have the expected error message.
-        // For now, the moral of the story is: don't use connection.getResponseMessage().
-        String error = "Build server responded with response code " + responseCode + ".";
+      ProjectSourceZipWriter zipWriter = fileExporter.prepareProjectSourceZip(userId, projectId,
+          false, /* includeAndroidKeystore */ true, projectName + ".aia");
+
+      // Send the build to the least loaded build server. If it is busy or can't be reached, try
+      // the next one. Once any of the request has been sent, the build server may have started
+      // the build, so a failure after that isn't retried on another build server.
+      BuildServerPool pool = getBuildServerPool();
+      RpcResult busyResult = null;
+      for (String host : pool.getHostsByLoad()) {
+        buildServerUrl = new URL(getBuildServerUrlStr(
+            host,
+            user.getUserEmail(),
+            userId,
+            projectId,
+            outputFileDir));
+        HttpURLConnection connection;
+        OutputStream requestStream;
         try {
-          String content = readContent(connection.getInputStream());
-          if (content != null && !content.isEmpty()) {
-            error += "\n" + content;
-          }
+          connection = (HttpURLConnection) buildServerUrl.openConnection();
+          connection.setDoOutput(true);
+          connection.setRequestMethod("POST");
+          connection.setChunkedStreamingMode(0);
+          requestStream = connection.getOutputStream();
         } catch (IOException e) {
-          // No content. That's ok.
+          LOG.log(Level.WARNING, "Unable to send build to build server " + host, e);
+          pool.buildRejected(host);
+          continue;
         }
+
+        int responseCode;
         try {
-          String errorContent = readContent(connection.getErrorStream());
-          if (errorContent != null && !errorContent.isEmpty()) {
-            error += "\n" + errorContent;
+          CountingOutputStream countingOutputStream = new CountingOutputStream(
+              new BufferedOutputStream(requestStream));
+          try {
+            zipWriter.writeTo(countingOutputStream);
+          } finally {
+            zipFileLength = countingOutputStream.getCount();
+            countingOutputStream.close();
           }
-        } catch (IOException e) {
-          // No error content. That's ok.
+          responseCode = connection.getResponseCode();
+        } catch (ConnectException e) {
+          // Some connections don't connect until the request has been written, in which case
+          // the build server never saw it.
+          LOG.log(Level.WARNING, "Unable to send build to build server " + host, e);
+          pool.buildRejected(host);
+          continue;
+        } catch (UnknownHostException e) {
+          LOG.log(Level.WARNING, "Unable to send build to build server " + host, e);
+          pool.buildRejected(host);
+          continue;
         }
-        if (responseCode == HttpURLConnection.HTTP_CONFLICT) {
-          // The build server is not compatible with this App Inventor instance. Log this as severe
-          // so the owner of the app engine instance will know about it.
-          LOG.severe(error);
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+          // The build server is already running as many builds as it can.
+          pool.buildRejected(host);
+          busyResult = new RpcResult(responseCode, "",
+              StringUtils.escape(getBuildServerError(connection, responseCode)));
+          continue;
         }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+          // Put the HTTP response code into the RpcResult so the client code in
+          // BuildCommand.java can provide an appropriate error message to the user.
+          String error = getBuildServerError(connection, responseCode);
+          if (responseCode == HttpURLConnection.HTTP_CONFLICT) {
+            // The build server is not compatible with this App Inventor instance. Log this as
+            // severe so the owner of the app engine instance will know about it.
+            LOG.severe(error);
+          }
 
-        return new RpcResult(responseCode, "", StringUtils.escape(error));
+          return new RpcResult(responseCode, "", StringUtils.escape(error));
+        }
+        pool.buildStarted(host);
+        // Remember which build server is running the build, and the build ID, so that progress
+        // requests can ask that build server about this particular build.
+        buildStatusCache.buildStarted(userId, projectId, outputFileDir, host,
+            connection.getHeaderField(BUILD_ID_HEADER));
+        return new RpcResult(true, "Building " + projectName, "");
+      }
+      if (busyResult != null) {
+        return busyResult;
       }
+      throw new CouldNotFetchException();
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
@@ -612,8 +651,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipFileLength >= 0) {
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
@@ -627,22 +665,57 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId), wrappedException);
       return new RpcResult(false, "", wrappedException.getMessage());
     }
-    return new RpcResult(true, "Building " + projectName, "");
+  }
+
+  /*
+   * Returns the error message for a build that the build server didn't accept.
+   */
+  private static String getBuildServerError(HttpURLConnection connection, int responseCode) {
+    // NOTE(lizlooney) - There is some weird bug/problem with HttpURLConnection. When the
+    // responseCode is 503, connection.getResponseMessage() returns "OK", but it should return
+    // "Service Unavailable". If I make the request with curl and look at the headers, they
+    // have the expected error message.
+    // For now, the moral of the story is: don't use connection.getResponseMessage().
+    String error = "Build server responded with response code " + responseCode + ".";
+    try {
+      String content = readContent(connection.getInputStream());
+      if (content != null && !content.isEmpty()) {
+        error += "\n" + content;
+      }
+    } catch (IOException e) {
+      // No content. That's ok.
+    }
+    try {
+      String errorContent = readContent(connection.getErrorStream());
+      if (errorContent != null && !errorContent.isEmpty()) {
+        error += "\n" + errorContent;
+      }
+    } catch (IOException e) {
+      // No error content. That's ok.
+    }
+    return error;
+  }
+
+  private static synchronized BuildServerPool getBuildServerPool() {
+    if (buildServerPool == null) {
+      buildServerPool = new BuildServerPool(buildServerHost.get());
+    }
+    return buildServerPool;
   }
 
   private String buildErrorMsg(String exceptionName, URL buildURL, String userId, long projectId) {
     return "Request to build failed with " + exceptionName + ", user=" + userId
         + ", project=" + projectId + ", build URL is " + buildURL
-        + " [" + buildURL.toString().length() + "]";
+        + (buildURL != null ? " [" + buildURL.toString().length() + "]" : "");
   }
 
   // Note that this is a function rather than just a constant because we assume it will get
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
-  private String getBuildServerUrlStr(String userName, String userId,
+  private String getBuildServerUrlStr(String host, String userName, String userId,
                                       long projectId, String fileName)
       throws UnsupportedEncodingException, EncryptionException {
-    return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
+    return "http://" + host + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
@@ -698,44 +771,89 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   @Override
   public RpcResult getBuildResult(User user, long projectId, String target) {
     String userId = user.getUserId();
-    String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
+    String outputFileDir = BUILD_FOLDER + '/' + target;
+
+    // Answer from the status of the build in memcache when possible, without querying the
+    // datastore. ReceiveBuildServlet records the build output there once the build is done.
+    BuildStatusCache.Status status = buildStatusCache.get(userId, projectId, outputFileDir);
+    if (status != null) {
+      if (status.getBuildOutput() != null) {
+        return parseBuildOutput(status.getBuildOutput());
+      }
+      if (System.currentTimeMillis() - status.getProgressTimeMillis() < PROGRESS_REFRESH_MILLIS) {
+        return new RpcResult(-1, "" + status.getProgress(), "");
+      }
+      if (status.getBuildId() != null) {
+        int progress = getCurrentProgress(status.getHost(), status.getBuildId(),
+            status.getProgress());
+        if (progress >= 0) {
+          buildStatusCache.setProgress(userId, projectId, outputFileDir, status, progress);
+          return new RpcResult(-1, "" + progress, "");
+        }
+        // The build server is done with the build, so look for its output in storage.
+      }
+    }
+
+    String buildOutputFileName = outputFileDir + '/' + BUILD_OUTPUT_FILENAME;
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
-    RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
+    RpcResult buildResult = null;
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
         String outputStr = storageIo.downloadFile(userId, projectId, outputFile, "UTF-8");
-        try {
-          JSONObject buildResultJsonObj = new JSONObject(outputStr);
-          buildResult = new RpcResult(buildResultJsonObj.getInt("result"),
-                                      buildResultJsonObj.getString("output"),
-                                      buildResultJsonObj.getString("error"),
-                                      outputStr);
-        } catch (JSONException e) {
-          buildResult = new RpcResult(1, "", "");
-        }
+        buildResult = parseBuildOutput(outputStr);
         break;
       }
     }
+    if (buildResult == null) {
+      // Build not finished
+      int progress;
+      if (status == null) {
+        progress = getCurrentProgress(user, projectId, target,
+            getBuildServerPool().getHosts().get(0));
+      } else if (status.getBuildId() == null) {
+        progress = getCurrentProgress(user, projectId, target, status.getHost());
+        buildStatusCache.setProgress(userId, projectId, outputFileDir, status, progress);
+      } else {
+        progress = status.getProgress();
+      }
+      buildResult = new RpcResult(-1, "" + progress, "");
+    }
     return buildResult;
   }
 
+  /*
+   * Converts the content of a build.out file into an RpcResult.
+   */
+  private static RpcResult parseBuildOutput(String outputStr) {
+    try {
+      JSONObject buildResultJsonObj = new JSONObject(outputStr);
+      return new RpcResult(buildResultJsonObj.getInt("result"),
+                           buildResultJsonObj.getString("output"),
+                           buildResultJsonObj.getString("error"),
+                           outputStr);
+    } catch (JSONException e) {
+      return new RpcResult(1, "", "");
+    }
+  }
+
   /**
-   * Check if there are any build progress available for the given user's project
+   * Returns the progress of the current build of the given user's project, as a percentage,
+   * by asking a build server that doesn't give build IDs.
    *
    * @param user the User that owns the {@code projectId}.
    * @param projectId  project id to be built
    * @param target  build target (optional, implementation dependent)
+   * @param host  host[:port] of the build server running the build
+   * @return the progress, or 0 if the build server can't tell
    */
-  public void updateCurrentProgress(User user, long projectId, String target) {
+  private int getCurrentProgress(User user, long projectId, String target, String host) {
+    int currentProgress = 0;
     try {
       String userId = user.getUserId();
-      String projectName = storageIo.getProjectName(userId, projectId);
       String outputFileDir = BUILD_FOLDER + '/' + target;
       URL buildServerUrl = null;
-      ProjectSourceZip zipFile = null;
 
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
+      buildServerUrl = new URL(getBuildServerUrlStr(host, user.getUserEmail(),
         userId, projectId, outputFileDir));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
@@ -762,6 +880,44 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       } catch (RuntimeException e) {
         // that's ok, nothing to do
       }
+    return currentProgress;
+  }
+
+  /*
+   * Asks the given build server for the progress of the build with the given ID. Returns -1 if
+   * the build has finished or the build server doesn't know about it, and knownProgress if the
+   * build server can't be asked.
+   */
+  private int getCurrentProgress(String host, String buildId, int knownProgress) {
+    int currentProgress = knownProgress;
+    try {
+      URL buildStatusUrl = new URL("http://" + host
+          + "/buildserver/build-status?buildId=" + URLEncoder.encode(buildId, "UTF-8"));
+      HttpURLConnection connection = (HttpURLConnection) buildStatusUrl.openConnection();
+      int responseCode = connection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+        return -1;
+      }
+      if (responseCode == HttpURLConnection.HTTP_OK) {
+        String content = readContent(connection.getInputStream());
+        if (content != null && !content.isEmpty()) {
+          JSONObject buildStatus = new JSONObject(content);
+          String state = buildStatus.getString("state");
+          if (!"queued".equals(state) && !"running".equals(state)) {
+            return -1;
+          }
+          currentProgress = buildStatus.getInt("progress");
+          LOG.info("The current progress of build " + buildId + " is " + currentProgress + "%.");
+        }
+      }
+    } catch (IOException e) {
+      // that's ok, nothing to do
+    } catch (JSONException e) {
+      // that's ok, nothing to do
+    } catch (RuntimeException e) {
+      // that's ok, nothing to do
+    }
+    return currentProgress;
   }
 
   /**
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -187,11 +188,8 @@ public final class YoungAndroidWebStartSupport extends WebStartSupport {
         if (!content.endsWith("\n")) {
           content = content + "\n";
         }
-        List<String> sourceFiles = getStorageIo().getProjectSourceFiles(userId, projectId);
-        if (!sourceFiles.contains(fileName)) {
-          getStorageIo().addSourceFilesToProject(userId, projectId, false, fileName);
-        }
-        getStorageIo().uploadFileForce(projectId, fileName, userId, content, StorageUtil.DEFAULT_CHARSET);
+        getStorageIo().createSourceFiles(userId, projectId,
+            Collections.singletonMap(fileName, content), StorageUtil.DEFAULT_CHARSET);
         // TODO(sharon): technically this should probably return HttpServletResponse.SC_CREATED (201)
         // I'm not sure whether it really matters.
         resp.setStatus(HttpServletResponse.SC_OK);
@@ -31,6 +31,7 @@ import com.google.appinventor.server.storage.StoredData.UserFileData;
 import com.google.appinventor.server.storage.StoredData.UserProjectData;
 import com.google.appinventor.server.storage.StoredData.RendezvousData;
 import com.google.appinventor.server.storage.StoredData.WhiteListData;
+import com.google.appinventor.server.util.UncloseableOutputStream;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.Nonce;
@@ -71,8 +72,12 @@ import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -103,11 +108,20 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
+  // How long project information is cached in memcache, and how long a
+  // project that was modified can't be cached again, so that a read that
+  // started before the modification doesn't cache the old information.
+  private static final int PROJECT_CACHE_SECONDS = 60;
+  private static final long PROJECT_CACHE_NO_READD_MILLIS = 5000;
+
   private final GcsService gcsService =
     GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
 
   private final String GCS_BUCKET_NAME = Flag.createFlag("gcs.bucket", "").get();
 
+  // The size of the chunks in which GCS files are read when they are exported.
+  private static final int GCS_READ_CHUNK_SIZE = 1024 * 1024;
+
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
   private final boolean useGcs = Flag.createFlag("use.gcs", false).get();
@@ -602,6 +616,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.delete(projectKey);
         }
       });
+      invalidateProjectCache(projectId);
       // have to delete the blobs outside of the user and project jobs
       for (String blobPath: blobPaths) {
         deleteBlobstoreFile(blobPath);
@@ -634,6 +649,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       });
+      invalidateProjectCache(projectId);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
@@ -651,6 +667,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       });
+      invalidateProjectCache(projectId);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null,"error in setProjectAttributionId",  e);
     }
@@ -748,31 +765,59 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public UserProject getUserProject(final String userId, final long projectId) {
-    final Result<ProjectData> projectData = new Result<ProjectData>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            projectData.t = pd;
-          } else {
-            projectData.t = null;
-          }
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
+    List<UserProject> userProjects = getUserProjects(userId, Collections.singletonList(projectId));
+    return userProjects.isEmpty() ? null : userProjects.get(0);
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(final String userId, final List<Long> projectIds) {
+    // Projects are cached one at a time, because updateProjectModDate only knows
+    // the project id.
+    Map<String, UserProject> projects = new HashMap<String, UserProject>();
+    List<String> cacheKeys = new ArrayList<String>(projectIds.size());
+    for (long projectId : projectIds) {
+      cacheKeys.add(projectCacheKey(projectId));
+    }
+    for (Map.Entry<String, Object> entry : memcache.getAll(cacheKeys).entrySet()) {
+      projects.put(entry.getKey(), (UserProject) entry.getValue());
+    }
+
+    // Read the projects that weren't cached with a single batch get. The
+    // projects are in different entity groups, so this can't be done in a
+    // transaction, but a get by key is strongly consistent anyway.
+    final List<Key<ProjectData>> missingKeys = new ArrayList<Key<ProjectData>>();
+    for (long projectId : projectIds) {
+      if (!projects.containsKey(projectCacheKey(projectId))) {
+        missingKeys.add(projectKey(projectId));
+      }
     }
-    if (projectData == null) {
-      return null;
-    } else {
-      return new UserProject(projectId, projectData.t.name,
-          projectData.t.type, projectData.t.dateCreated,
-          projectData.t.dateModified, projectData.t.galleryId,
-          projectData.t.attributionId);
+    if (!missingKeys.isEmpty()) {
+      Map<Key<ProjectData>, ProjectData> projectDatas;
+      try {
+        projectDatas = ObjectifyService.begin().get(missingKeys);
+      } catch (RuntimeException e) {
+        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+      }
+      Map<String, UserProject> loaded = new HashMap<String, UserProject>();
+      for (ProjectData pd : projectDatas.values()) {
+        loaded.put(projectCacheKey(pd.id), new UserProject(pd.id, pd.name, pd.type,
+            pd.dateCreated, pd.dateModified, pd.galleryId, pd.attributionId));
+      }
+      projects.putAll(loaded);
+      // Don't overwrite a newer copy, or re-add a project that was just modified
+      // (see invalidateProjectCache).
+      memcache.putAll(loaded, Expiration.byDeltaSeconds(PROJECT_CACHE_SECONDS),
+          MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    List<UserProject> userProjects = new ArrayList<UserProject>(projects.size());
+    for (String cacheKey : cacheKeys) {
+      UserProject userProject = projects.get(cacheKey);
+      if (userProject != null) {
+        userProjects.add(userProject);
+      }
     }
+    return userProjects;
   }
 
   @Override
@@ -1296,12 +1341,124 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public long createSourceFiles(final String userId, final long projectId,
+      final Map<String, String> contents, final String encoding) {
+    if (!getProjects(userId).contains(projectId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    final Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, String> entry : contents.entrySet()) {
+      try {
+        rawContents.put(entry.getKey(), entry.getValue().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(userId, projectId, entry.getKey()), e);
+      }
+    }
+    final Result<Long> modTime = new Result<Long>();
+    final List<FileData> addedFiles = new ArrayList<FileData>();
+    final List<String> blobsToDelete = new ArrayList<String>();
+    final List<String> oldBlobstorePaths = new ArrayList<String>();
+    final List<String> oldGcsNames = new ArrayList<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          // Forget the contents found by a failed attempt.
+          oldBlobstorePaths.clear();
+          oldGcsNames.clear();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>();
+          for (String fileName : rawContents.keySet()) {
+            fileKeys.add(projectFileKey(projectKey, fileName));
+          }
+          Map<Key<FileData>, FileData> oldFiles = datastore.get(fileKeys);  // batch get
+          for (Map.Entry<String, byte[]> entry : rawContents.entrySet()) {
+            String fileName = entry.getKey();
+            FileData oldFile = oldFiles.get(projectFileKey(projectKey, fileName));
+            if (oldFile != null && !oldFile.role.equals(FileData.RoleEnum.SOURCE)) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName),
+                  new IllegalStateException("File role change is not supported"));
+            }
+            FileData fd;
+            try {
+              fd = createRawFile(projectKey, FileData.RoleEnum.SOURCE, fileName,
+                  entry.getValue());
+            } catch (BlobWriteException e) {
+              rememberBlobsToDelete();
+              // Note that this makes the BlobWriteException fatal. The job will
+              // not be retried if we get this exception.
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName), e);
+            } catch (IOException e) { // GCS throws this
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName), e);
+            }
+            addedFiles.add(fd);
+            if (oldFile != null) {
+              fd.lastBackup = oldFile.lastBackup;
+              backupFileIfDue(fd, userId, projectId, fileName, entry.getValue());
+              if (oldFile.isBlob && oldFile.blobstorePath != null) {
+                oldBlobstorePaths.add(oldFile.blobstorePath);
+              }
+              // A new GCS file has the same name as the old one and has replaced it.
+              if (oldFile.isGCS && !fd.isGCS) {
+                oldGcsNames.add(oldFile.gcsName);
+              }
+            }
+          }
+          datastore.put(addedFiles);  // batch put
+          modTime.t = updateProjectModDate(datastore, projectId);
+        }
+
+        @Override
+        public void onNonFatalError() {
+          rememberBlobsToDelete();
+        }
+
+        private void rememberBlobsToDelete() {
+          for (FileData addedFile : addedFiles) {
+            if (addedFile.isBlob && addedFile.blobstorePath != null) {
+              blobsToDelete.add(addedFile.blobstorePath);
+            }
+          }
+          // clear addedFiles in case we end up here more than once
+          addedFiles.clear();
+        }
+      });
+      // The replaced contents are only deleted once the transaction has
+      // committed, and outside of it to avoid multiple entity group errors.
+      deleteFileContents(oldBlobstorePaths, oldGcsNames);
+    } catch (ObjectifyException e) {
+      for (FileData addedFile : addedFiles) {
+        if (addedFile.isBlob && addedFile.blobstorePath != null) {
+          blobsToDelete.add(addedFile.blobstorePath);
+        }
+      }
+      addedFiles.clear();
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } finally {
+      // Need to delete any orphaned blobs outside of the transaction to avoid
+      // multiple entity group errors.
+      for (String blobToDelete : blobsToDelete) {
+        deleteBlobstoreFile(blobToDelete);
+      }
+    }
+    return modTime.t;
+  }
+
   private long updateProjectModDate(Objectify datastore, long projectId) {
     long modDate = System.currentTimeMillis();
     ProjectData pd = datastore.find(projectKey(projectId));
     if (pd != null) {
       pd.dateModified = modDate;
       datastore.put(pd);
+      invalidateProjectCache(projectId);
       return modDate;
     } else {
       throw CrashReport.createAndLogError(LOG, null, null,
@@ -1327,10 +1484,6 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean useBlobstore = useBlobstoreForFile(fileName, content.length);
     final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstorePath = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1409,21 +1562,7 @@ public class ObjectifyStorageIo implements  StorageIo {
             fd.blobstorePath = null;
             fd.content = content;
           }
-          if (considerBackup) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
+          backupFileIfDue(fd, userId, projectId, fileName, content);
           datastore.put(fd);
           modTime.t = updateProjectModDate(datastore, projectId);
         }
@@ -1452,6 +1591,34 @@ public class ObjectifyStorageIo implements  StorageIo {
     return modTime.t;
   }
 
+  /*
+   * Writes a copy of the given content to a ".backup" file in GCS if the file
+   * is one whose saves are backed up and it hasn't been backed up in the last
+   * 24 hours, and records the time of the backup in fd.
+   */
+  private void backupFileIfDue(FileData fd, String userId, long projectId, String fileName,
+      byte[] content) {
+    boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+    if (considerBackup) {
+      if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
+        try {
+          String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
+          GcsOutputChannel outputChannel =
+              gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+          outputChannel.write(ByteBuffer.wrap(content));
+          outputChannel.close();
+          fd.lastBackup = System.currentTimeMillis();
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
+        }
+      }
+    }
+  }
+
   protected void deleteBlobstoreFile(String blobstorePath) {
     // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
     // have to get the BlobKey and delete via the BlobstoreService.
@@ -1529,45 +1696,70 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public long deleteFile(final String userId, final long projectId, final String fileName) {
+    return deleteFiles(userId, projectId, fileName);
+  }
+
+  @Override
+  public long deleteFiles(final String userId, final long projectId,
+      final String... fileNames) {
     if (!getProjects(userId).contains(projectId)) {
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId),
           new UnauthorizedAccessException(userId, projectId, null));
     }
     final Result<Long> modTime = new Result<Long>();
-    final Result<String> oldBlobstorePath = new Result<String>();
-    final Result<String> oldgcsName = new Result<String>();
+    final List<String> oldBlobstorePaths = new ArrayList<String>();
+    final List<String> oldGcsNames = new ArrayList<String>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
-          FileData fileData = datastore.find(fileKey);
-          if (fileData != null) {
-            oldBlobstorePath.t = fileData.blobstorePath;
+          // Forget the contents found by a failed attempt.
+          oldBlobstorePaths.clear();
+          oldGcsNames.clear();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>();
+          for (String fileName : fileNames) {
+            fileKeys.add(projectFileKey(projectKey, fileName));
+          }
+          for (FileData fileData : datastore.get(fileKeys).values()) {  // batch get
+            if (fileData.blobstorePath != null) {
+              oldBlobstorePaths.add(fileData.blobstorePath);
+            }
             if (fileData.isGCS) {
-              oldgcsName.t = fileData.gcsName;
+              oldGcsNames.add(fileData.gcsName);
             }
           }
-          datastore.delete(fileKey);
+          datastore.delete(fileKeys);  // batch delete
           modTime.t = updateProjectModDate(datastore, projectId);
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId,
+              fileNames.length > 0 ? fileNames[0] : CrashReport.NOT_AVAILABLE), e);
     }
-    if (oldBlobstorePath.t != null) {
-      deleteBlobstoreFile(oldBlobstorePath.t);
+    // The contents are only deleted once the transaction has committed, and
+    // outside of it to avoid multiple entity group errors.
+    deleteFileContents(oldBlobstorePaths, oldGcsNames);
+    return (modTime.t == null) ? 0 : modTime.t;
+  }
+
+  /*
+   * Deletes file contents that were stored outside of the datastore. Errors
+   * are logged but are not fatal.
+   */
+  private void deleteFileContents(List<String> blobstorePaths, List<String> gcsNames) {
+    for (String blobstorePath : blobstorePaths) {
+      deleteBlobstoreFile(blobstorePath);
     }
-    if (oldgcsName.t != null) {
+    for (String gcsName : gcsNames) {
       try {
-        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldgcsName.t));
+        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, gcsName));
       } catch (IOException e) {
-        LOG.log(Level.WARNING, "Unable to delete " + oldgcsName + " from GCS.", e);
+        LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS.", e);
       }
     }
-    return (modTime.t == null) ? 0 : modTime.t;
   }
 
   // TODO(user) - just use "UTF-8" (instead of having an encoding argument),
@@ -1674,6 +1866,30 @@ public class ObjectifyStorageIo implements  StorageIo {
     return result.t;
   }
 
+  // Note: this must be called outside of any transaction, since getBlobKey()
+  // uses the current transaction and it will most likely have the wrong
+  // entity group!
+  private void copyBlobstoreBytes(String blobstorePath, OutputStream out)
+      throws BlobReadException, IOException {
+    AppEngineFile blobstoreFile = new AppEngineFile(blobstorePath);
+    BlobKey blobKey = fileService.getBlobKey(blobstoreFile);
+    if (blobKey == null) {
+      throw new BlobReadException("getBlobKey() returned null for " + blobstorePath);
+    }
+    InputStream blobInputStream;
+    try {
+      blobInputStream = new BlobstoreInputStream(blobKey);
+    } catch (IOException e) {
+      throw new BlobReadException(e, "Error trying to read blob from " + blobstorePath
+          + ", blobkey = " + blobKey);
+    }
+    try {
+      ByteStreams.copy(blobInputStream, out);
+    } finally {
+      blobInputStream.close();
+    }
+  }
+
   // Note: this must be called outside of any transaction, since getBlobKey()
   // uses the current transaction and it will most likely have the wrong
   // entity group!
@@ -1707,8 +1923,39 @@ public class ObjectifyStorageIo implements  StorageIo {
                                                  final boolean includeProjectHistory,
                                                  final boolean includeAndroidKeystore,
                                                  @Nullable String zipName) throws IOException {
-    final Result<Integer> fileCount = new Result<Integer>();
-    fileCount.t = 0;
+    StoredProjectSourceZip zipWriter = prepareStoredProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, zipName);
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    int fileCount = zipWriter.writeTo(zipFile);
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipWriter.getFileName(), zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(zipWriter.projectName);
+    return projectSourceZip;
+  }
+
+  /**
+   *  Prepares to export project files as a zip archive, without reading their contents
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param zipName  the name of the zip file, if a specific one is desired
+
+   * @return  the files, ready to be written as a zip archive
+   */
+  @Override
+  public ProjectSourceZipWriter prepareProjectSourceZip(String userId, long projectId,
+                                                        boolean includeProjectHistory,
+                                                        boolean includeAndroidKeystore,
+                                                        @Nullable String zipName)
+      throws IOException {
+    return prepareStoredProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName);
+  }
+
+  private StoredProjectSourceZip prepareStoredProjectSourceZip(final String userId,
+      final long projectId, final boolean includeProjectHistory,
+      final boolean includeAndroidKeystore, @Nullable String zipName) throws IOException {
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
     // We collect up all the file data for the project in a transaction but
@@ -1718,10 +1965,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     final List<FileData> fileData = new ArrayList<FileData>();
     final Result<String> projectName = new Result<String>();
     projectName.t = null;
-    String fileName = null;
-
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final Result<byte[]> androidKeystore = new Result<byte[]>();
+    androidKeystore.t = null;
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1749,73 +1994,14 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       });
-
-      // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data;
-        if (fd.isBlob) {
-          try {
-            data = getBlobstoreBytes(fd.blobstorePath);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (fd.isGCS) {
-          try {
-            GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-            int bytesRead = 0;
-            int fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-            ByteBuffer resultBuffer = ByteBuffer.allocate(fileSize);
-            GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-            try {
-              while (bytesRead < fileSize) {
-                bytesRead += readChannel.read(resultBuffer);
-                if (bytesRead < fileSize) {
-                  LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                }
-              }
-            } finally {
-              readChannel.close();
-            }
-            data = resultBuffer.array();
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
-        }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
-      if (projectHistory.t != null) {
-        byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
-        out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
-      }
     } catch (ObjectifyException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
-      throw new IOException("Reflecting exception for userid " + userId +
-          " projectId " + projectId + ", original exception " + e.getMessage());
-    } catch (RuntimeException e) {
-      CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, null), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
 
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
+    if (fileData.isEmpty()) {
       throw new IllegalArgumentException("No files to download");
     }
 
@@ -1824,21 +2010,12 @@ public class ObjectifyStorageIo implements  StorageIo {
         runJobWithRetries(new JobRetryHelper() {
             @Override
             public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
-                  }
+              Key<UserData> userKey = userKey(userId);
+              for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                    (ufd.content.length > 0)) {
+                  androidKeystore.t = ufd.content;
                 }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId,
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
               }
             }
           });
@@ -1847,15 +2024,110 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
-
     if (zipName == null) {
       zipName = projectName.t + ".aia";
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    return new StoredProjectSourceZip(userId, projectId, zipName, projectName.t, fileData,
+        projectHistory.t, androidKeystore.t);
+  }
+
+  /**
+   * The source files of a stored project, ready to be written as a zip archive. The contents of
+   * files kept in GCS or Blobstore are copied to the zip in chunks, without reading them into
+   * memory first.
+   */
+  private class StoredProjectSourceZip implements ProjectSourceZipWriter {
+    private final String userId;
+    private final long projectId;
+    private final String zipName;
+    final String projectName;
+    private final List<FileData> fileData;
+    private final String projectHistory;
+    private final byte[] androidKeystore;
+
+    private StoredProjectSourceZip(String userId, long projectId, String zipName,
+        String projectName, List<FileData> fileData, @Nullable String projectHistory,
+        @Nullable byte[] androidKeystore) {
+      this.userId = userId;
+      this.projectId = projectId;
+      this.zipName = zipName;
+      this.projectName = projectName;
+      this.fileData = fileData;
+      this.projectHistory = projectHistory;
+      this.androidKeystore = androidKeystore;
+    }
+
+    @Override
+    public String getFileName() {
+      return zipName;
+    }
+
+    @Override
+    public int writeTo(OutputStream outputStream) throws IOException {
+      int fileCount = 0;
+      String fileName = null;
+      ZipOutputStream out = new ZipOutputStream(new UncloseableOutputStream(outputStream));
+      try {
+        // Read the file contents here, outside of any job, since we can't read
+        // blobs in a job.
+        for (FileData fd : fileData) {
+          fileName = fd.fileName;
+          out.putNextEntry(new ZipEntry(fileName));
+          if (fd.isBlob) {
+            try {
+              copyBlobstoreBytes(fd.blobstorePath, out);
+            } catch (BlobReadException e) {
+              throw logReadError(fileName, e);
+            }
+          } else if (fd.isGCS) {
+            GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
+            GcsInputChannel readChannel =
+                gcsService.openPrefetchingReadChannel(gcsFileName, 0, GCS_READ_CHUNK_SIZE);
+            try {
+              ByteStreams.copy(Channels.newInputStream(readChannel), out);
+            } catch (IOException e) {
+              throw logReadError(fileName, e);
+            } finally {
+              readChannel.close();
+            }
+          } else if (fd.content != null) {   // content is null if file creation is interrupted
+            out.write(fd.content, 0, fd.content.length);
+          }
+          out.closeEntry();
+          fileCount++;
+        }
+        fileName = FileExporter.REMIX_INFORMATION_FILE_PATH;
+        if (projectHistory != null) {
+          byte[] data = projectHistory.getBytes(StorageUtil.DEFAULT_CHARSET);
+          out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
+          out.write(data, 0, data.length);
+          out.closeEntry();
+          fileCount++;
+        }
+        if (androidKeystore != null) {
+          out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+          out.write(androidKeystore, 0, androidKeystore.length);
+          out.closeEntry();
+          fileCount++;
+        }
+      } catch (RuntimeException e) {
+        throw logReadError(fileName, e);
+      } finally {
+        out.close();
+      }
+      return fileCount;
+    }
+
+    /*
+     * Logs an error reading the given file of the project, and returns the IOException to throw
+     * for it. Errors are logged here, once, rather than by the callers of writeTo.
+     */
+    private IOException logReadError(String fileName, Exception e) {
+      CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      return new IOException("Reflecting exception for userid " + userId +
+          " projectId " + projectId + ", original exception " + e.getMessage());
+    }
   }
 
   @Override
@@ -2066,6 +2338,16 @@ public class ObjectifyStorageIo implements  StorageIo {
     return new Key<UserData>(UserData.class, userId);
   }
 
+  private String projectCacheKey(long projectId) {
+    return "ProjectData|" + projectId;
+  }
+
+  // Removes a project from memcache. Must be called whenever the information
+  // returned by getUserProjects changes.
+  private void invalidateProjectCache(long projectId) {
+    memcache.delete(projectCacheKey(projectId), PROJECT_CACHE_NO_READD_MILLIS);
+  }
+
   private Key<ProjectData> projectKey(long projectId) {
     return new Key<ProjectData>(ProjectData.class, projectId);
   }
@@ -0,0 +1,35 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Project source files that are ready to be written as a zip archive.
+ *
+ * <p>The contents of the files are only read when {@link #writeTo} is called, one file at a time
+ * and in chunks, so the memory used doesn't depend on the number or size of the files.
+ */
+public interface ProjectSourceZipWriter {
+
+  /**
+   * Returns the name of the zip file.
+   */
+  String getFileName();
+
+  /**
+   * Writes the zip archive to the given stream, which is flushed but not closed.
+   *
+   * @param out  the stream to write to
+   * @return  the number of files in the zip archive
+   * @throws IllegalArgumentException if there turn out to be no files to
+   *         download, in which case nothing has been written
+   * @throws IOException if files cannot be read or written
+   */
+  int writeTo(OutputStream out) throws IOException;
+}
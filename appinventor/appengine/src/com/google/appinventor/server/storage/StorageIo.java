@@ -17,6 +17,7 @@ import com.google.appinventor.shared.rpc.user.User;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -206,6 +207,16 @@ public interface StorageIo {
 
   UserProject getUserProject(String userId, long projectId);
 
+  /**
+   * Returns the ProjectData objects for several projects, read together
+   * instead of one project at a time.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectIds  project ids, as returned by {@link #getProjects}
+   * @return new UserProject objects, in the order of projectIds; projects
+   *         that don't exist are left out
+   */
+  List<UserProject> getUserProjects(String userId, List<Long> projectIds);
+
   /**
    * Returns a project name.
    *
@@ -422,6 +433,19 @@ public interface StorageIo {
    */
   long uploadFileForce(long projectId, String fileId, String userId, String content, String encoding);
 
+  /**
+   * Adds source files to a project and uploads their contents, replacing any
+   * existing files with the same IDs, in a single transaction. Like
+   * {@link #uploadFileForce}, this writes even trivial workspace files.
+   * @param userId the user who owns the project
+   * @param projectId  project ID
+   * @param contents  file contents, by file ID
+   * @param encoding encoding of contents
+   * @return modification date for project
+   */
+  long createSourceFiles(String userId, long projectId, Map<String, String> contents,
+      String encoding);
+
   /**
    * Uploads a file.
    * @param projectId  project ID
@@ -453,6 +477,16 @@ public interface StorageIo {
    */
   long deleteFile(String userId, long projectId, String fileId);
 
+  /**
+   * Deletes files in a single transaction. Contents stored outside of the
+   * datastore are deleted after the transaction commits.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs; IDs of files that don't exist are ignored
+   * @return modification date for project
+   */
+  long deleteFiles(String userId, long projectId, String... fileIds);
+
   /**
    * Downloads text file data.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -509,6 +543,23 @@ public interface StorageIo {
                                           boolean includeAndroidKeystore,
                                           @Nullable String zipName) throws IOException;
 
+  /**
+   *  Prepares to export project files as a zip archive. The contents of the
+   *  files are not read until the zip archive is written.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param zipName  the name of the zip file, if a specific one is desired
+   *
+   * @return  the files, ready to be written as a zip archive
+   * @throws IllegalArgumentException if the project has no source files
+   */
+  ProjectSourceZipWriter prepareProjectSourceZip(String userId, long projectId,
+                                                 boolean includeProjectHistory,
+                                                 boolean includeAndroidKeystore,
+                                                 @Nullable String zipName) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -0,0 +1,34 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that writes through to another stream but only flushes it when closed.
+ *
+ * <p>This lets a stream that must be closed to release its resources, such as a
+ * {@link java.util.zip.ZipOutputStream}, write to a stream that its caller still owns.
+ */
+public final class UncloseableOutputStream extends FilterOutputStream {
+  public UncloseableOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    // FilterOutputStream writes one byte at a time.
+    out.write(b, off, len);
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+}
@@ -0,0 +1,124 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * Describes the change from one version of a file's content to the next, so
+ * that only the changed part has to be sent when the file is saved.
+ *
+ * <p>The change is a single splice: the text between the common prefix and
+ * the common suffix of the two versions is replaced. The delta carries a
+ * checksum of the version it applies to and of the version it produces, so
+ * that it is never applied to the wrong content.
+ */
+public final class FileDelta implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 4620473309475123690L;
+
+  private String baseChecksum;
+  private int prefixLength;
+  private int suffixLength;
+  private String replacement;
+  private String checksum;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private FileDelta() {
+  }
+
+  private FileDelta(String baseChecksum, int prefixLength, int suffixLength,
+      String replacement, String checksum) {
+    this.baseChecksum = baseChecksum;
+    this.prefixLength = prefixLength;
+    this.suffixLength = suffixLength;
+    this.replacement = replacement;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Creates the delta that turns base into content.
+   *
+   * @param base  the content the delta applies to
+   * @param content  the content the delta produces
+   * @return the delta
+   */
+  public static FileDelta create(String base, String content) {
+    int maxLength = Math.min(base.length(), content.length());
+    int prefixLength = 0;
+    while (prefixLength < maxLength
+        && base.charAt(prefixLength) == content.charAt(prefixLength)) {
+      prefixLength++;
+    }
+    int suffixLength = 0;
+    while (suffixLength < maxLength - prefixLength
+        && base.charAt(base.length() - 1 - suffixLength)
+            == content.charAt(content.length() - 1 - suffixLength)) {
+      suffixLength++;
+    }
+    return new FileDelta(checksum(base), prefixLength, suffixLength,
+        content.substring(prefixLength, content.length() - suffixLength), checksum(content));
+  }
+
+  /**
+   * Applies this delta to the given content.
+   *
+   * @param base  the content to apply the delta to
+   * @return the new content, or null if base isn't the content this delta
+   *         was created for
+   */
+  public String applyTo(String base) {
+    if (!checksum(base).equals(baseChecksum)
+        || prefixLength < 0 || suffixLength < 0
+        || prefixLength + suffixLength > base.length()) {
+      return null;
+    }
+    String content = base.substring(0, prefixLength) + replacement
+        + base.substring(base.length() - suffixLength);
+    return checksum(content).equals(checksum) ? content : null;
+  }
+
+  /**
+   * Returns whether applying this delta leaves the content unchanged.
+   */
+  public boolean isEmpty() {
+    return replacement.isEmpty() && baseChecksum.equals(checksum);
+  }
+
+  /**
+   * Returns the number of characters of new content carried by this delta.
+   */
+  public int getReplacementLength() {
+    return replacement.length();
+  }
+
+  /**
+   * Returns the MD5 checksum of the given content, in hex, computed the same
+   * way as the checksum of a {@link ChecksumedLoadFile}.
+   */
+  public static String checksum(String content) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      byte[] digest = md.digest(content.getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < digest.length; i++) {
+        hex.append(Integer.toString((digest[i] & 0xff) + 0x100, 16).substring(1));
+      }
+      return hex.toString();
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.toString());
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new IllegalStateException(e.toString());
+    }
+  }
+}
@@ -0,0 +1,20 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+
+/**
+ * Thrown when a {@link FileDelta} doesn't apply to the stored content of a
+ * file, in which case the whole content must be saved instead.
+ */
+public class FileDeltaMismatchException extends Exception implements Serializable {
+
+  public FileDeltaMismatchException() {
+    super();
+  }
+}
@@ -241,6 +241,24 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a delta to its stored content. Like
+   * {@link #save2(String, long, String, boolean, String)}, this can throw a
+   * BlocksTruncatedException.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param delta  the change from the last saved content to the content to be saved
+   * @return modification date for project
+   * @throws FileDeltaMismatchException if the stored content isn't the one
+   *         the delta was created for, in which case the whole content must
+   *         be saved with save2
+   */
+  long saveDelta(String sessionId, long projectId, String fileId, boolean force, FileDelta delta)
+      throws InvalidSessionException, BlocksTruncatedException, FileDeltaMismatchException;
+
   /**
    * Saves the contents of multiple files.
    *
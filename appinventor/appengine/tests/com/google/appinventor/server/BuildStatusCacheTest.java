@@ -0,0 +1,67 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+/**
+ * Tests for {@link BuildStatusCache}.
+ */
+public class BuildStatusCacheTest extends LocalDatastoreTestCase {
+  private static final String USER_ID = "1";
+  private static final long PROJECT_ID = 1234;
+  private static final String BUILD_DIR = "build/Android";
+
+  private BuildStatusCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new BuildStatusCache();
+  }
+
+  public void testBuildLifecycle() {
+    assertNull(cache.get(USER_ID, PROJECT_ID, BUILD_DIR));
+
+    cache.buildStarted(USER_ID, PROJECT_ID, BUILD_DIR, "one:9990", "build1");
+    BuildStatusCache.Status status = cache.get(USER_ID, PROJECT_ID, BUILD_DIR);
+    assertEquals("one:9990", status.getHost());
+    assertEquals("build1", status.getBuildId());
+    assertEquals(0, status.getProgress());
+    assertNull(status.getBuildOutput());
+
+    cache.setProgress(USER_ID, PROJECT_ID, BUILD_DIR, status, 40);
+    status = cache.get(USER_ID, PROJECT_ID, BUILD_DIR);
+    assertEquals(40, status.getProgress());
+
+    cache.buildFinished(USER_ID, PROJECT_ID, BUILD_DIR, "{\"result\":0}");
+    assertEquals("{\"result\":0}", cache.get(USER_ID, PROJECT_ID, BUILD_DIR).getBuildOutput());
+
+    // A late progress update doesn't hide the build output.
+    cache.setProgress(USER_ID, PROJECT_ID, BUILD_DIR, status, 60);
+    assertEquals("{\"result\":0}", cache.get(USER_ID, PROJECT_ID, BUILD_DIR).getBuildOutput());
+
+    cache.clear(USER_ID, PROJECT_ID, BUILD_DIR);
+    assertNull(cache.get(USER_ID, PROJECT_ID, BUILD_DIR));
+  }
+
+  public void testProgressOfOlderBuildIsIgnored() {
+    cache.buildStarted(USER_ID, PROJECT_ID, BUILD_DIR, "one:9990", "build1");
+    BuildStatusCache.Status oldStatus = cache.get(USER_ID, PROJECT_ID, BUILD_DIR);
+    cache.buildStarted(USER_ID, PROJECT_ID, BUILD_DIR, "two:9990", "build2");
+
+    cache.setProgress(USER_ID, PROJECT_ID, BUILD_DIR, oldStatus, 90);
+    BuildStatusCache.Status status = cache.get(USER_ID, PROJECT_ID, BUILD_DIR);
+    assertEquals("build2", status.getBuildId());
+    assertEquals(0, status.getProgress());
+  }
+
+  public void testBuildsAreKeptApart() {
+    cache.buildStarted(USER_ID, PROJECT_ID, BUILD_DIR, "one:9990", "build1");
+    assertNull(cache.get(USER_ID, PROJECT_ID + 1, BUILD_DIR));
+    assertNull(cache.get("2", PROJECT_ID, BUILD_DIR));
+    assertNull(cache.get(USER_ID, PROJECT_ID, "build/Other"));
+  }
+}
@@ -6,7 +6,7 @@
 
 package com.google.appinventor.server;
 
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.riq.MockHttpServletRequest;
 import com.riq.MockHttpServletResponse;
@@ -18,6 +18,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
@@ -43,8 +44,8 @@ public class DownloadServletTest {
   private static final String DUMMY_ZIP_FILENAME_WITH_TITLE = "MyProjectTitle123.aia";
   private static final String DOWNLOAD_URL = "http://localhost/baseUrl/download/";
 
-  private ProjectSourceZip dummyZip;
-  private ProjectSourceZip dummyZipWithTitle;
+  private ProjectSourceZipWriter dummyZip;
+  private ProjectSourceZipWriter dummyZipWithTitle;
   private RawFile dummyApk;
   private RawFile dummyFile;
 
@@ -60,12 +61,30 @@ public class DownloadServletTest {
     exporterMock = PowerMock.createNiceMock(FileExporterImpl.class);
     PowerMock.expectNew(FileExporterImpl.class).andReturn(exporterMock).anyTimes();
 
-    dummyZip = new ProjectSourceZip(DUMMY_ZIP_FILENAME, new byte[] {}, 2);
-    dummyZipWithTitle = new ProjectSourceZip(DUMMY_ZIP_FILENAME_WITH_TITLE, new byte[] {}, 2);
+    dummyZip = new DummyZipWriter(DUMMY_ZIP_FILENAME);
+    dummyZipWithTitle = new DummyZipWriter(DUMMY_ZIP_FILENAME_WITH_TITLE);
     dummyApk = new RawFile(DUMMY_APK_FILENAME, new byte[] {});
     dummyFile = new RawFile(DUMMY_FILENAME, new byte[] {});
   }
 
+  private static class DummyZipWriter implements ProjectSourceZipWriter {
+    private final String fileName;
+
+    DummyZipWriter(String fileName) {
+      this.fileName = fileName;
+    }
+
+    @Override
+    public String getFileName() {
+      return fileName;
+    }
+
+    @Override
+    public int writeTo(OutputStream out) {
+      return 2;
+    }
+  }
+
   private void checkResponseHeader(MockHttpServletResponse response, String header) {
     List cd = (List) response.getHeader("content-disposition");
     assertEquals(header, cd.get(0));
@@ -76,7 +95,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithoutTitle() throws Exception {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false, null))
+    expect(exporterMock.prepareProjectSourceZip(USER_ID, PROJECT_ID, true, false, null))
         .andReturn(dummyZip);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
@@ -91,7 +110,7 @@ public class DownloadServletTest {
   public void testDownloadProjectSourceZipWithTitle() throws IOException {
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/1234/My Project Title 123");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, PROJECT_ID, true, false,
+    expect(exporterMock.prepareProjectSourceZip(USER_ID, PROJECT_ID, true, false,
                                                "MyProjectTitle123.aia"))
         .andReturn(dummyZipWithTitle);
     PowerMock.replayAll();
@@ -108,7 +127,7 @@ public class DownloadServletTest {
     IllegalArgumentException expectedException = new IllegalArgumentException();
     MockHttpServletRequest request = new MockHttpServletRequest(DOWNLOAD_URL +
         "project-source/12345");
-    expect(exporterMock.exportProjectSourceZip(USER_ID, 12345L, true, false, null))
+    expect(exporterMock.prepareProjectSourceZip(USER_ID, 12345L, true, false, null))
         .andThrow(expectedException);
     PowerMock.replayAll();
     DownloadServlet download = new DownloadServlet();
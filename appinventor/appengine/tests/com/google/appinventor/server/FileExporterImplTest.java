@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server;
 
+import com.google.appinventor.server.storage.ProjectSourceZipWriter;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.storage.UnauthorizedAccessException;
@@ -167,5 +168,30 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
-  // TODO(user): Add test of exportAllProjectsSourceZip().
+  public void testPrepareAllProjectsSourceZip() throws IOException {
+    ProjectSourceZipWriter zipWriter = exporter.prepareAllProjectsSourceZip(USER_ID,
+        "all-projects.zip");
+    assertEquals("all-projects.zip", zipWriter.getFileName());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(1, zipWriter.writeTo(out));
+
+    // The big zip contains a zip of the project's sources.
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+    ZipEntry zipEntry = zis.getNextEntry();
+    assertEquals(PROJECT_NAME + ".aia", zipEntry.getName());
+    byte[] projectZip = ByteStreams.toByteArray(zis);
+    assertNull(zis.getNextEntry());
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(
+        new ProjectSourceZip(PROJECT_NAME + ".aia", projectZip, 2));
+    assertEquals(2, content.size());
+  }
+
+  public void testPrepareAllProjectsSourceZipWithoutProjects() throws IOException {
+    try {
+      exporter.prepareAllProjectsSourceZip(USER_ID + "1", "all-projects.zip");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
@@ -0,0 +1,107 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link OntologyTermIndex}.
+ */
+public class OntologyTermIndexTest extends TestCase {
+  private static final String ONTOLOGY =
+      "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+      "@prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> .\n" +
+      "@prefix owl: <http://www.w3.org/2002/07/owl#> .\n" +
+      "@prefix foaf: <http://xmlns.com/foaf/0.1/> .\n" +
+      "foaf:Person a owl:Class ; rdfs:label \"Person\" .\n" +
+      "foaf:PersonalProfileDocument a owl:Class ; rdfs:label \"PersonalProfileDocument\" .\n" +
+      "foaf:Organization a owl:Class ; rdfs:label \"Organization\"@en .\n" +
+      "foaf:Document a rdfs:Class ; rdfs:label \"Document\"@fr .\n" +
+      "foaf:familyName a owl:DatatypeProperty ; rdfs:label \"familyName\" .\n" +
+      "foaf:name a rdf:Property ; rdfs:label \"name\" .\n" +
+      "foaf:knows a owl:ObjectProperty ; rdfs:label \"knows\" .\n";
+
+  private OntologyTermIndex index;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Model model = ModelFactory.createDefaultModel();
+    model.read(new StringReader(ONTOLOGY), "http://xmlns.com/foaf/0.1/", "TTL");
+    index = OntologyTermIndex.build(model);
+  }
+
+  public void testSearchClassesByPrefix() throws Exception {
+    List<OntologyTermIndex.Term> terms = index.searchClasses("pers", 10);
+    assertEquals(2, terms.size());
+    assertEquals("http://xmlns.com/foaf/0.1/Person", terms.get(0).uri);
+    assertEquals("foaf:Person", terms.get(0).qname);
+    assertEquals("http://xmlns.com/foaf/0.1/PersonalProfileDocument", terms.get(1).uri);
+
+    // Only labels without a language or in English are indexed.
+    assertTrue(index.searchClasses("document", 10).get(0).uri.endsWith("ProfileDocument"));
+    assertEquals(1, index.searchClasses("organization", 10).size());
+
+    assertEquals(1, index.searchClasses("pers", 1).size());
+    assertTrue(index.searchClasses("knows", 10).isEmpty());
+  }
+
+  public void testSearchPropertiesMatchesEveryWord() throws Exception {
+    List<OntologyTermIndex.Term> terms = index.searchProperties("name", 10);
+    assertEquals(2, terms.size());
+    // The exact label is ranked first.
+    assertEquals("name", terms.get(0).label);
+    assertEquals("familyName", terms.get(1).label);
+
+    terms = index.searchProperties("family na", 10);
+    assertEquals(1, terms.size());
+    assertEquals("familyName", terms.get(0).label);
+  }
+
+  public void testFuzzySearch() throws Exception {
+    List<OntologyTermIndex.Term> terms = index.searchClasses("orgnization", 10);
+    assertEquals(1, terms.size());
+    assertEquals("Organization", terms.get(0).label);
+    assertTrue(index.searchClasses("xyzzy", 10).isEmpty());
+  }
+
+  public void testSearchTextIsNotAPattern() throws Exception {
+    assertTrue(index.searchClasses(".*", 10).isEmpty());
+    assertTrue(index.searchClasses("\") } SELECT", 10).isEmpty());
+  }
+
+  public void testIsEmpty() throws Exception {
+    assertFalse(index.isEmpty());
+    assertTrue(new OntologyTermIndex(new ArrayList<OntologyTermIndex.Term>(),
+        new ArrayList<OntologyTermIndex.Term>()).isEmpty());
+  }
+
+  public void testSerialization() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    index.writeTo(out);
+    OntologyTermIndex readIndex =
+        OntologyTermIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals("foaf:knows", readIndex.searchProperties("know", 10).get(0).qname);
+  }
+
+  public void testSplitWords() throws Exception {
+    assertEquals(Arrays.asList("personal", "profile", "document", "foaf"),
+        OntologyTermIndex.splitWords("PersonalProfileDocument (FOAF)"));
+    assertTrue(OntologyTermIndex.isWithinEdits("organisation", "organization", 1));
+    assertFalse(OntologyTermIndex.isWithinEdits("person", "prison", 1));
+  }
+}
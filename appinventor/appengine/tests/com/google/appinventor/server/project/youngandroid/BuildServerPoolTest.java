@@ -0,0 +1,122 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link BuildServerPool}.
+ */
+public class BuildServerPoolTest extends TestCase {
+  private static final String UNREACHABLE = "unreachable";
+
+  // The vars page of each build server
+  private final Map<String, String> varsPages = new HashMap<String, String>();
+
+  // The build servers whose vars pages were fetched, and when each page was
+  // waited for, in order
+  private final List<String> events = new ArrayList<String>();
+
+  private BuildServerPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pool = new BuildServerPool(" one:9990, two:9990 ,,three:9990") {
+      @Override
+      Future<String> fetchVars(final String host) throws IOException {
+        events.add("fetch " + host);
+        final String varsPage = varsPages.get(host);
+        if (UNREACHABLE.equals(varsPage)) {
+          throw new IOException("Connection refused");
+        }
+        return Futures.lazyTransform(Futures.immediateFuture(varsPage),
+            new Function<String, String>() {
+              @Override
+              public String apply(String page) {
+                events.add("wait " + host);
+                return page;
+              }
+            });
+      }
+    };
+  }
+
+  private static String varsPage(int active, int queued, String maximum) {
+    return "<html><body>"
+        + "<b>start-time</b> Mon Jan 01 00:00:00 UTC 2024<br>"
+        + "<b>num-processors</b> 4<br>"
+        + "<b>maximum-simultaneous-build-tasks-allowed</b> " + maximum + "<br>"
+        + "<b>active-build-tasks</b> " + active + "<br>"
+        + "<b>queued-build-tasks</b> " + queued + "<br>"
+        + "</body></html>";
+  }
+
+  public void testParseVars() {
+    Map<String, String> vars = BuildServerPool.parseVars(varsPage(3, 1, "unlimited"));
+    assertEquals("4", vars.get("num-processors"));
+    assertEquals("unlimited", vars.get("maximum-simultaneous-build-tasks-allowed"));
+    assertEquals("3", vars.get("active-build-tasks"));
+    assertEquals("1", vars.get("queued-build-tasks"));
+  }
+
+  public void testGetHosts() {
+    assertEquals(Arrays.asList("one:9990", "two:9990", "three:9990"), pool.getHosts());
+    try {
+      new BuildServerPool(" , ");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testLeastLoadedFirst() {
+    varsPages.put("one:9990", varsPage(4, 2, "8"));
+    // With no limit, the number of processors is used.
+    varsPages.put("two:9990", varsPage(1, 0, "unlimited"));
+    varsPages.put("three:9990", UNREACHABLE);
+    assertEquals(Arrays.asList("two:9990", "one:9990", "three:9990"), pool.getHostsByLoad());
+  }
+
+  public void testBuildsAreCountedUntilRefresh() {
+    varsPages.put("one:9990", varsPage(0, 0, "2"));
+    varsPages.put("two:9990", varsPage(1, 0, "4"));
+    varsPages.put("three:9990", varsPage(1, 0, "2"));
+    assertEquals("one:9990", pool.getHostsByLoad().get(0));
+
+    pool.buildStarted("one:9990");
+    assertEquals(Arrays.asList("two:9990", "one:9990", "three:9990"), pool.getHostsByLoad());
+
+    pool.buildRejected("two:9990");
+    assertEquals(Arrays.asList("one:9990", "three:9990", "two:9990"), pool.getHostsByLoad());
+  }
+
+  public void testLoadsAreFetchedAtOnce() {
+    varsPages.put("one:9990", varsPage(0, 0, "2"));
+    varsPages.put("two:9990", varsPage(1, 0, "4"));
+    varsPages.put("three:9990", varsPage(1, 0, "2"));
+    pool.getHostsByLoad();
+    assertEquals(Arrays.asList("fetch one:9990", "fetch two:9990", "fetch three:9990",
+        "wait one:9990", "wait two:9990", "wait three:9990"), events);
+
+    // Loads that are up to date aren't fetched again.
+    events.clear();
+    pool.getHostsByLoad();
+    assertTrue(events.isEmpty());
+  }
+}
@@ -35,7 +35,9 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for {@link ObjectifyStorageIo}.
@@ -152,6 +154,30 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(1, storage.getProjects(USER_ID).size());
   }
 
+  public void testGetUserProjects() throws Exception {
+    final String USER_ID = "450";
+    storage.getUser(USER_ID);
+    long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+    long projectId2 = storage.createProject(USER_ID, project, SETTINGS);
+    List<UserProject> userProjects = storage.getUserProjects(USER_ID,
+        Arrays.asList(projectId2, projectId1, projectId2 + projectId1));
+    assertEquals(2, userProjects.size());
+    assertEquals(projectId2, userProjects.get(0).getProjectId());
+    assertEquals(projectId1, userProjects.get(1).getProjectId());
+    assertEquals(PROJECT_NAME, userProjects.get(1).getProjectName());
+    assertEquals(FAKE_PROJECT_TYPE, userProjects.get(1).getProjectType());
+
+    // Modifying a project replaces the cached copy.
+    long modDate = storage.uploadRawFileForce(projectId1, RAW_FILE_NAME1, USER_ID,
+        RAW_FILE_CONTENT2);
+    assertEquals(modDate, storage.getUserProject(USER_ID, projectId1).getDateModified());
+    storage.setProjectGalleryId(USER_ID, projectId1, 42);
+    assertEquals(42, storage.getUserProject(USER_ID, projectId1).getGalleryId());
+
+    storage.deleteProject(USER_ID, projectId2);
+    assertNull(storage.getUserProject(USER_ID, projectId2));
+  }
+
   public void testCreateProjectFailFirst() {
     final String USER_ID = "600";
     // fail on first job in createProject (2nd job overall)
@@ -383,6 +409,36 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testCreateDeleteFiles() {
+    final String USER_ID = "1250";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    long modificationDate = storage.createSourceFiles(USER_ID, projectId, contents,
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(modificationDate, storage.getProjectDateModified(USER_ID, projectId));
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME2));
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME2,
+        StorageUtil.DEFAULT_CHARSET));
+
+    // Existing files are replaced.
+    contents.put(FILE_NAME1, FILE_CONTENT2);
+    storage.createSourceFiles(USER_ID, projectId, contents, StorageUtil.DEFAULT_CHARSET);
+    assertEquals(FILE_CONTENT2, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+
+    storage.addOutputFilesToProject(USER_ID, projectId, FILE_NAME_OUTPUT);
+    storage.uploadRawFileForce(projectId, FILE_NAME_OUTPUT, USER_ID, FILE_CONTENT_OUTPUT);
+    // Files that don't exist are ignored.
+    storage.deleteFiles(USER_ID, projectId, FILE_NAME1, FILE_NAME_OUTPUT, "NoSuchFile");
+    assertFalse(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME1));
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(FILE_NAME2));
+    assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
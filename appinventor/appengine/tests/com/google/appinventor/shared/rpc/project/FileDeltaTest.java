@@ -0,0 +1,50 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link FileDelta}.
+ */
+public class FileDeltaTest extends TestCase {
+
+  public void testCreateAndApply() {
+    String base = "<xml><block type=\"a\"/><block type=\"b\"/></xml>";
+    String content = "<xml><block type=\"a\"/><block type=\"c\"/><block type=\"b\"/></xml>";
+    FileDelta delta = FileDelta.create(base, content);
+    assertFalse(delta.isEmpty());
+    assertEquals("<block type=\"c\"/>".length(), delta.getReplacementLength());
+    assertEquals(content, delta.applyTo(base));
+
+    // Removing content and changing the ends of the content.
+    assertEquals(base, FileDelta.create(content, base).applyTo(content));
+    assertEquals("abc", FileDelta.create("", "abc").applyTo(""));
+    assertEquals("", FileDelta.create("abc", "").applyTo("abc"));
+    assertEquals("xbcy", FileDelta.create("abc", "xbcy").applyTo("abc"));
+    // Repeated characters are not counted twice.
+    assertEquals("aaa", FileDelta.create("aa", "aaa").applyTo("aa"));
+  }
+
+  public void testApplyToOtherContent() {
+    FileDelta delta = FileDelta.create("abcdef", "abXdef");
+    assertNull(delta.applyTo("abcdeg"));
+    assertNull(delta.applyTo("abc"));
+  }
+
+  public void testEmpty() {
+    FileDelta delta = FileDelta.create("abc", "abc");
+    assertTrue(delta.isEmpty());
+    assertEquals(0, delta.getReplacementLength());
+    assertEquals("abc", delta.applyTo("abc"));
+  }
+
+  public void testChecksum() {
+    assertEquals("d41d8cd98f00b204e9800998ecf8427e", FileDelta.checksum(""));
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", FileDelta.checksum("abc"));
+  }
+}
@@ -205,6 +205,9 @@ Blockly.ReplMgr.resetYail = function(code) {
 // Ajax call looks to process the next entry in the queue. This continues
 // until the queue is empty.
 
+// The most forms sent to the Companion in one request
+Blockly.ReplMgr.MAX_BATCH_SIZE = 50;
+
 Blockly.ReplMgr.putYail = (function() {
     var rs;
     var context;
@@ -246,6 +249,10 @@ Blockly.ReplMgr.putYail = (function() {
             if (!phonereceiving) {
                 engine.receivefromphone();
             }
+            if (rs.batch) {
+                engine.sendbatch();
+                return;
+            }
             var work = rs.phoneState.phoneQueue.shift();
             if (!work) {
                 rs.phoneState.ioRunning = false;
@@ -298,12 +305,121 @@ Blockly.ReplMgr.putYail = (function() {
             var stuff = encoder.toString();
             conn.send(stuff);
         },
+        // Send everything that is queued to a Companion that accepts batches. The
+        // Companion sends back the result of each form as one line of JSON as soon
+        // as it has evaluated the form, so results are processed as they arrive.
+        'sendbatch' : function() {
+            var batch = rs.phoneState.phoneQueue.splice(0, Blockly.ReplMgr.MAX_BATCH_SIZE);
+            if (batch.length === 0) {
+                rs.phoneState.ioRunning = false;
+                return;
+            }
+            var seq = rs.seq_count;
+            var encoder = new goog.Uri.QueryData();
+            encoder.add('seq', seq);
+            encoder.add('count', batch.length);
+            var hashes = [];
+            if (!rs.companionHashes)
+                rs.companionHashes = {};
+            for (var i = 0; i < batch.length; i++) {
+                var blockid = batch[i].block ? batch[i].block.id : "-1";
+                if (batch[i].block && rs.cache) {
+                    // The Companion keeps the code of block definitions, so a definition
+                    // it has already received only needs to be sent as a hash.
+                    hashes[i] = Blockly.ReplMgr.sha1(batch[i].code);
+                }
+                if (hashes[i] && rs.companionHashes[hashes[i]]) {
+                    encoder.add('mac' + i, Blockly.ReplMgr.hmac(hashes[i] + (seq + i) + blockid));
+                    encoder.add('hash' + i, hashes[i]);
+                } else {
+                    encoder.add('mac' + i, Blockly.ReplMgr.hmac(batch[i].code + (seq + i) + blockid));
+                    encoder.add('code' + i, batch[i].code);
+                }
+                encoder.add('blockid' + i, blockid);
+            }
+            var missing = [];           // Forms to send again, from the first one the Companion lacked
+            var done = 0;               // Number of forms whose result has been processed
+            var received = 0;           // Length of the response processed so far
+            var accepted = false;       // Whether the Companion accepted the batch
+            var processResult = function(text) {
+                var json = goog.json.parse(text);
+                if (json.status == 'OK' || json.status == 'MISSING') {
+                    // The Companion only sends the result of a form once it has
+                    // accepted the whole batch, and advanced its sequence number
+                    // past it.
+                    accepted = true;
+                }
+                if (json.status == 'MISSING') {
+                    // The Companion no longer has the code of this form, e.g.
+                    // because it was restarted, and hasn't evaluated the forms
+                    // after it. Forget the hashes it was thought to have and
+                    // send this form and the rest of the batch again, in full.
+                    rs.companionHashes = {};
+                    missing = batch.slice(done);
+                    done = batch.length;
+                    return;
+                }
+                if (json.status != 'OK') {
+                    // The whole batch was refused
+                    for (; done < batch.length; done++) {
+                        if (batch[done].failure)
+                            batch[done].failure(Blockly.Msg.REPL_ERROR_FROM_COMPANION);
+                    }
+                } else {
+                    if (hashes[done])
+                        rs.companionHashes[hashes[done]] = true;
+                    var work = batch[done++];
+                    if (work && work.success)
+                        work.success();
+                }
+                context.processRetvals(json.values);
+            };
+            conn = goog.net.XmlHttp();
+            conn.open('POST', rs.baseurl + '_newblocks_batch', true);
+            conn.onreadystatechange = function() {
+                if (this.readyState < 3) return;
+                if (this.status == 200) {
+                    var text = this.responseText;
+                    var end;
+                    while ((end = text.indexOf('\n', received)) != -1) {
+                        processResult(text.substring(received, end));
+                        received = end + 1;
+                    }
+                    if (this.readyState == 4) {
+                        if (received < text.length) { // An error is sent without a newline
+                            processResult(text.substring(received));
+                        }
+                        if (accepted) // A refused batch didn't use up any sequence numbers
+                            rs.seq_count += batch.length;
+                        // Send the forms that weren't evaluated next
+                        Array.prototype.unshift.apply(rs.phoneState.phoneQueue, missing);
+                        if (rs.phoneState.initialized) // Only continue if we are still initialized
+                            engine.pollphone(); // And on to the next!
+                    }
+                } else if (this.readyState == 4) {
+                    console.log("putYail(batch): status = " + this.status);
+                    for (; done < batch.length; done++) {
+                        if (batch[done].failure)
+                            batch[done].failure(Blockly.Msg.REPL_NETWORK_CONNECTION_ERROR);
+                    }
+                    var dialog = new Blockly.ReplMgr.Dialog(Blockly.Msg.REPL_NETWORK_ERROR, Blockly.Msg.REPL_NETWORK_ERROR_RESTART, Blockly.Msg.REPL_OK, null, 0,
+                        function() {
+                            dialog.hide();
+                            context.hardreset(context.formName);
+                        });
+                    engine.resetcompanion();
+                }
+            };
+            conn.send(encoder.toString());
+        },
         'doversioncheck' : function() {
             var conn = goog.net.XmlHttp();
             conn.open('GET', rs.versionurl, true);
             conn.onreadystatechange = function() {
                 if (this.readyState == 4 && this.status == 200) {
                     rs.didversioncheck = true;
+                    rs.batch = false;
+                    rs.cache = false;
                     if (this.response[0] != "{") {
                         engine.checkversionupgrade(true, "", true); // Old Companion
                         engine.resetcompanion();
@@ -314,6 +430,8 @@ Blockly.ReplMgr.putYail = (function() {
                             engine.checkversionupgrade(true, json.installer, false);
                             return;
                         }
+                        rs.batch = !!json.batch; // Companion accepts batches of forms
+                        rs.cache = !!json.cache; // and keeps the code of block definitions
                     }
                     engine.pollphone();
                     return;
@@ -821,6 +939,8 @@ Blockly.ReplMgr.startRepl = function(already, emulator, usb) {
             rs.versionurl = 'http://127.0.0.1:8001/_getversion';
             rs.baseurl = 'http://127.0.0.1:8001/';
             rs.seq_count = 1;
+            // Hashes of the definitions the Companion has, kept across connections
+            rs.companionHashes = rs.companionHashes || {};
             rs.count = 0;
             this.rendPoll();
             refreshAssets(this.formName);
@@ -831,6 +951,10 @@ Blockly.ReplMgr.startRepl = function(already, emulator, usb) {
         rs.replcode = this.genCode();
         rs.rendezvouscode = this.sha1(rs.replcode);
         rs.seq_count = 1;          // used for the creating the hmac mac
+        // Hashes of the definitions the Companion has. They are kept across
+        // connections, since the Companion keeps its cache when it gets a new
+        // key; if it lost its cache, it answers MISSING and we resend.
+        rs.companionHashes = rs.companionHashes || {};
         rs.count = 0;
         rs.dialog = new Blockly.ReplMgr.Dialog(Blockly.Msg.REPL_CONNECT_TO_COMPANION, this.makeDialogMessage(rs.replcode), Blockly.Msg.REPL_CANCEL, null, 1, function() {
             rs.dialog.hide();
@@ -0,0 +1,356 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache of build artifacts, each stored in a file whose name is derived from a hash
+ * of the inputs that produced it.
+ *
+ * <p>The cache is shared by concurrent builds without a global lock. If several builds need the
+ * same entry at the same time, one of them produces it and the others wait for the result. Each
+ * entry is written to a temporary file and renamed into place, so a partially written entry is
+ * never used, and entries are found again after the build server restarts.
+ *
+ * <p>When the cache grows beyond its maximum size, the least recently used entries that aren't in
+ * use by a build are deleted.
+ */
+final class BuildCache {
+  /**
+   * Produces the contents of an entry.
+   */
+  interface Producer {
+    /**
+     * Writes the contents of the entry to the given file.
+     *
+     * @return true if successful
+     */
+    boolean produce(File output);
+  }
+
+  // Entries are produced into a temporary file first. The rest of its name is the name of the
+  // entry, so that tools that look at the extension of the output file still work.
+  private static final String TEMP_PREFIX = "tmp-";
+
+  // The default maximum size of the cache directory.
+  static final long DEFAULT_MAX_SIZE_BYTES = 1024L * 1024 * 1024;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  // The caches, by canonical directory path.
+  private static final ConcurrentMap<String, BuildCache> caches =
+      new ConcurrentHashMap<String, BuildCache>();
+
+  private final File dir;
+  private volatile long maxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+
+  // The maximum number of runtime file hashes that are remembered.
+  private static final int MAX_RUNTIME_HASHES = 256;
+
+  // The content hash of each runtime file, keyed by path, length and modification time, least
+  // recently used first. Guarded by itself.
+  private final Map<String, String> runtimeHashes =
+      new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+          return size() > MAX_RUNTIME_HASHES;
+        }
+      };
+
+  // Entries that are being produced, by name. Builds that need an entry that is being produced
+  // wait for the latch.
+  private final ConcurrentMap<String, CountDownLatch> pending =
+      new ConcurrentHashMap<String, CountDownLatch>();
+
+  // The following fields are guarded by lock.
+  private final Object lock = new Object();
+  // The number of builds using each entry, by name. Entries in use are never evicted.
+  private final Map<String, Integer> useCounts = new HashMap<String, Integer>();
+  private long sizeBytes;
+
+  private final AtomicInteger hitCount = new AtomicInteger(0);
+  private final AtomicInteger missCount = new AtomicInteger(0);
+  private final AtomicInteger evictionCount = new AtomicInteger(0);
+
+  /**
+   * Returns the cache for the given directory, creating the directory if necessary.
+   */
+  static BuildCache forDirectory(String dirPath) throws IOException {
+    File dir = new File(dirPath);
+    dir.mkdirs();
+    if (!dir.isDirectory()) {
+      throw new IOException("Unable to create " + dirPath);
+    }
+    String key = dir.getCanonicalPath();
+    BuildCache cache = caches.get(key);
+    if (cache == null) {
+      BuildCache newCache = new BuildCache(dir);
+      cache = caches.putIfAbsent(key, newCache);
+      if (cache == null) {
+        cache = newCache;
+      }
+    }
+    return cache;
+  }
+
+  @VisibleForTesting
+  BuildCache(File dir) {
+    this.dir = dir;
+    for (File file : listEntries()) {
+      sizeBytes += file.length();
+    }
+    // Remove temporary files left behind if the build server was killed while producing them.
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(TEMP_PREFIX)) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the size beyond which the least recently used entries are evicted.
+   */
+  void setMaxSizeBytes(long maxSizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Returns the MD5 hash of the contents of the given file.
+   */
+  String hashFile(File file) throws IOException {
+    return Files.hash(file, Hashing.md5()).toString();
+  }
+
+  /**
+   * Returns the MD5 hash of the contents of the given file, which is one of the files, such as
+   * the runtime libraries and tools, that are used by every build rather than created by one.
+   * The hash is remembered as long as the file's path, length and modification time don't
+   * change, but only for the most recently used files, so a file created by a build doesn't
+   * stay in memory.
+   */
+  String hashRuntimeFile(File file) throws IOException {
+    String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    String hash;
+    synchronized (runtimeHashes) {
+      hash = runtimeHashes.get(key);
+    }
+    if (hash == null) {
+      hash = hashFile(file);
+      synchronized (runtimeHashes) {
+        runtimeHashes.put(key, hash);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the given entry if it is in the cache. The entry won't be evicted until it is passed
+   * to {@link #release}.
+   *
+   * @param name the name of the entry
+   * @return the entry, or null if it isn't in the cache
+   */
+  File acquire(String name) {
+    File entry = new File(dir, name);
+    synchronized (lock) {
+      addUse(name);
+    }
+    if (entry.isFile()) {
+      recordHit(entry);
+      return entry;
+    }
+    release(entry);
+    return null;
+  }
+
+  /**
+   * Returns the given entry, producing it if it isn't already in the cache. The entry won't be
+   * evicted until it is passed to {@link #release}.
+   *
+   * @param name the name of the entry
+   * @param producer used to produce the entry if it isn't in the cache
+   * @return the entry, or null if the entry couldn't be produced
+   */
+  File acquire(String name, Producer producer) throws IOException {
+    File entry = new File(dir, name);
+    synchronized (lock) {
+      addUse(name);
+    }
+
+    while (true) {
+      if (entry.isFile()) {
+        recordHit(entry);
+        return entry;
+      }
+      CountDownLatch latch = new CountDownLatch(1);
+      CountDownLatch existingLatch = pending.putIfAbsent(name, latch);
+      if (existingLatch != null) {
+        // Another build is producing this entry. Wait for it and check again.
+        try {
+          existingLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          release(entry);
+          throw new IOException("Interrupted while waiting for " + name);
+        }
+        continue;
+      }
+      try {
+        if (entry.isFile()) {
+          // The entry was added between our check and our registration.
+          continue;
+        }
+        missCount.incrementAndGet();
+        if (!produceEntry(entry, producer)) {
+          release(entry);
+          return null;
+        }
+        return entry;
+      } finally {
+        pending.remove(name);
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Releases an entry returned by {@link #acquire}, allowing it to be evicted.
+   */
+  void release(File entry) {
+    String name = entry.getName();
+    synchronized (lock) {
+      Integer count = useCounts.get(name);
+      if (count == null) {
+        return;
+      }
+      if (count == 1) {
+        useCounts.remove(name);
+      } else {
+        useCounts.put(name, count - 1);
+      }
+    }
+  }
+
+  private void recordHit(File entry) {
+    hitCount.incrementAndGet();
+    // Record the use, for the least recently used eviction.
+    entry.setLastModified(System.currentTimeMillis());
+  }
+
+  private boolean produceEntry(File entry, Producer producer) {
+    File tempEntry = new File(dir, TEMP_PREFIX + Thread.currentThread().getId() + "-" +
+        entry.getName());
+    tempEntry.delete();
+    if (!producer.produce(tempEntry) || !tempEntry.isFile()) {
+      tempEntry.delete();
+      return false;
+    }
+    if (!tempEntry.renameTo(entry)) {
+      tempEntry.delete();
+      return entry.isFile();
+    }
+    synchronized (lock) {
+      sizeBytes += entry.length();
+    }
+    evictIfNecessary();
+    return true;
+  }
+
+  // Must be called while holding lock.
+  private void addUse(String name) {
+    Integer count = useCounts.get(name);
+    useCounts.put(name, (count == null) ? 1 : count + 1);
+  }
+
+  /*
+   * Deletes the least recently used entries that aren't in use until the cache is no larger than
+   * its maximum size.
+   */
+  private void evictIfNecessary() {
+    synchronized (lock) {
+      if (sizeBytes <= maxSizeBytes) {
+        return;
+      }
+      File[] entries = listEntries();
+      Arrays.sort(entries, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          long aTime = a.lastModified();
+          long bTime = b.lastModified();
+          return (aTime < bTime) ? -1 : ((aTime == bTime) ? 0 : 1);
+        }
+      });
+      for (File entry : entries) {
+        if (sizeBytes <= maxSizeBytes) {
+          break;
+        }
+        if (useCounts.containsKey(entry.getName())) {
+          continue;
+        }
+        long length = entry.length();
+        if (entry.delete()) {
+          sizeBytes -= length;
+          evictionCount.incrementAndGet();
+          LOG.info("Evicted " + entry.getName() + " from the build cache.");
+        }
+      }
+    }
+  }
+
+  private File[] listEntries() {
+    File[] entries = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && !file.getName().startsWith(TEMP_PREFIX);
+      }
+    });
+    return (entries == null) ? new File[0] : entries;
+  }
+
+  public long getSizeBytes() {
+    synchronized (lock) {
+      return sizeBytes;
+    }
+  }
+
+  public long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  public int getMissCount() {
+    return missCount.get();
+  }
+
+  public int getEvictionCount() {
+    return evictionCount.get();
+  }
+}
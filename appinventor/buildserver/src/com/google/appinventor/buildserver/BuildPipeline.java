@@ -0,0 +1,183 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * The stages of a build and the stages each one depends on.
+ *
+ * <p>{@link #run} starts each stage as soon as all of its dependencies have succeeded, so
+ * independent stages run at the same time and the build takes as long as its critical path
+ * rather than the sum of its stages. Once a stage fails, no more stages are started.
+ */
+final class BuildPipeline {
+  /**
+   * A build stage.
+   */
+  interface Stage {
+    /**
+     * Runs the stage.
+     *
+     * @return true if the stage succeeded
+     */
+    boolean run();
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildPipeline.class.getName());
+
+  // The threads that run the stages of all builds. The number of builds is limited by the build
+  // server, and the number of stages of a build that can run at once is small, so the threads
+  // are not limited here.
+  private static final ExecutorService stageExecutor =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "BuildStage");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final PrintStream out;
+  private final BuildStatus buildStatus;
+  // The stages, in the order they were added.
+  private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+  private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+
+  /**
+   * Creates a BuildPipeline.
+   *
+   * @param out where the start of each stage is logged
+   * @param buildStatus where the running stages and their times are recorded
+   */
+  BuildPipeline(PrintStream out, BuildStatus buildStatus) {
+    this.out = out;
+    this.buildStatus = buildStatus;
+  }
+
+  /**
+   * Adds a stage.
+   *
+   * @param name the name of the stage, such as "Invoking DX"
+   * @param stage the stage
+   * @param dependsOn the names of stages, already added, that must succeed before this one starts
+   */
+  void addStage(String name, Stage stage, String... dependsOn) {
+    for (String dependency : dependsOn) {
+      if (!stages.containsKey(dependency)) {
+        throw new IllegalArgumentException("Unknown stage " + dependency);
+      }
+    }
+    if (stages.put(name, stage) != null) {
+      throw new IllegalArgumentException("Duplicate stage " + name);
+    }
+    dependencies.put(name, Arrays.asList(dependsOn));
+  }
+
+  /**
+   * Runs the stages, each as soon as its dependencies have succeeded.
+   *
+   * @return true if every stage succeeded
+   */
+  boolean run() {
+    CompletionService<Boolean> completionService =
+        new ExecutorCompletionService<Boolean>(stageExecutor);
+    Map<Future<Boolean>, String> running = new HashMap<Future<Boolean>, String>();
+    Set<String> started = new HashSet<String>();
+    Set<String> succeeded = new HashSet<String>();
+    boolean failed = false;
+    RuntimeException exception = null;
+
+    startReadyStages(completionService, running, started, succeeded);
+    while (!running.isEmpty()) {
+      Future<Boolean> future;
+      try {
+        future = completionService.take();
+      } catch (InterruptedException e) {
+        for (Future<Boolean> runningFuture : running.keySet()) {
+          runningFuture.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      String name = running.remove(future);
+      try {
+        if (future.get()) {
+          succeeded.add(name);
+        } else {
+          LOG.info("Build stage failed: " + name);
+          failed = true;
+        }
+      } catch (InterruptedException e) {
+        // Can't happen, because the future is done.
+        Thread.currentThread().interrupt();
+        failed = true;
+      } catch (ExecutionException e) {
+        failed = true;
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        if (exception == null) {
+          exception = (cause instanceof RuntimeException) ? (RuntimeException) cause
+              : new RuntimeException(cause);
+        }
+      }
+      if (!failed) {
+        startReadyStages(completionService, running, started, succeeded);
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+    return !failed && succeeded.size() == stages.size();
+  }
+
+  private void startReadyStages(CompletionService<Boolean> completionService,
+      Map<Future<Boolean>, String> running, Set<String> started, Set<String> succeeded) {
+    for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+      final String name = entry.getKey();
+      if (started.contains(name) || !succeeded.containsAll(dependencies.get(name))) {
+        continue;
+      }
+      final Stage stage = entry.getValue();
+      started.add(name);
+      Future<Boolean> future = completionService.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          out.println("________" + name);
+          buildStatus.startStage(name);
+          try {
+            return stage.run();
+          } finally {
+            buildStatus.finishStage(name);
+          }
+        }
+      });
+      running.put(future, name);
+    }
+  }
+}
@@ -26,7 +26,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PushbackInputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
@@ -38,14 +40,19 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -75,6 +82,20 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for a free build slot. 0 means builds are " +
+        "rejected when all slots are busy.")
+    int maxQueuedBuilds = 0;
+
+    @Option(name = "--maxSimultaneousBuildsPerUser",
+      usage = "Maximum number of builds that a single user can run in parallel. O means unlimited.")
+    int maxSimultaneousBuildsPerUser = 0;  // The default is unlimited.
+
+    @Option(name = "--maxQueueWaitSeconds",
+      usage = "Builds are rejected if their estimated wait in the queue exceeds this many " +
+        "seconds. O means unlimited.")
+    int maxQueueWaitSeconds = 0;  // The default is unlimited.
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -91,6 +112,29 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--dexCacheMaxMb",
+      usage = "Maximum size of the dex cache, in MB. The least recently used pre-dexed libraries " +
+        "are deleted when the cache grows beyond this size.")
+    int dexCacheMaxMb = 1024;
+
+    @Option(name = "--kawaCompilerPoolSize",
+      usage = "Maximum number of warm Kawa processes, each using up to --childProcessRamMb, that " +
+        "are kept running to compile YAIL. Builds that can't get one launch a new Kawa process. " +
+        "Idle processes keep their memory, so allow for this many times --childProcessRamMb on " +
+        "top of the build server and its DX processes. " +
+        "0 means a new Kawa process is launched for every build.")
+    int kawaCompilerPoolSize = 2;
+
+    @Option(name = "--buildCacheDir",
+      usage = "the directory to cache the compiled screens and resource packages of projects, " +
+        "so that rebuilding a project only compiles the screens that have changed")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+      usage = "Maximum size of the build cache, in MB. The least recently used entries are " +
+        "deleted when the cache grows beyond this size.")
+    int buildCacheMaxMb = 1024;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -105,14 +149,37 @@ public class BuildServer {
   private static final MediaType ZIP_MEDIA_TYPE =
     new MediaType("application", "zip", ImmutableMap.of("charset", "utf-8"));
 
+  // The response header that carries the ID of an accepted asynchronous build.
+  // Must match YoungAndroidProjectService.BUILD_ID_HEADER
+  static final String BUILD_ID_HEADER = "X-Build-Id";
+
+  // How long the status of a finished build is kept around for clients that poll it.
+  private static final long FINISHED_BUILD_STATUS_RETENTION_MS = 10 * 60 * 1000;
+
+  // The longest time a status request may wait for the progress of a build to change.
+  private static final int MAX_BUILD_STATUS_WAIT_SECONDS = 30;
+
   private static final AtomicInteger buildCount = new AtomicInteger(0);
 
+  // The status of each build, keyed by build ID.
+  private static final ConcurrentMap<String, BuildStatus> buildStatuses =
+    new ConcurrentHashMap<String, BuildStatus>();
+
+  // The ID of the most recent build for each callback URL. The callback URL identifies the user,
+  // project and target of a build, so progress requests that don't know the build ID can still be
+  // answered with the progress of the right build.
+  private static final ConcurrentMap<String, String> buildIdsByCallback =
+    new ConcurrentHashMap<String, String>();
+
   // The number of build requests for this server run
   private static final AtomicInteger asyncBuildRequests = new AtomicInteger(0);
 
   // The number of rejected build requests for this server run
   private static final AtomicInteger rejectedAsyncBuildRequests = new AtomicInteger(0);
 
+  // The number of build requests that were queued for this server run
+  private static final AtomicInteger queuedAsyncBuildRequests = new AtomicInteger(0);
+
   //The number of successful build requests for this server run
   private static final AtomicInteger successfulBuildRequests = new AtomicInteger(0);
 
@@ -126,11 +193,24 @@ public class BuildServer {
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static QueuingExecutor buildExecutor;
+
+  // The cache of pre-dexed libraries, or null if there is no --dexCacheDir.
+  private static DexCache dexCache;
+
+  // The warm Kawa processes used to compile YAIL, or null if a new Kawa process is launched for
+  // every build.
+  private static KawaCompilerPool kawaCompilerPool;
+
+  // The cache of compiled screens and resource packages, or null if there is no --buildCacheDir.
+  private static BuildCache buildCache;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
 
+  // The project files extracted from the input zip stream. They will be deleted in cleanUp.
+  private ProjectBuilder.ExtractedProject inputProject;
+
   // The built APK file for this build request, if any.
   private File outputApk;
 
@@ -143,6 +223,9 @@ public class BuildServer {
   // The zip file where we put all the build results for this request.
   private File outputZip;
 
+  // The progress of the build for this request.
+  private BuildStatus buildStatus = new BuildStatus();
+
   @GET
   @Path("health")
   @Produces(MediaType.TEXT_PLAIN)
@@ -153,7 +236,7 @@ public class BuildServer {
   @GET
   @Path("vars")
   @Produces(MediaType.TEXT_HTML)
-  public Response var() throws IOException {
+  public Response var(@QueryParam("uname") String userName) throws IOException {
     Map<String, String> variables = new LinkedHashMap<String, String>();
 
     // Runtime
@@ -203,6 +286,57 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    variables.put("active-build-users", buildExecutor.getActiveUserCount() + "");
+    int maxPerUser = buildExecutor.getMaxActiveTasksPerUser();
+    if (maxPerUser == 0) {
+      variables.put("maximum-simultaneous-build-tasks-per-user-allowed", "unlimited");
+    } else {
+      variables.put("maximum-simultaneous-build-tasks-per-user-allowed", maxPerUser + "");
+    }
+
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("maximum-queued-build-tasks-occurred",
+      buildExecutor.getMaxQueuedTaskCount() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("queued-async-build-requests", queuedAsyncBuildRequests.get() + "");
+    variables.put("average-build-time-in-ms", buildExecutor.getAverageTaskTimeMillis() + "");
+    variables.put("estimated-queue-wait-in-ms", buildExecutor.getEstimatedWaitMillis() + "");
+    long maxWait = buildExecutor.getMaxEstimatedWaitMillis();
+    if (maxWait == 0) {
+      variables.put("maximum-queue-wait-in-ms-allowed", "unlimited");
+    } else {
+      variables.put("maximum-queue-wait-in-ms-allowed", maxWait + "");
+    }
+    variables.put("shed-build-tasks", buildExecutor.getShedTaskCount() + "");
+    variables.put("tracked-build-statuses", buildStatuses.size() + "");
+    if (dexCache != null) {
+      variables.put("dex-cache-size-in-bytes", dexCache.getSizeBytes() + "");
+      variables.put("dex-cache-maximum-size-in-bytes", dexCache.getMaxSizeBytes() + "");
+      variables.put("dex-cache-hits", dexCache.getHitCount() + "");
+      variables.put("dex-cache-misses", dexCache.getMissCount() + "");
+      variables.put("dex-cache-evictions", dexCache.getEvictionCount() + "");
+    }
+    if (buildCache != null) {
+      variables.put("build-cache-size-in-bytes", buildCache.getSizeBytes() + "");
+      variables.put("build-cache-maximum-size-in-bytes", buildCache.getMaxSizeBytes() + "");
+      variables.put("build-cache-hits", buildCache.getHitCount() + "");
+      variables.put("build-cache-misses", buildCache.getMissCount() + "");
+      variables.put("build-cache-evictions", buildCache.getEvictionCount() + "");
+    }
+    if (kawaCompilerPool != null) {
+      variables.put("maximum-warm-kawa-processes-allowed", kawaCompilerPool.getMaxWorkers() + "");
+      variables.put("warm-kawa-processes", kawaCompilerPool.getWorkerCount() + "");
+      variables.put("idle-warm-kawa-processes", kawaCompilerPool.getIdleWorkerCount() + "");
+      variables.put("started-warm-kawa-processes", kawaCompilerPool.getStartedWorkerCount() + "");
+      variables.put("reused-warm-kawa-processes", kawaCompilerPool.getReusedWorkerCount() + "");
+      variables.put("builds-without-warm-kawa-process",
+          kawaCompilerPool.getUnavailableWorkerCount() + "");
+    }
+    if (userName != null) {
+      // The position of the user's first queued build, 0 if the user has no queued builds.
+      variables.put("queue-position", buildExecutor.getQueuePosition(userName) + "");
+    }
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -214,6 +348,40 @@ public class BuildServer {
     return Response.ok(html.toString(), MediaType.TEXT_HTML_TYPE).build();
   }
 
+  /**
+   * Returns the status of an asynchronous build as a JSON object with the build's state, current
+   * stage, progress percentage and the time spent in each stage.
+   *
+   * If progress is given, the request waits up to wait seconds for the progress of the build to
+   * differ from it before responding, so that clients can long-poll instead of polling often.
+   *
+   * @param buildId  the build ID returned in the X-Build-Id header of the build request
+   * @param knownProgress  the progress the client already knows about, or -1
+   * @param waitSeconds  the maximum time to wait for the progress to change, in seconds
+   * @return the build status, or NOT_FOUND (404) if the build is unknown.
+   */
+  @GET
+  @Path("build-status")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response buildStatus(@QueryParam("buildId") String buildId,
+    @QueryParam("progress") @DefaultValue("-1") int knownProgress,
+    @QueryParam("wait") @DefaultValue("0") int waitSeconds) throws JSONException {
+    BuildStatus status = (buildId == null) ? null : buildStatuses.get(buildId);
+    if (status == null) {
+      return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN_TYPE)
+        .entity("Unknown build.").build();
+    }
+    if (knownProgress >= 0 && waitSeconds > 0) {
+      try {
+        status.waitForChange(knownProgress,
+          Math.min(waitSeconds, MAX_BUILD_STATUS_WAIT_SECONDS) * 1000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return Response.ok(status.toJson().toString(), MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
   /**
    * Build an APK file from the input zip file. The zip file needs to be a variant of the same
    * App Inventor source zip that's generated by the Download Source command.  The differences are
@@ -315,11 +483,13 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * The zip is extracted as it is received, so it is never saved whole on disk or held in memory.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
-   * @param inputZipFile  The zip file representing the App Inventor source code.
+   * @param inputZipStream  The zip stream representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
   @POST
@@ -329,16 +499,18 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
-    final File inputZipFile) throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in
-    // cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
+    InputStream inputZipStream) throws IOException {
     String requesting_host = (new URL(callbackUrlStr)).getHost();
 
-    //for the request for update part, the file should be empty
-    if (inputZip.length() == 0L) {
-      cleanUp();
+    //for the request for update part, the body should be empty
+    PushbackInputStream inputStream = new PushbackInputStream(inputZipStream);
+    int firstByte = inputStream.read();
+    if (firstByte == -1) {
+      // Answer with the progress of the most recent build for this callback, if we know it.
+      String buildId = buildIdsByCallback.get(callbackUrlStr);
+      BuildStatus status = (buildId == null) ? null : buildStatuses.get(buildId);
+      int progress = (status == null) ? 0 : status.getProgress();
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).entity("" + progress).build();
     } else {
       if (commandLineOptions.requiredHosts != null) {
         boolean oktoproceed = false;
@@ -379,6 +551,17 @@ public class BuildServer {
         }
       }
 
+      inputStream.unread(firstByte);
+      try {
+        inputProject = ProjectBuilder.extractProject(inputStream, buildStatus);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to extract the project for " + userName, e);
+        rejectedAsyncBuildRequests.incrementAndGet();
+        return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("Problems processing zip file.").build();
+      }
+      final ProjectBuilder.ExtractedProject project = inputProject;
+
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
@@ -386,7 +569,7 @@ public class BuildServer {
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              buildAndCreateZip(userName, project);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -417,19 +600,31 @@ public class BuildServer {
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
-              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
+              LOG.severe("Exception: " + e.getMessage() + " while building the project in "
+                + project.getProjectRoot());
             } finally {
+              if (!buildStatus.isFinished()) {
+                buildStatus.finish(false);
+              }
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      registerBuildStatus(callbackUrlStr, buildStatus);
       try {
-        buildExecutor.execute(buildTask);
+        int queuePosition = buildExecutor.execute(userName, buildTask);
+        if (queuePosition > 0) {
+          queuedAsyncBuildRequests.incrementAndGet();
+          LOG.info("Build for " + userName + " queued at position " + queuePosition);
+        }
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the build queue is full, or because the
+        // build would wait in the queue for too long.
+        LOG.info("Build for " + userName + " rejected: " + e.getMessage());
+        buildStatus.finish(false);
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -442,14 +637,43 @@ public class BuildServer {
       }
     }
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+      .header(BUILD_ID_HEADER, buildStatus.getBuildId())
+      .entity("" + buildStatus.getProgress()).build();
+  }
+
+  /*
+   * Makes the given build status available to status requests and forgets the statuses of builds
+   * that finished long ago.
+   */
+  private static void registerBuildStatus(String callbackUrlStr, BuildStatus status) {
+    long now = System.currentTimeMillis();
+    Iterator<BuildStatus> iterator = buildStatuses.values().iterator();
+    while (iterator.hasNext()) {
+      BuildStatus oldStatus = iterator.next();
+      if (oldStatus.isFinished()
+          && now - oldStatus.getFinishTime() > FINISHED_BUILD_STATUS_RETENTION_MS) {
+        iterator.remove();
+        buildIdsByCallback.values().remove(oldStatus.getBuildId());
+      }
+    }
+    buildStatuses.put(status.getBuildId(), status);
+    buildIdsByCallback.put(callbackUrlStr, status.getBuildId());
   }
 
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    createOutputZip(build(userName, inputZipFile), inputZipFile.getName());
+  }
+
+  private void buildAndCreateZip(String userName, ProjectBuilder.ExtractedProject project)
+    throws IOException, JSONException {
+    createOutputZip(build(userName, project), project.getProjectRoot().getName());
+  }
+
+  private void createOutputZip(Result buildResult, String prefix)
+    throws IOException, JSONException {
     boolean buildSucceeded = buildResult.succeeded();
-    outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
+    outputZip = File.createTempFile(prefix, ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
@@ -482,6 +706,13 @@ public class BuildServer {
     if (buildResult.getFormName() != null) {
       buildOutputJsonObj.put("formName", buildResult.getFormName());
     }
+    if (!buildResult.getStageTimes().isEmpty()) {
+      JSONObject stageTimesJsonObj = new JSONObject();
+      for (Map.Entry<String, Long> entry : buildResult.getStageTimes().entrySet()) {
+        stageTimesJsonObj.put(entry.getKey(), entry.getValue());
+      }
+      buildOutputJsonObj.put("stageTimesMs", stageTimesJsonObj);
+    }
     return buildOutputJsonObj.toString();
   }
 
@@ -493,7 +724,21 @@ public class BuildServer {
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
     Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, buildStatus);
+    return finishBuild(buildResult);
+  }
+
+  private Result build(String userName, ProjectBuilder.ExtractedProject project)
+    throws IOException {
+    outputDir = Files.createTempDir();
+    // See the note above about deleteOnExit.
+    outputDir.deleteOnExit();
+    Result buildResult = projectBuilder.build(userName, project, outputDir, false,
+      commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, buildStatus);
+    return finishBuild(buildResult);
+  }
+
+  private Result finishBuild(Result buildResult) {
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -514,6 +759,13 @@ public class BuildServer {
     if (inputZip != null) {
       inputZip.delete();
     }
+    if (inputProject != null) {
+      try {
+        inputProject.delete();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to delete " + inputProject.getProjectRoot(), e);
+      }
+    }
     if (outputKeystore != null) {
       outputKeystore.delete();
     }
@@ -549,7 +801,37 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new QueuingExecutor(commandLineOptions.maxSimultaneousBuilds,
+      commandLineOptions.maxQueuedBuilds, commandLineOptions.maxSimultaneousBuildsPerUser,
+      commandLineOptions.maxQueueWaitSeconds * 1000L);
+    if (commandLineOptions.kawaCompilerPoolSize > 0) {
+      kawaCompilerPool = new KawaCompilerPool(commandLineOptions.kawaCompilerPoolSize);
+      Compiler.setKawaCompilerPool(kawaCompilerPool);
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      buildCache = BuildCache.forDirectory(commandLineOptions.buildCacheDir);
+      buildCache.setMaxSizeBytes(commandLineOptions.buildCacheMaxMb * 1024L * 1024);
+      Compiler.setBuildCache(buildCache);
+    }
+    if (commandLineOptions.dexCacheDir != null) {
+      dexCache = DexCache.forDirectory(commandLineOptions.dexCacheDir);
+      dexCache.setMaxSizeBytes(commandLineOptions.dexCacheMaxMb * 1024L * 1024);
+      // Pre-dex the runtime libraries in the background, so the first builds don't have to.
+      Thread preDexThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (!Compiler.preDexRuntimeLibraries(dexCache, commandLineOptions.childProcessRamMb)) {
+              LOG.warning("Unable to pre-dex all the runtime libraries.");
+            }
+          } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to pre-dex the runtime libraries.", e);
+          }
+        }
+      });
+      preDexThread.setDaemon(true);
+      preDexThread.start();
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -561,6 +843,12 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
+    }
+    if (kawaCompilerPool != null) {
+      LOG.info("Warm Kawa processes = " + commandLineOptions.kawaCompilerPoolSize +
+          ", using up to " + commandLineOptions.kawaCompilerPoolSize *
+          (commandLineOptions.childProcessRamMb - 200) + " MB");
     }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
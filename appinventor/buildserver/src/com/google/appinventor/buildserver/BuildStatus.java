@@ -0,0 +1,213 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * The progress of a single build: its state, the stages it is running, a percentage and the time
+ * spent in each stage so far.
+ *
+ * <p>Each build gets its own BuildStatus, so builds running at the same time on one build server
+ * don't overwrite each other's progress. Clients can wait for the progress to change with
+ * {@link #waitForChange(int, long)} instead of polling repeatedly.
+ */
+public final class BuildStatus {
+  public static final String QUEUED = "queued";
+  public static final String RUNNING = "running";
+  public static final String SUCCEEDED = "succeeded";
+  public static final String FAILED = "failed";
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildStatus.class.getName());
+
+  private final String buildId;
+  private final long createTime;
+
+  // The following fields are guarded by this.
+  private String state = QUEUED;
+  // The start time of each running stage. Independent stages may run at the same time.
+  private final Map<String, Long> runningStages = new LinkedHashMap<String, Long>();
+  private int progress;
+  private long finishTime;
+  // Elapsed milliseconds for each stage, in the order the stages finished.
+  private final Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+
+  /**
+   * Creates a BuildStatus with a new, unique build ID.
+   */
+  public BuildStatus() {
+    this(UUID.randomUUID().toString());
+  }
+
+  BuildStatus(String buildId) {
+    this.buildId = buildId;
+    this.createTime = System.currentTimeMillis();
+  }
+
+  public String getBuildId() {
+    return buildId;
+  }
+
+  /**
+   * Marks the build as running. Called when the build leaves the queue.
+   */
+  public synchronized void start() {
+    state = RUNNING;
+    notifyAll();
+  }
+
+  /**
+   * Records the start of the given stage.
+   *
+   * @param stage a short description of the stage, such as "Invoking DX"
+   */
+  public synchronized void startStage(String stage) {
+    runningStages.put(stage, System.currentTimeMillis());
+    notifyAll();
+  }
+
+  /**
+   * Records the end of the given stage.
+   */
+  public synchronized void finishStage(String stage) {
+    endStage(stage, System.currentTimeMillis());
+    notifyAll();
+  }
+
+  /**
+   * Sets the percentage of the build that is complete. Because stages can run at the same time
+   * and finish in any order, the progress never goes backwards.
+   */
+  public synchronized void setProgress(int progress) {
+    if (progress <= this.progress) {
+      return;
+    }
+    this.progress = progress;
+    LOG.info("Build " + buildId + ": the current progress is " + progress + "%");
+    notifyAll();
+  }
+
+  /**
+   * Marks the build as finished, ending any running stages.
+   *
+   * @param succeeded whether the build succeeded
+   */
+  public synchronized void finish(boolean succeeded) {
+    finishTime = System.currentTimeMillis();
+    for (String stage : new ArrayList<String>(runningStages.keySet())) {
+      endStage(stage, finishTime);
+    }
+    state = succeeded ? SUCCEEDED : FAILED;
+    if (succeeded) {
+      progress = 100;
+    }
+    notifyAll();
+  }
+
+  // Must be called while holding this object's lock.
+  private void endStage(String stage, long now) {
+    Long startTime = runningStages.remove(stage);
+    if (startTime != null) {
+      Long previous = stageTimes.get(stage);
+      long elapsed = now - startTime;
+      stageTimes.put(stage, (previous == null) ? elapsed : previous + elapsed);
+    }
+  }
+
+  public synchronized String getState() {
+    return state;
+  }
+
+  /**
+   * Returns the names of the running stages, separated by commas, or null if no stage is running.
+   */
+  public synchronized String getStage() {
+    if (runningStages.isEmpty()) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String stage : runningStages.keySet()) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(stage);
+    }
+    return sb.toString();
+  }
+
+  public synchronized int getProgress() {
+    return progress;
+  }
+
+  public synchronized boolean isFinished() {
+    return state.equals(SUCCEEDED) || state.equals(FAILED);
+  }
+
+  /**
+   * Returns the time at which the build finished, or 0 if it hasn't finished.
+   */
+  public synchronized long getFinishTime() {
+    return finishTime;
+  }
+
+  /**
+   * Returns a copy of the elapsed milliseconds for each completed stage, in the order the stages
+   * finished.
+   */
+  public synchronized Map<String, Long> getStageTimes() {
+    return new LinkedHashMap<String, Long>(stageTimes);
+  }
+
+  /**
+   * Waits until the progress differs from the given value, the build finishes, or the timeout
+   * elapses, whichever comes first.
+   *
+   * @param knownProgress the progress the caller already knows about
+   * @param timeoutMillis the maximum time to wait, in milliseconds
+   * @return the current progress
+   */
+  public synchronized int waitForChange(int knownProgress, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (progress == knownProgress && !isFinished() && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return progress;
+  }
+
+  /**
+   * Returns the status as a JSON object.
+   */
+  public synchronized JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("buildId", buildId);
+    json.put("state", state);
+    String stage = getStage();
+    if (stage != null) {
+      json.put("stage", stage);
+    }
+    json.put("progress", progress);
+    long now = (finishTime == 0) ? System.currentTimeMillis() : finishTime;
+    json.put("elapsedMs", now - createTime);
+    JSONObject stageTimesJson = new JSONObject();
+    for (Map.Entry<String, Long> entry : stageTimes.entrySet()) {
+      stageTimesJson.put(entry.getKey(), entry.getValue());
+    }
+    json.put("stageTimesMs", stageTimesJson);
+    return json;
+  }
+}
@@ -12,6 +12,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
@@ -33,6 +34,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -42,6 +44,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
 
@@ -54,11 +58,24 @@ import javax.imageio.ImageIO;
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class Compiler {
-  public static int currentProgress = 10;
-
   // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
   private static final Object SYNC_KAWA_OR_DX = new Object();
 
+  // The warm Kawa processes used to compile YAIL, or null if a new Kawa process is launched for
+  // every build.
+  private static volatile KawaCompilerPool kawaCompilerPool;
+
+  // The cache of compiled screens and resource packages reused by later builds, or null if every
+  // build compiles and packages everything.
+  private static volatile BuildCache buildCache;
+
+  // The names of build cache entries are made of these prefixes and a hash of their inputs.
+  private static final String SCREEN_CLASSES_ENTRY_PREFIX = "classes-";
+  private static final String RUNTIME_CLASSES_ENTRY_PREFIX = "runtime-classes-";
+  private static final String RESOURCES_ENTRY_PREFIX = "resources-";
+  // The time of every entry in a jar of classes in the build cache.
+  private static final long JAR_ENTRY_TIME = 1000000000000L;
+
   private static final String SWLIST_ACTIVITY_CLASS =
       "com.google.appinventor.components.runtime.SWListActivity";
 
@@ -190,12 +207,19 @@ public final class Compiler {
   private final boolean isForCompanion;
   // Maximum ram that can be used by a child processes, in MB.
   private final int childProcessRamMb;
+  private Set<String> permissionsNeeded; // Set of Android permissions
   private Set<String> librariesNeeded; // Set of component libraries
   private Set<String> templatesNeeded; // Set of component templates
   private Set<String> nativeLibrariesNeeded; // Set of component native libraries
   private Set<String> assetsNeeded; // Set of component assets
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
+  private final BuildStatus buildStatus; // The progress of this build
+  // The jars of compiled classes, one for each screen and one for the YAIL runtime, or null if
+  // the classes are only in the classes directory.
+  private List<File> classJars;
+  // The build cache entries used by this build, which are released when the build finishes.
+  private final List<File> buildCacheEntries = Collections.synchronizedList(new ArrayList<File>());
 
 
   /*
@@ -680,6 +704,7 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param buildStatus  the progress of this build, updated as each stage starts
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -687,12 +712,13 @@ public final class Compiler {
   public static boolean compile(Project project, Set<String> componentTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForCompanion, String keystoreFilePath,
-                                int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+                                int childProcessRam, String dexCacheDir,
+                                BuildStatus buildStatus) throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
     Compiler compiler = new Compiler(project, componentTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+                                     childProcessRam, dexCacheDir, buildStatus);
 
     // Get names of component-required libraries and assets.
     compiler.generateLibraryNames();
@@ -706,70 +732,124 @@ public final class Compiler {
 /*    compiler.copyTemplatesToAssets();*/
     
 
-    // Create build directory.
-    File buildDir = createDirectory(project.getBuildDirectory());
+    // Create build directories. They are created before any stage runs, so that stages running
+    // at the same time don't race to create them.
+    final File buildDir = createDirectory(project.getBuildDirectory());
+    final File resDir = createDirectory(buildDir, "res");
+    final File drawableDir = createDirectory(resDir, "drawable");
+    final File animDir = createDirectory(resDir, "anim");
+    final File fragmentDir = createDirectory(resDir, "layout");
+    final File classesDir = createDirectory(buildDir, "classes");
+    final File tmpDir = createDirectory(buildDir, "tmp");
+    final File deployDir = createDirectory(buildDir, "deploy");
+    final File manifestFile = new File(buildDir, "AndroidManifest.xml");
+    final String dexedClasses = tmpDir.getAbsolutePath() + File.separator + "classes.dex";
+    final String tmpPackageName = deployDir.getAbsolutePath() + File.separatorChar +
+        project.getProjectName() + ".ap_";
+    final String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
+        project.getProjectName() + ".apk";
+    final String keystoreAbsolutePath = keystoreFilePath;
+    final Compiler c = compiler;
+
+    // The stages of the build. Each stage starts as soon as the stages it depends on have
+    // succeeded, so, for example, AAPT packages the resources while Kawa and DX compile the
+    // sources.
+    final String iconStage = "Preparing application icon";
+    final String animationStage = "Creating animation xml";
+    final String fragmentStage = "Creating fragment xml";
+    final String permissionsStage = "Determining permissions";
+    final String manifestStage = "Generating manifest file";
+    final String nativeLibrariesStage = "Attaching native libraries";
+    final String assetsStage = "Attaching component assets";
+    final String compileStage = "Compiling source files";
+    final String dxStage = "Invoking DX";
+    final String aaptStage = "Invoking AAPT";
+    final String apkBuilderStage = "Invoking ApkBuilder";
+    final String signStage = "Signing the apk file";
+    final String zipAlignStage = "ZipAligning the apk file";
+    BuildPipeline pipeline = new BuildPipeline(out, buildStatus);
+
+    pipeline.addStage(iconStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
+          return false;
+        }
+        c.setProgress(10);
+        return true;
+      }
+    });
 
-    // Prepare application icon.
-    out.println("________Preparing application icon");
-    File resDir = createDirectory(buildDir, "res");
-    File drawableDir = createDirectory(resDir, "drawable");
-    if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
-      return false;
-    }
-    setProgress(10);
+    // Create animation xml files
+    pipeline.addStage(animationStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.createAnimationXml(animDir);
+      }
+    });
 
-    // Create anim directory and animation xml files
-    out.println("________Creating animation xml");
-    File animDir = createDirectory(resDir, "anim");
-    if (!compiler.createAnimationXml(animDir)) {
-      return false;
-    }
-    
-    // Create fragment directory and fragment xml files
-    out.println("________Creating fragment xml");
-    File fragmentDir = createDirectory(resDir, "layout");
-    if (!compiler.createFragmentXml(fragmentDir)) {
-      return false;
-    }
+    // Create fragment xml files
+    pipeline.addStage(fragmentStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.createFragmentXml(fragmentDir);
+      }
+    });
 
     // Determine android permissions.
-    out.println("________Determining permissions");
-    Set<String> permissionsNeeded = compiler.generatePermissions();
-    if (permissionsNeeded == null) {
-      return false;
-    }
-    setProgress(15);
+    pipeline.addStage(permissionsStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        c.permissionsNeeded = c.generatePermissions();
+        if (c.permissionsNeeded == null) {
+          return false;
+        }
+        c.setProgress(15);
+        return true;
+      }
+    });
 
     // Generate AndroidManifest.xml
-    out.println("________Generating manifest file");
-    File manifestFile = new File(buildDir, "AndroidManifest.xml");
-    if (!compiler.writeAndroidManifest(manifestFile, permissionsNeeded)) {
-      return false;
-    }
-    setProgress(20);
+    pipeline.addStage(manifestStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.writeAndroidManifest(manifestFile, c.permissionsNeeded)) {
+          return false;
+        }
+        c.setProgress(20);
+        return true;
+      }
+    }, permissionsStage);
 
     // Insert native libraries
-    out.println("________Attaching native libraries");
-    if (!compiler.insertNativeLibraries(buildDir)) {
-      return false;
-    }
+    pipeline.addStage(nativeLibrariesStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.insertNativeLibraries(buildDir);
+      }
+    });
 
     // Add raw assets to sub-directory of project assets.
-    out.println("________Attaching component assets");
-    if (!compiler.attachComponentAssets()) {
-      return false;
-    }
+    pipeline.addStage(assetsStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.attachComponentAssets();
+      }
+    });
 
     // Create class files.
-    out.println("________Compiling source files");
-    File classesDir = createDirectory(buildDir, "classes");
-    if (!compiler.generateClasses(classesDir)) {
-      return false;
-    }
-    setProgress(35);
+    pipeline.addStage(compileStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.generateClasses(classesDir)) {
+          return false;
+        }
+        c.setProgress(35);
+        return true;
+      }
+    });
 
     // Invoke dx on class files
-    out.println("________Invoking DX");
     // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
     // overhead for subsequent runs).  I think it's because of the need to dx the entire
     // kawa runtime every time.  We should probably only do that once and then copy all the
@@ -785,45 +865,73 @@ public final class Compiler {
     // method of identifying via a hash of the path won't work when files
     // are copied into temporary storage) and processed via a hacked up version of
     // Android SDK's Dex Ant task
-    File tmpDir = createDirectory(buildDir, "tmp");
-    String dexedClasses = tmpDir.getAbsolutePath() + File.separator + "classes.dex";
-    if (!compiler.runDx(classesDir, dexedClasses)) {
-      return false;
-    }
-    setProgress(85);
-
-    // Invoke aapt to package everything up
-    out.println("________Invoking AAPT");
-    File deployDir = createDirectory(buildDir, "deploy");
-    String tmpPackageName = deployDir.getAbsolutePath() + File.separatorChar +
-        project.getProjectName() + ".ap_";
-    if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
-      return false;
-    }
-    setProgress(90);
+    pipeline.addStage(dxStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.runDx(classesDir, dexedClasses)) {
+          return false;
+        }
+        c.setProgress(85);
+        return true;
+      }
+    }, compileStage);
+
+    // Invoke aapt to package everything up. AAPT only needs the resources, the manifest, the
+    // assets and the native libraries, so it doesn't wait for DX.
+    pipeline.addStage(aaptStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
+          return false;
+        }
+        c.setProgress(90);
+        return true;
+      }
+    }, iconStage, animationStage, fragmentStage, manifestStage, assetsStage,
+        nativeLibrariesStage);
 
     // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
-    String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
-        project.getProjectName() + ".apk";
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClasses)) {
-      return false;
-    }
-    setProgress(95);
+    pipeline.addStage(apkBuilderStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        if (!c.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClasses)) {
+          return false;
+        }
+        c.setProgress(95);
+        return true;
+      }
+    }, dxStage, aaptStage);
 
     // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
-      return false;
-    }
+    pipeline.addStage(signStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.runJarSigner(apkAbsolutePath, keystoreAbsolutePath);
+      }
+    }, apkBuilderStage);
 
     // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
-      return false;
+    pipeline.addStage(zipAlignStage, new BuildPipeline.Stage() {
+      @Override
+      public boolean run() {
+        return c.runZipAlign(apkAbsolutePath, tmpDir);
+      }
+    }, signStage);
+
+    try {
+      if (!pipeline.run()) {
+        return false;
+      }
+    } finally {
+      BuildCache cache = buildCache;
+      if (cache != null) {
+        for (File entry : compiler.buildCacheEntries) {
+          cache.release(entry);
+        }
+      }
     }
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -968,6 +1076,25 @@ public final class Compiler {
   Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForCompanion,
            int childProcessMaxRam, String dexCacheDir) {
+    this(project, componentTypes, out, err, userErrors, isForCompanion, childProcessMaxRam,
+         dexCacheDir, new BuildStatus());
+  }
+
+  /**
+   * Creates a new YAIL compiler that reports its progress to the given build status.
+   *
+   * @param project  project to build
+   * @param componentTypes component types used in the project
+   * @param out  stdout stream for compiler messages
+   * @param err  stderr stream for compiler messages
+   * @param userErrors stream to write user-visible error messages
+   * @param childProcessMaxRam  maximum RAM for child processes, in MBs.
+   * @param buildStatus  the progress of this build
+   */
+  Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
+           PrintStream userErrors, boolean isForCompanion,
+           int childProcessMaxRam, String dexCacheDir, BuildStatus buildStatus) {
+    this.buildStatus = buildStatus;
     this.project = project;
     this.componentTypes = componentTypes;
     this.out = out;
@@ -978,9 +1105,32 @@ public final class Compiler {
     this.dexCacheDir = dexCacheDir;
   }
 
+  /**
+   * Sets the pool of warm Kawa processes used to compile YAIL. If the pool is null, or has no
+   * process available, a new Kawa process is launched for the build.
+   */
+  static void setKawaCompilerPool(KawaCompilerPool pool) {
+    kawaCompilerPool = pool;
+  }
+
+  /**
+   * Sets the cache in which the compiled classes of each screen, and the resource package built
+   * by AAPT, are kept for later builds. If the cache is null, every build compiles every screen
+   * and runs AAPT.
+   */
+  static void setBuildCache(BuildCache cache) {
+    buildCache = cache;
+  }
+
   /*
-   * Runs the Kawa compiler in a separate process to generate classes. Returns false if not able to
-   * create a class file for every source file in the project.
+   * Runs the Kawa compiler, in a warm process from the kawaCompilerPool if possible and in a new
+   * process otherwise, to generate classes. Returns false if not able to create a class file for
+   * every source file in the project.
+   *
+   * If there is a build cache, the classes of each screen, and of the YAIL runtime, are kept in
+   * it as jars, keyed by a hash of the screen source and of everything on the compiler's class
+   * path. Only the screens whose jars aren't in the cache are compiled, and the jars are passed
+   * to DX instead of the classes directory.
    */
   private boolean generateClasses(File classesDir) {
     try {
@@ -1044,25 +1194,46 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
-          "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      String classPrefix = Signatures.getPackageName(project.getMainClass()) + ".";
+
+      // Look for the screens, and the YAIL runtime, in the build cache.
+      BuildCache cache = buildCache;
+      List<String> compiledSourceFileNames = sourceFileNames;
+      List<String> compiledClassFileNames = classFileNames;
+      String[] screenEntryNames = new String[sourceFileNames.size()];
+      File[] jars = new File[sourceFileNames.size() + 1];
+      String runtimeEntryName = null;
+      if (cache != null) {
+        StringBuilder compilerInputs = new StringBuilder();
+        for (String path : classpath.split(File.pathSeparator)) {
+          compilerInputs.append(cache.hashRuntimeFile(new File(path))).append('\n');
+        }
+        compilerInputs.append(cache.hashRuntimeFile(new File(yailRuntime))).append('\n');
+        String compilerHash = md5(compilerInputs.toString());
+        runtimeEntryName = RUNTIME_CLASSES_ENTRY_PREFIX + compilerHash + ".jar";
+        jars[sourceFileNames.size()] = acquireBuildCacheEntry(cache, runtimeEntryName);
+
+        compiledSourceFileNames = Lists.newArrayList();
+        compiledClassFileNames = Lists.newArrayList();
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          File sourceFile = new File(sourceFileNames.get(i));
+          screenEntryNames[i] = SCREEN_CLASSES_ENTRY_PREFIX + md5(compilerHash + '\n' +
+              classPrefix + '\n' + sourceFile.getName() + '\n' + cache.hashFile(sourceFile)) +
+              ".jar";
+          jars[i] = acquireBuildCacheEntry(cache, screenEntryNames[i]);
+          if (jars[i] == null) {
+            compiledSourceFileNames.add(sourceFileNames.get(i));
+            compiledClassFileNames.add(classFileNames.get(i));
+          }
+        }
+        if (compiledSourceFileNames.isEmpty() && jars[sourceFileNames.size()] != null) {
+          out.println("All screens are up to date.");
+          classJars = Arrays.asList(jars);
+          return true;
+        }
+        out.println("Compiling " + compiledSourceFileNames.size() + " of " +
+            sourceFileNames.size() + " screens.");
+      }
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
@@ -1070,9 +1241,43 @@ public final class Compiler {
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      int mx = childProcessRamMb - 200;
+      KawaCompilerPool pool = kawaCompilerPool;
+      KawaCompilerPool.Worker kawaWorker =
+          (pool == null) ? null : pool.acquire(classpath, yailRuntime, mx);
+      if (kawaWorker != null) {
+        // The pool bounds the number of Kawa processes, so there's no need to hold
+        // SYNC_KAWA_OR_DX.
+        try {
+          kawaSuccess = kawaWorker.compile(classesDir, classPrefix, compiledSourceFileNames,
+              new PrintStream(kawaOutputStream));
+        } finally {
+          pool.release(kawaWorker);
+        }
+      } else {
+        List<String> kawaCommandArgs = Lists.newArrayList();
+        Collections.addAll(kawaCommandArgs,
+            System.getProperty("java.home") + "/bin/java",
+            "-mx" + mx + "M",
+            "-cp", classpath,
+            "kawa.repl",
+            "-f", yailRuntime,
+            "-d", classesDir.getAbsolutePath(),
+            "-P", classPrefix,
+            "-C");
+        // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+        // source file names. The resulting .class files contain references to the source file
+        // names, including the name of the tmp directory that contains them. We may be able to
+        // avoid that by using source file names that are relative to the project root and using
+        // the project root as the working directory for the Kawa compiler process.
+        kawaCommandArgs.addAll(compiledSourceFileNames);
+        kawaCommandArgs.add(yailRuntime);
+        String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+
+        synchronized (SYNC_KAWA_OR_DX) {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        }
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1086,7 +1291,7 @@ public final class Compiler {
 
       // Check that all of the class files were created.
       // If they weren't, return with an error.
-      for (String classFileName : classFileNames) {
+      for (String classFileName : compiledClassFileNames) {
         File classFile = new File(classFileName);
         if (!classFile.exists()) {
           LOG.log(Level.INFO, "Can't find class file: " + classFileName);
@@ -1096,6 +1301,44 @@ public final class Compiler {
           return false;
         }
       }
+
+      if (cache != null) {
+        // Add the classes that were just compiled to the build cache. The classes of a screen
+        // are the ones whose names start with the name of the screen. The rest of the classes,
+        // outside the project's package, belong to the YAIL runtime.
+        File packageDir = new File(classesDir, classPrefix.replace('.', '/'));
+        List<File> packageClassFiles = Lists.newArrayList();
+        List<File> runtimeClassFiles = Lists.newArrayList();
+        for (File file : listFiles(classesDir)) {
+          if (file.getParentFile().equals(packageDir)) {
+            packageClassFiles.add(file);
+          } else {
+            runtimeClassFiles.add(file);
+          }
+        }
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          if (jars[i] != null) {
+            continue;
+          }
+          String screenName = new File(classFileNames.get(i)).getName()
+              .replace(".class", "");
+          List<File> screenClassFiles = Lists.newArrayList();
+          for (File file : packageClassFiles) {
+            String name = file.getName();
+            if (name.equals(screenName + ".class") || name.startsWith(screenName + "$")) {
+              screenClassFiles.add(file);
+            }
+          }
+          jars[i] = addClassesToBuildCache(cache, screenEntryNames[i], classesDir,
+              screenClassFiles);
+        }
+        int runtimeIndex = sourceFileNames.size();
+        if (jars[runtimeIndex] == null) {
+          jars[runtimeIndex] = addClassesToBuildCache(cache, runtimeEntryName, classesDir,
+              runtimeClassFiles);
+        }
+        classJars = Arrays.asList(jars);
+      }
     } catch (IOException e) {
       e.printStackTrace();
       userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
@@ -1105,6 +1348,91 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Returns the given entry from the build cache, or null if it isn't there. The entry is
+   * released when the build finishes.
+   */
+  private File acquireBuildCacheEntry(BuildCache cache, String name) {
+    File entry = cache.acquire(name);
+    if (entry != null) {
+      buildCacheEntries.add(entry);
+    }
+    return entry;
+  }
+
+  /*
+   * Adds a jar of the given class files to the build cache, and returns the entry. The entry is
+   * released when the build finishes.
+   */
+  private File addClassesToBuildCache(BuildCache cache, String name, final File classesDir,
+      final List<File> classFiles) throws IOException {
+    File entry = cache.acquire(name, new BuildCache.Producer() {
+      @Override
+      public boolean produce(File output) {
+        try {
+          writeJar(classesDir, classFiles, output);
+          return true;
+        } catch (IOException e) {
+          e.printStackTrace();
+          return false;
+        }
+      }
+    });
+    if (entry == null) {
+      throw new IOException("Unable to add " + name + " to the build cache.");
+    }
+    buildCacheEntries.add(entry);
+    return entry;
+  }
+
+  /*
+   * Writes the given files, named relative to the given directory, to a jar. The entries are
+   * sorted and have a fixed time, so that the same classes always make the same jar.
+   */
+  private static void writeJar(File dir, List<File> files, File jarFile) throws IOException {
+    String dirPath = dir.getAbsolutePath() + File.separator;
+    List<String> names = Lists.newArrayList();
+    for (File file : files) {
+      names.add(file.getAbsolutePath().substring(dirPath.length())
+          .replace(File.separatorChar, '/'));
+    }
+    Collections.sort(names);
+    ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(jarFile));
+    try {
+      for (String name : names) {
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setTime(JAR_ENTRY_TIME);
+        zipOutputStream.putNextEntry(zipEntry);
+        Files.copy(new File(dir, name), zipOutputStream);
+        zipOutputStream.closeEntry();
+      }
+    } finally {
+      zipOutputStream.close();
+    }
+  }
+
+  /*
+   * Returns all the files in the given directory and its subdirectories.
+   */
+  private static List<File> listFiles(File dir) {
+    List<File> files = Lists.newArrayList();
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          files.addAll(listFiles(child));
+        } else {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+
+  private static String md5(String text) {
+    return Hashing.md5().hashString(text, Charsets.UTF_8).toString();
+  }
+
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
     String javaHome = System.getProperty("java.home");
@@ -1232,7 +1560,13 @@ public final class Compiler {
 
   private boolean runDx(File classesDir, String dexedClasses) {
     List<File> inputList = new ArrayList<File>();
-    inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
+    if (classJars != null) {
+      // The jars of classes from the build cache are pre-dexed, so a screen that hasn't changed
+      // isn't dexed again.
+      inputList.addAll(classJars);
+    } else {
+      inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
+    }
     inputList.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
     inputList.add(new File(getResource(KAWA_RUNTIME)));
     inputList.add(new File(getResource(ACRA_RUNTIME)));
@@ -1250,19 +1584,22 @@ public final class Compiler {
     if (dexCacheDir == null) {
       dexTask.setDisableDexMerger(true);
     } else {
-      createDirectory(new File(dexCacheDir));
-      dexTask.setDexedLibs(dexCacheDir);
+      try {
+        dexTask.setDexCache(DexCache.forDirectory(dexCacheDir));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to use the dex cache.", e);
+        dexTask.setDisableDexMerger(true);
+      }
     }
+    // Libraries are pre-dexed without the lock. Only the final dx, which merges them, holds it.
+    dexTask.setMergeLock(SYNC_KAWA_OR_DX);
 
     long startDx = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
-      setProgress(50);
-      dxSuccess = dexTask.execute(inputList);
-      setProgress(75);
-    }
+    setProgress(50);
+    boolean dxSuccess = dexTask.execute(inputList);
+    setProgress(75);
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
       err.println("YAIL compiler - DX execution failed.");
@@ -1277,6 +1614,43 @@ public final class Compiler {
     return true;
   }
 
+  /**
+   * Pre-dexes the runtime jars and every component library into the given cache, so that builds
+   * only need to dex the classes generated for their project and merge them with the cached
+   * libraries.
+   *
+   * @param dexCache the cache
+   * @param childProcessRamMb the maximum ram that can be used by dx, in MB
+   * @return true if all the libraries were pre-dexed
+   */
+  static boolean preDexRuntimeLibraries(DexCache dexCache, int childProcessRamMb)
+      throws IOException, JSONException {
+    List<File> libraries = new ArrayList<File>();
+    libraries.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
+    libraries.add(new File(getResource(KAWA_RUNTIME)));
+    libraries.add(new File(getResource(ACRA_RUNTIME)));
+
+    Set<String> libraryNames = Sets.newTreeSet();
+    JSONArray componentsArray = new JSONArray(Resources.toString(
+        Compiler.class.getResource(COMPONENT_BUILD_INFO), Charsets.UTF_8));
+    for (int componentsIndex = 0; componentsIndex < componentsArray.length(); componentsIndex++) {
+      JSONArray librariesArray =
+          componentsArray.getJSONObject(componentsIndex).getJSONArray(LIBRARIES_TARGET);
+      for (int librariesIndex = 0; librariesIndex < librariesArray.length(); librariesIndex++) {
+        libraryNames.add(librariesArray.getString(librariesIndex));
+      }
+    }
+    for (String library : libraryNames) {
+      libraries.add(new File(getResource(RUNTIME_FILES_DIR + library)));
+    }
+
+    DexExecTask dexTask = new DexExecTask();
+    dexTask.setExecutable(getResource(DX_JAR));
+    dexTask.setChildProcessRamMb(childProcessRamMb);
+    dexTask.setDexCache(dexCache);
+    return dexTask.preDex(libraries);
+  }
+
   private boolean runAaptPackage(File manifestFile, File resDir, String tmpPackageName) {
     // Need to make sure assets directory exists otherwise aapt will fail.
     createDirectory(project.getAssetsDirectory());
@@ -1307,6 +1681,33 @@ public final class Compiler {
         libsDir.getAbsolutePath()
     };
     long startAapt = System.currentTimeMillis();
+
+    // Reuse the package built by an earlier build if none of AAPT's inputs have changed.
+    BuildCache cache = buildCache;
+    String entryName = null;
+    if (cache != null) {
+      try {
+        StringBuilder aaptInputs = new StringBuilder();
+        aaptInputs.append(cache.hashRuntimeFile(new File(getResource(aaptTool)))).append('\n');
+        aaptInputs.append(cache.hashRuntimeFile(new File(getResource(ANDROID_RUNTIME))))
+            .append('\n');
+        aaptInputs.append(cache.hashFile(manifestFile)).append('\n');
+        appendFileHashes(cache, "res", resDir, aaptInputs);
+        appendFileHashes(cache, "assets", project.getAssetsDirectory(), aaptInputs);
+        appendFileHashes(cache, "libs", libsDir, aaptInputs);
+        entryName = RESOURCES_ENTRY_PREFIX + md5(aaptInputs.toString()) + ".ap_";
+        File entry = acquireBuildCacheEntry(cache, entryName);
+        if (entry != null) {
+          Files.copy(entry, new File(tmpPackageName));
+          out.println("Resources are up to date.");
+          return true;
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to use the build cache for AAPT.", e);
+        entryName = null;
+      }
+    }
+
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
@@ -1320,9 +1721,48 @@ public final class Compiler {
     out.println(aaptTimeMessage);
     LOG.info(aaptTimeMessage);
 
+    if (entryName != null) {
+      final File tmpPackage = new File(tmpPackageName);
+      try {
+        File entry = cache.acquire(entryName, new BuildCache.Producer() {
+          @Override
+          public boolean produce(File output) {
+            try {
+              Files.copy(tmpPackage, output);
+              return true;
+            } catch (IOException e) {
+              e.printStackTrace();
+              return false;
+            }
+          }
+        });
+        if (entry != null) {
+          buildCacheEntries.add(entry);
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to add the AAPT package to the build cache.", e);
+      }
+    }
+
     return true;
   }
 
+  /*
+   * Appends the path, relative to the given directory, and the hash of each file in the given
+   * directory to the given inputs, in a fixed order.
+   */
+  private static void appendFileHashes(BuildCache cache, String label, File dir,
+      StringBuilder inputs) throws IOException {
+    String dirPath = dir.getAbsolutePath() + File.separator;
+    List<File> files = listFiles(dir);
+    Collections.sort(files);
+    for (File file : files) {
+      inputs.append(label).append(':')
+          .append(file.getAbsolutePath().substring(dirPath.length())).append('=')
+          .append(cache.hashFile(file)).append('\n');
+    }
+  }
+
   private boolean insertNativeLibraries(File buildDir){
     out.println("________Copying native libraries");
     libsDir = createDirectory(buildDir, LIBS_DIR_NAME);
@@ -1568,19 +2008,7 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
-  }
-
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
-    }
+  private void setProgress(int progress) {
+    buildStatus.setProgress(progress);
   }
 }
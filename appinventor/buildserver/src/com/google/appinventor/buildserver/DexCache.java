@@ -0,0 +1,112 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A persistent, content-addressed cache of pre-dexed libraries.
+ *
+ * <p>A library is dexed once and stored in a {@link BuildCache} under a name derived from the
+ * MD5 hash of its contents, so it is found again by later builds and after the build server
+ * restarts. If several builds need the same library at the same time, only one of them dexes it.
+ */
+final class DexCache {
+  /**
+   * Dexes a single library.
+   */
+  interface Dexer {
+    /**
+     * Dexes the given library into the given output file.
+     *
+     * @return true if successful
+     */
+    boolean dex(File input, File output);
+  }
+
+  private static final String ENTRY_PREFIX = "dex-cached-";
+  // The name of an entry must end with .jar, so that dx writes a jar.
+  private static final String ENTRY_SUFFIX = ".jar";
+
+  // The default maximum size of the cache directory.
+  static final long DEFAULT_MAX_SIZE_BYTES = BuildCache.DEFAULT_MAX_SIZE_BYTES;
+
+  private final BuildCache cache;
+
+  /**
+   * Returns the cache for the given directory, creating the directory if necessary.
+   */
+  static DexCache forDirectory(String dirPath) throws IOException {
+    return new DexCache(BuildCache.forDirectory(dirPath));
+  }
+
+  @VisibleForTesting
+  DexCache(File dir) {
+    this(new BuildCache(dir));
+  }
+
+  private DexCache(BuildCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the size beyond which the least recently used entries are evicted.
+   */
+  void setMaxSizeBytes(long maxSizeBytes) {
+    cache.setMaxSizeBytes(maxSizeBytes);
+  }
+
+  /**
+   * Returns the pre-dexed version of the given library, dexing it if it isn't already in the
+   * cache. The entry won't be evicted until it is passed to {@link #release}.
+   *
+   * @param input the library
+   * @param dexer used to dex the library if it isn't in the cache
+   * @return the pre-dexed library, or null if the library couldn't be dexed
+   */
+  File acquire(final File input, final Dexer dexer) throws IOException {
+    final String name = ENTRY_PREFIX + cache.hashRuntimeFile(input) + ENTRY_SUFFIX;
+    return cache.acquire(name, new BuildCache.Producer() {
+      @Override
+      public boolean produce(File output) {
+        System.out.println(String.format("Pre-Dexing %1$s -> %2$s",
+            input.getAbsolutePath(), name));
+        return dexer.dex(input, output);
+      }
+    });
+  }
+
+  /**
+   * Releases an entry returned by {@link #acquire}, allowing it to be evicted.
+   */
+  void release(File entry) {
+    cache.release(entry);
+  }
+
+  public long getSizeBytes() {
+    return cache.getSizeBytes();
+  }
+
+  public long getMaxSizeBytes() {
+    return cache.getMaxSizeBytes();
+  }
+
+  public int getHitCount() {
+    return cache.getHitCount();
+  }
+
+  public int getMissCount() {
+    return cache.getMissCount();
+  }
+
+  public int getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+}
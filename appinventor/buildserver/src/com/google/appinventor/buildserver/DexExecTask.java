@@ -18,18 +18,10 @@ package com.google.appinventor.buildserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
@@ -39,14 +31,12 @@ public class DexExecTask  {
 
     private String mExecutable;
     private String mOutput;
-    private String mDexedLibs;
+    private DexCache mDexCache;
+    private Object mMergeLock = new Object();
     private boolean mVerbose = false;
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
-
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
 
 
     /**
@@ -73,8 +63,21 @@ public class DexExecTask  {
         mOutput = output;
     }
 
-    public void setDexedLibs(String dexedLibs) {
-        mDexedLibs = dexedLibs;
+    /**
+     * Sets the cache of pre-dexed libraries.
+     * @param dexCache the cache.
+     */
+    public void setDexCache(DexCache dexCache) {
+        mDexCache = dexCache;
+    }
+
+    /**
+     * Sets the object to synchronize on while running the final dx, which merges the pre-dexed
+     * libraries and can use a lot of memory. Pre-dexing doesn't hold this lock.
+     * @param mergeLock the lock.
+     */
+    public void setMergeLock(Object mergeLock) {
+        mMergeLock = mergeLock;
     }
 
     /**
@@ -93,91 +96,86 @@ public class DexExecTask  {
         mDisableDexMerger = disable;
     }
 
-    private boolean preDexLibraries(List<File> inputs) {
+    /**
+     * Replaces each library in the given inputs with its pre-dexed version from the cache, dexing
+     * the library if it isn't in the cache yet.
+     * @param inputs the inputs, which are modified in place.
+     * @param dexedLibs receives the cache entries used, which must be released.
+     * @return true if all the libraries were pre-dexed.
+     */
+    private boolean preDexLibraries(List<File> inputs, List<File> dexedLibs) {
         if (mDisableDexMerger || inputs.size() == 1) {
             // only one input, no need to put a pre-dexed version, even if this path is
             // just a jar file (case for proguard'ed builds)
             return true;
         }
 
-        synchronized(semaphore) {
-
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
-
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
-
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
-                }
+        DexCache.Dexer dexer = new DexCache.Dexer() {
+            @Override
+            public boolean dex(File input, File output) {
+                return runDx(input, output.getAbsolutePath(), false /*showInput*/);
             }
-            return allSuccessful;
-        }
-    }
+        };
+        final int count = inputs.size();
+        for (int i = 0 ; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                File dexedLib;
+                try {
+                    dexedLib = mDexCache.acquire(input, dexer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+                if (dexedLib == null) {
+                    return false;
+                }
+                dexedLibs.add(dexedLib);
+                System.out.println(
+                    String.format("Using Pre-Dexed %1$s <- %2$s",
+                      dexedLib.getName(), input.getAbsolutePath()));
 
-    private String getDexFileName(File inputFile) {
-        // get the filename
-        String name = inputFile.getName();
-        // remove the extension
-        int pos = name.lastIndexOf('.');
-        if (pos != -1) {
-            name = name.substring(0, pos);
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
+            }
         }
-
-        String hashed = getHashFor(inputFile);
-
-        return "dex-cached-" + hashed + ".jar";
+        return true;
     }
 
-    private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
-        if (retval != null) return retval;
-        // add a hash of the original file path
+    /**
+     * Pre-dexes the given libraries into the cache ahead of the builds that need them.
+     * @param libraries the libraries.
+     * @return true if all the libraries were pre-dexed.
+     */
+    public boolean preDex(List<File> libraries) {
+        List<File> dexedLibs = new ArrayList<File>();
         try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
-            return retval;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "ERROR";
+            return preDexLibraries(new ArrayList<File>(libraries), dexedLibs);
+        } finally {
+            for (File dexedLib : dexedLibs) {
+                mDexCache.release(dexedLib);
+            }
         }
     }
 
     public boolean execute(List<File> paths) {
-        // pre dex libraries if needed
-        boolean successPredex = preDexLibraries(paths);
-        if (!successPredex) return false;
+        List<File> dexedLibs = new ArrayList<File>();
+        try {
+            // pre dex libraries if needed
+            boolean successPredex = preDexLibraries(paths, dexedLibs);
+            if (!successPredex) return false;
 
-        System.out.println(String.format(
-                "Converting compiled files and external libraries into %1$s...", mOutput));
+            System.out.println(String.format(
+                    "Converting compiled files and external libraries into %1$s...", mOutput));
 
-        return runDx(paths, mOutput, mVerbose /*showInputs*/);
+            synchronized (mMergeLock) {
+                return runDx(paths, mOutput, mVerbose /*showInputs*/);
+            }
+        } finally {
+            for (File dexedLib : dexedLibs) {
+                mDexCache.release(dexedLib);
+            }
+        }
     }
 
     private boolean runDx(File input, String output, boolean showInputs) {
@@ -0,0 +1,333 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of warm Kawa compiler processes, each running {@link KawaCompilerWorker}, that compile
+ * YAIL sources to classes without starting a new JVM and reloading the YAIL runtime for every
+ * build.
+ *
+ * <p>A worker is used by one build at a time, and removes the modules of each build from Kawa's
+ * module table when the build is done, so builds don't see each other's Kawa state. Several
+ * builds can compile at once. Because Kawa has other global state, such as interned symbols, that
+ * a worker can't reset, a worker is discarded after an internal Kawa error, after
+ * {@link #MAX_BUILDS_PER_WORKER} builds, or if a build takes longer than
+ * {@link #COMPILE_TIMEOUT_MINUTES} to compile, in which case its process is killed. A new worker
+ * is started for a later build. The class path of a worker, and so the component libraries it
+ * can see, is fixed when it starts, so builds only share a worker if they need the same
+ * libraries.
+ *
+ * <p>Each worker is a JVM with a heap of up to the given maximum, which it keeps while it is
+ * idle, so the pool needs up to {@code maxWorkers} times that much memory in addition to the
+ * build server and the DX processes of the builds in progress.
+ */
+final class KawaCompilerPool {
+  // The number of builds after which a worker is discarded.
+  static final int MAX_BUILDS_PER_WORKER = 50;
+
+  // The time after which a compile is abandoned and its worker process killed.
+  static final int COMPILE_TIMEOUT_MINUTES = 10;
+
+  // Kills the processes of workers whose compiles have timed out.
+  private static final Timer timeoutTimer = new Timer("KawaCompilerTimeout", true);
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  private final int maxWorkers;
+
+  // The following fields are guarded by lock.
+  private final Object lock = new Object();
+  // Idle workers, least recently used first.
+  private final LinkedList<Worker> idleWorkers = new LinkedList<Worker>();
+  // The number of workers, idle or in use, including those being started.
+  private int workerCount;
+
+  private final AtomicInteger startedWorkerCount = new AtomicInteger(0);
+  private final AtomicInteger reusedWorkerCount = new AtomicInteger(0);
+  private final AtomicInteger unavailableWorkerCount = new AtomicInteger(0);
+
+  /**
+   * Creates a KawaCompilerPool.
+   *
+   * @param maxWorkers the maximum number of worker processes, idle or in use
+   */
+  KawaCompilerPool(int maxWorkers) {
+    this.maxWorkers = maxWorkers;
+  }
+
+  /**
+   * Returns a worker for the given class path, starting one if necessary. The caller must pass
+   * the worker to {@link #release} when it is done with it.
+   *
+   * @param classpath the class path used to resolve the Java classes referred to by YAIL code
+   * @param yailRuntime the path of the YAIL runtime
+   * @param maxRamMb the maximum heap size of a new worker process, in MB
+   * @return a worker, or null if none is available, in which case the caller should run Kawa in
+   *     a separate process
+   */
+  Worker acquire(String classpath, String yailRuntime, int maxRamMb) {
+    synchronized (lock) {
+      // Look for the most recently used idle worker with the same class path.
+      Iterator<Worker> iterator = idleWorkers.descendingIterator();
+      while (iterator.hasNext()) {
+        Worker worker = iterator.next();
+        if (worker.classpath.equals(classpath) && worker.yailRuntime.equals(yailRuntime)) {
+          iterator.remove();
+          reusedWorkerCount.incrementAndGet();
+          return worker;
+        }
+      }
+      if (workerCount < maxWorkers) {
+        workerCount++;
+      } else if (!idleWorkers.isEmpty()) {
+        // Make room by discarding the least recently used idle worker.
+        idleWorkers.removeFirst().close();
+      } else {
+        unavailableWorkerCount.incrementAndGet();
+        return null;
+      }
+    }
+
+    try {
+      Worker worker = Worker.start(classpath, yailRuntime, maxRamMb);
+      startedWorkerCount.incrementAndGet();
+      return worker;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to start a Kawa compiler process.", e);
+      synchronized (lock) {
+        workerCount--;
+      }
+      unavailableWorkerCount.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Returns the given worker to the pool, or discards it if it can't be reused.
+   */
+  void release(Worker worker) {
+    synchronized (lock) {
+      if (worker.isReusable()) {
+        idleWorkers.addLast(worker);
+        return;
+      }
+      workerCount--;
+    }
+    worker.close();
+  }
+
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  public int getWorkerCount() {
+    synchronized (lock) {
+      return workerCount;
+    }
+  }
+
+  public int getIdleWorkerCount() {
+    synchronized (lock) {
+      return idleWorkers.size();
+    }
+  }
+
+  public int getStartedWorkerCount() {
+    return startedWorkerCount.get();
+  }
+
+  public int getReusedWorkerCount() {
+    return reusedWorkerCount.get();
+  }
+
+  public int getUnavailableWorkerCount() {
+    return unavailableWorkerCount.get();
+  }
+
+  /**
+   * A Kawa compiler process with the YAIL runtime loaded.
+   */
+  static final class Worker {
+    private final String classpath;
+    private final String yailRuntime;
+    private final Process process;
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+    // Where the worker writes the classes for the YAIL runtime.
+    private final File runtimeClassesDir;
+
+    private int buildCount;
+    // Set if the worker can't take any more requests.
+    private boolean finished;
+
+    private Worker(String classpath, String yailRuntime, Process process,
+        File runtimeClassesDir) {
+      this.classpath = classpath;
+      this.yailRuntime = yailRuntime;
+      this.process = process;
+      this.runtimeClassesDir = runtimeClassesDir;
+      requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    /*
+     * Starts a worker process and waits for it to load the YAIL runtime.
+     */
+    private static Worker start(String classpath, String yailRuntime, int maxRamMb)
+        throws IOException {
+      File runtimeClassesDir = Files.createTempDir();
+      runtimeClassesDir.deleteOnExit();
+      List<String> command = Lists.newArrayList(
+          System.getProperty("java.home") + "/bin/java",
+          "-mx" + maxRamMb + "M",
+          "-cp", classpath + File.pathSeparator + getWorkerClasspath(),
+          KawaCompilerWorker.class.getName(),
+          yailRuntime,
+          runtimeClassesDir.getAbsolutePath());
+      Process process = new ProcessBuilder(command)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      Worker worker = new Worker(classpath, yailRuntime, process, runtimeClassesDir);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      boolean ready;
+      try {
+        ready = worker.readResponse(output);
+      } catch (IOException e) {
+        worker.close();
+        throw e;
+      }
+      if (!ready) {
+        worker.close();
+        throw new IOException("Unable to load " + yailRuntime + ": " + output);
+      }
+      return worker;
+    }
+
+    /*
+     * Returns the location of the KawaCompilerWorker class, which is either the build server's
+     * jar file or its classes directory.
+     */
+    private static String getWorkerClasspath() throws IOException {
+      try {
+        return new File(KawaCompilerWorker.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI()).getAbsolutePath();
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Compiles the given YAIL sources, and copies the classes for the YAIL runtime, into the
+     * given directory.
+     *
+     * @param classesDir the directory in which to write the classes
+     * @param classPrefix the prefix for the names of the generated classes
+     * @param sourceFileNames the paths of the YAIL sources
+     * @param err where Kawa's warnings and errors are written
+     * @return true if the sources were compiled without errors
+     */
+    boolean compile(File classesDir, String classPrefix, List<String> sourceFileNames,
+        PrintStream err) {
+      buildCount++;
+      final AtomicBoolean timedOut = new AtomicBoolean(false);
+      TimerTask timeout = new TimerTask() {
+        @Override
+        public void run() {
+          timedOut.set(true);
+          process.destroy();
+        }
+      };
+      timeoutTimer.schedule(timeout, TimeUnit.MINUTES.toMillis(COMPILE_TIMEOUT_MINUTES));
+      try {
+        requests.writeUTF(classesDir.getAbsolutePath());
+        requests.writeUTF(classPrefix);
+        requests.writeInt(sourceFileNames.size());
+        for (String sourceFileName : sourceFileNames) {
+          requests.writeUTF(sourceFileName);
+        }
+        requests.flush();
+        return readResponse(err);
+      } catch (IOException e) {
+        finished = true;
+        if (timedOut.get()) {
+          LOG.log(Level.WARNING, "Killed a Kawa compiler process after " +
+              COMPILE_TIMEOUT_MINUTES + " minutes.");
+          err.println("Kawa compile timed out after " + COMPILE_TIMEOUT_MINUTES + " minutes.");
+        } else {
+          LOG.log(Level.WARNING, "Lost contact with a Kawa compiler process.", e);
+          e.printStackTrace(err);
+        }
+        return false;
+      } finally {
+        timeout.cancel();
+        if (timedOut.get()) {
+          // The process was killed, even if its response arrived just in time.
+          finished = true;
+        }
+      }
+    }
+
+    private boolean readResponse(OutputStream output) throws IOException {
+      boolean success = responses.readBoolean();
+      finished = !responses.readBoolean();
+      byte[] bytes = new byte[responses.readInt()];
+      responses.readFully(bytes);
+      output.write(bytes);
+      return success;
+    }
+
+    private boolean isReusable() {
+      return !finished && buildCount < MAX_BUILDS_PER_WORKER;
+    }
+
+    private void close() {
+      try {
+        // Closing the worker's input tells it to exit.
+        requests.close();
+      } catch (IOException e) {
+        // ignored
+      }
+      process.destroy();
+      deleteDirectory(runtimeClassesDir);
+    }
+
+    private static void deleteDirectory(File file) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          deleteDirectory(child);
+        }
+      }
+      file.delete();
+    }
+  }
+}
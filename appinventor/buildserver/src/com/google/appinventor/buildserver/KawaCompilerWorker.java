@@ -0,0 +1,321 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The main class of a warm Kawa compiler process, started by {@link KawaCompilerPool}.
+ *
+ * <p>The process loads the YAIL runtime, and compiles it to classes, once. It then compiles the
+ * YAIL sources of one build after another, as requested on its standard input, so that builds
+ * don't pay for starting a JVM and loading the YAIL runtime.
+ *
+ * <p>The protocol is a stream of {@link DataOutputStream} values. After starting, the process
+ * writes a response saying whether the YAIL runtime was loaded. Each request is the classes
+ * directory, the class prefix, the number of source files and the source file paths. Each
+ * response is whether the sources were compiled without errors and whether the process will take
+ * another request, followed by the length and bytes of the output Kawa would have written to
+ * stderr.
+ *
+ * <p>This class runs with only Kawa, the Android runtime and the component libraries on its
+ * class path, so it uses nothing but the JDK. Kawa is accessed by reflection because it is not on
+ * the build server's class path.
+ *
+ * <p>After each build, the modules Kawa registered while compiling it are removed from Kawa's
+ * module table, so that one build's screens can't be found by the next build and the table
+ * doesn't grow with every build.
+ */
+public final class KawaCompilerWorker {
+  private final String yailRuntime;
+  // The classes for the YAIL runtime, which are copied into the classes directory of each build.
+  private final File runtimeClassesDir;
+
+  // Kawa members
+  private final Method getLanguageFromFilenameExtension;
+  private final Method runFileOrClass;
+  private final Method getDefaultLanguage;
+  private final Method parse;
+  private final Method openFile;
+  private final Class<?> sourceMessagesClass;
+  private final Class<?> syntaxExceptionClass;
+  private final Method seenErrors;
+  private final Method seenErrorsOrWarnings;
+  private final Method checkErrors;
+  private final Method getModuleManager;
+  private final Method setCompilationDirectory;
+  private final Method findModule;
+  private final Method loadByStages;
+  private final Field modules;
+  private final Field numModules;
+  private final Field classPrefixDefault;
+  private final Field mainClass;
+  private final Method getClassName;
+  private final int defaultParseOptions;
+  private final int classWritten;
+
+  // The number of modules in Kawa's module table once the YAIL runtime has been loaded.
+  private int runtimeModuleCount;
+
+  // Set if Kawa fails for a reason other than errors in the sources. The process exits after
+  // responding to the request, because Kawa's state may be inconsistent.
+  private boolean broken;
+
+  private KawaCompilerWorker(String yailRuntime, File runtimeClassesDir) throws Exception {
+    this.yailRuntime = yailRuntime;
+    this.runtimeClassesDir = runtimeClassesDir;
+
+    Class<?> replClass = Class.forName("kawa.repl");
+    Class<?> shellClass = Class.forName("kawa.Shell");
+    Class<?> languageClass = Class.forName("gnu.expr.Language");
+    Class<?> inPortClass = Class.forName("gnu.mapping.InPort");
+    Class<?> compilationClass = Class.forName("gnu.expr.Compilation");
+    Class<?> moduleManagerClass = Class.forName("gnu.expr.ModuleManager");
+    Class<?> moduleInfoClass = Class.forName("gnu.expr.ModuleInfo");
+    sourceMessagesClass = Class.forName("gnu.text.SourceMessages");
+    syntaxExceptionClass = Class.forName("gnu.text.SyntaxException");
+
+    getLanguageFromFilenameExtension =
+        replClass.getMethod("getLanguageFromFilenameExtension", String.class);
+    runFileOrClass = shellClass.getMethod("runFileOrClass", String.class, boolean.class, int.class);
+    getDefaultLanguage = languageClass.getMethod("getDefaultLanguage");
+    parse = languageClass.getMethod("parse", inPortClass, sourceMessagesClass, int.class);
+    openFile = inPortClass.getMethod("openFile", Object.class);
+    seenErrors = sourceMessagesClass.getMethod("seenErrors");
+    seenErrorsOrWarnings = sourceMessagesClass.getMethod("seenErrorsOrWarnings");
+    checkErrors = sourceMessagesClass.getMethod("checkErrors", PrintStream.class, int.class);
+    getModuleManager = moduleManagerClass.getMethod("getInstance");
+    setCompilationDirectory = moduleManagerClass.getMethod("setCompilationDirectory", String.class);
+    findModule = moduleManagerClass.getMethod("find", compilationClass);
+    loadByStages = moduleInfoClass.getMethod("loadByStages", int.class);
+    modules = moduleManagerClass.getDeclaredField("modules");
+    modules.setAccessible(true);
+    numModules = moduleManagerClass.getDeclaredField("numModules");
+    numModules.setAccessible(true);
+    classPrefixDefault = compilationClass.getField("classPrefixDefault");
+    mainClass = compilationClass.getField("mainClass");
+    getClassName = Class.forName("gnu.bytecode.ClassType").getMethod("getName");
+    classWritten = compilationClass.getField("CLASS_WRITTEN").getInt(null);
+    Field defaultParseOptionsField = replClass.getDeclaredField("defaultParseOptions");
+    defaultParseOptionsField.setAccessible(true);
+    defaultParseOptions = defaultParseOptionsField.getInt(null);
+  }
+
+  /*
+   * Loads the YAIL runtime, as "kawa.repl -f runtime.scm" would, and compiles it to classes. The
+   * runtime's module name fixes its class names, so the same classes can be used for every build.
+   */
+  private boolean loadRuntime(PrintStream err) throws Exception {
+    getLanguageFromFilenameExtension.invoke(null, yailRuntime);
+    if (!((Boolean) runFileOrClass.invoke(null, yailRuntime, true, 0))) {
+      err.println("Unable to load " + yailRuntime);
+      return false;
+    }
+    if (!compileFiles(runtimeClassesDir, "", new String[] { yailRuntime }, err)) {
+      return false;
+    }
+    runtimeModuleCount = numModules.getInt(getModuleManager.invoke(null));
+    return true;
+  }
+
+  /*
+   * Removes the modules registered since the YAIL runtime was loaded from Kawa's module table.
+   */
+  private void forgetBuildModules() throws Exception {
+    Object moduleManager = getModuleManager.invoke(null);
+    synchronized (moduleManager) {
+      Object[] table = (Object[]) modules.get(moduleManager);
+      int count = numModules.getInt(moduleManager);
+      for (int i = runtimeModuleCount; i < count; i++) {
+        table[i] = null;
+      }
+      numModules.setInt(moduleManager, Math.min(count, runtimeModuleCount));
+    }
+  }
+
+  /*
+   * Compiles the given YAIL sources, and copies the classes for the YAIL runtime, into the given
+   * directory.
+   */
+  private boolean compile(File classesDir, String classPrefix, String[] fileNames,
+      PrintStream err) {
+    try {
+      if (!compileFiles(classesDir, classPrefix, fileNames, err)) {
+        return false;
+      }
+      try {
+        copyDirectory(runtimeClassesDir, classesDir);
+      } catch (IOException e) {
+        e.printStackTrace(err);
+        return false;
+      }
+      return true;
+    } finally {
+      try {
+        forgetBuildModules();
+      } catch (Exception e) {
+        broken = true;
+        e.printStackTrace(err);
+      }
+    }
+  }
+
+  /*
+   * Does what kawa.repl.compileFiles does, but reports errors by returning false instead of
+   * calling System.exit.
+   */
+  private boolean compileFiles(File classesDir, String classPrefix, String[] fileNames,
+      PrintStream err) {
+    String fileName = null;
+    try {
+      Object moduleManager = getModuleManager.invoke(null);
+      setCompilationDirectory.invoke(moduleManager, classesDir.getAbsolutePath());
+      classPrefixDefault.set(null, classPrefix);
+      Object language = getDefaultLanguage.invoke(null);
+
+      Object messages = sourceMessagesClass.newInstance();
+      Object[] compilations = new Object[fileNames.length];
+      Object[] moduleInfos = new Object[fileNames.length];
+      for (int i = 0; i < fileNames.length; i++) {
+        fileName = fileNames[i];
+        Object port = openFile.invoke(null, fileName);
+        try {
+          compilations[i] = parse.invoke(language, port, messages, defaultParseOptions);
+          moduleInfos[i] = findModule.invoke(moduleManager, compilations[i]);
+        } catch (InvocationTargetException e) {
+          // A syntax error has already been added to the messages.
+          if (!syntaxExceptionClass.isInstance(e.getCause())) {
+            throw e;
+          }
+        }
+        if ((Boolean) seenErrorsOrWarnings.invoke(messages)) {
+          err.println("(compiling " + fileName + ')');
+          if ((Boolean) checkErrors.invoke(messages, err, 20)) {
+            return false;
+          }
+        }
+      }
+
+      for (int i = 0; i < fileNames.length; i++) {
+        fileName = fileNames[i];
+        err.println("(compiling " + fileName + " to " +
+            getClassName.invoke(mainClass.get(compilations[i])) + ')');
+        loadByStages.invoke(moduleInfos[i], classWritten);
+        boolean sawErrors = (Boolean) seenErrors.invoke(messages);
+        checkErrors.invoke(messages, err, 50);
+        if (sawErrors) {
+          return false;
+        }
+      }
+      return true;
+    } catch (Exception e) {
+      broken = true;
+      Throwable cause = (e instanceof InvocationTargetException) ? e.getCause() : e;
+      err.println("Internal error while compiling " + fileName);
+      cause.printStackTrace(err);
+      return false;
+    }
+  }
+
+  private static void copyDirectory(File source, File destination) throws IOException {
+    if (source.isDirectory()) {
+      destination.mkdirs();
+      for (File child : source.listFiles()) {
+        copyDirectory(child, new File(destination, child.getName()));
+      }
+    } else {
+      InputStream in = new FileInputStream(source);
+      try {
+        OutputStream out = new FileOutputStream(destination);
+        try {
+          byte[] buffer = new byte[8192];
+          int count;
+          while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+          }
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  private static void writeResponse(DataOutputStream out, boolean success, boolean available,
+      ByteArrayOutputStream output) throws IOException {
+    out.writeBoolean(success);
+    out.writeBoolean(available);
+    out.writeInt(output.size());
+    output.writeTo(out);
+    out.flush();
+    output.reset();
+  }
+
+  /**
+   * Runs the worker.
+   *
+   * @param args the path of the YAIL runtime and the directory in which to write its classes
+   */
+  public static void main(String[] args) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+
+    // Anything written to System.out or System.err, by Kawa or by the YAIL runtime, is part of the
+    // output sent back in the response, and must not be mixed with the protocol.
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream err = new PrintStream(output, true);
+    System.setOut(err);
+    System.setErr(err);
+
+    KawaCompilerWorker worker = null;
+    boolean ready;
+    try {
+      worker = new KawaCompilerWorker(args[0], new File(args[1]));
+      ready = worker.loadRuntime(err);
+    } catch (Exception e) {
+      e.printStackTrace(err);
+      ready = false;
+    }
+    writeResponse(out, ready, ready, output);
+
+    while (ready && !worker.broken) {
+      String classesDir;
+      try {
+        classesDir = in.readUTF();
+      } catch (EOFException e) {
+        // The build server has closed our input.
+        break;
+      }
+      String classPrefix = in.readUTF();
+      String[] fileNames = new String[in.readInt()];
+      for (int i = 0; i < fileNames.length; i++) {
+        fileNames[i] = in.readUTF();
+      }
+      boolean success = worker.compile(new File(classesDir), classPrefix, fileNames, err);
+      writeResponse(out, success, !worker.broken, output);
+    }
+    System.exit(0);
+  }
+}
@@ -14,12 +14,14 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -34,6 +36,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
 
@@ -53,6 +56,10 @@ public final class ProjectBuilder {
 
   private static final int MAX_COMPILER_MESSAGE_LENGTH = 160;
 
+  // Names of the build stages that run before the compiler.
+  private static final String EXTRACT_STAGE = "Extracting project files";
+  private static final String GENERATE_YAIL_STAGE = "Generating YAIL";
+
   // Project folder prefixes
   // TODO(user): These constants are (or should be) also defined in
   // appengine/src/com/google/appinventor/server/project/youngandroid/YoungAndroidProjectService
@@ -72,6 +79,33 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  /**
+   * Project files that have been extracted into a temporary directory, ready to be built.
+   */
+  static final class ExtractedProject {
+    private final File projectRoot;
+    private final List<String> sourceFiles;
+
+    private ExtractedProject(File projectRoot, List<String> sourceFiles) {
+      this.projectRoot = projectRoot;
+      this.sourceFiles = sourceFiles;
+    }
+
+    File getProjectRoot() {
+      return projectRoot;
+    }
+
+    /**
+     * Deletes the extracted files. Does nothing if they have already been deleted.
+     */
+    void delete() throws IOException {
+      if (projectRoot.exists()) {
+        // See the note in buildProject about the canonical path.
+        FileUtils.deleteDirectory(new File(projectRoot.getCanonicalPath()));
+      }
+    }
+  }
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -112,82 +146,94 @@ public final class ProjectBuilder {
         + baseNamePrefix + "0 to " + baseNamePrefix + (TEMP_DIR_ATTEMPTS - 1) + ')');
   }
 
+  /**
+   * Builds the project in the given zip file, recording the progress of the build in the given
+   * build status.
+   */
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForCompanion,
-               int childProcessRam, String dexCachePath) {
+               int childProcessRam, String dexCachePath, BuildStatus buildStatus) {
+    buildStatus.start();
+    Result result = buildProject(userName, inputZip, outputDir, isForCompanion, childProcessRam,
+        dexCachePath, buildStatus);
+    return finishBuild(result, buildStatus);
+  }
+
+  /**
+   * Builds the given extracted project, recording the progress of the build in the given build
+   * status. The extracted files are deleted afterwards.
+   */
+  Result build(String userName, ExtractedProject project, File outputDir, boolean isForCompanion,
+               int childProcessRam, String dexCachePath, BuildStatus buildStatus) {
+    buildStatus.start();
+    Result result;
+    try {
+      try {
+        result = buildProjectFiles(userName, project.projectRoot, project.sourceFiles, outputDir,
+            isForCompanion, childProcessRam, dexCachePath, buildStatus);
+      } finally {
+        project.delete();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      result = Result.createFailingResult("", "Server error performing build");
+    }
+    return finishBuild(result, buildStatus);
+  }
+
+  private static Result finishBuild(Result result, BuildStatus buildStatus) {
+    buildStatus.finish(result.succeeded());
+    result.setStageTimes(buildStatus.getStageTimes());
+    return result;
+  }
+
+  /**
+   * Extracts the project files from the given zip stream into a new temporary directory, one
+   * entry at a time as the stream is read. Unlike {@link #build(String, ZipFile, File, boolean,
+   * int, String, BuildStatus)}, this doesn't need the whole zip to be saved first.
+   *
+   * @param inputZip  the zip stream, which is read to its end but not closed
+   * @param buildStatus  the status in which the time spent extracting is recorded
+   * @return the extracted project
+   * @throws IOException if the stream can't be read or isn't a valid project zip, in which case
+   *     nothing is left on disk
+   */
+  static ExtractedProject extractProject(InputStream inputZip, BuildStatus buildStatus)
+      throws IOException {
+    File projectRoot = createNewTempDir();
+    LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
+    ExtractedProject project = null;
+    buildStatus.startStage(EXTRACT_STAGE);
+    try {
+      project = new ExtractedProject(projectRoot,
+          extractProjectFiles(new ZipInputStream(inputZip), projectRoot));
+      return project;
+    } finally {
+      buildStatus.finishStage(EXTRACT_STAGE);
+      if (project == null) {
+        FileUtils.deleteDirectory(new File(projectRoot.getCanonicalPath()));
+      }
+    }
+  }
+
+  private Result buildProject(String userName, ZipFile inputZip, File outputDir,
+      boolean isForCompanion, int childProcessRam, String dexCachePath, BuildStatus buildStatus) {
     try {
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
       try {
+        buildStatus.startStage(EXTRACT_STAGE);
         List<String> sourceFiles;
         try {
           sourceFiles = extractProjectFiles(inputZip, projectRoot);
         } catch (IOException e) {
           LOG.severe("unexpected problem extracting project file from zip");
           return Result.createFailingResult("", "Problems processing zip file.");
+        } finally {
+          buildStatus.finishStage(EXTRACT_STAGE);
         }
-
-        try {
-          genYailFilesIfNecessary(sourceFiles);
-        } catch (YailGenerationException e) {
-          // Note that we're using a special result code here for the case of a Yail gen error.
-          return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
-        } catch (Exception e) {
-          LOG.severe("Unknown exception signalled by genYailFilesIf Necessary");
-          e.printStackTrace();
-          return Result.createFailingResult("", "Unexpected problems generating YAIL.");
-        }
-
-        File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
-        String keyStorePath = keyStoreFile.getPath();
-        if (!keyStoreFile.exists()) {
-          keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
-          saveKeystore = true;
-        }
-
-        // Create project object from project properties file.
-        Project project = getProjectProperties(projectRoot);
-
-        File buildTmpDir = new File(projectRoot, "build/tmp");
-        buildTmpDir.mkdirs();
-
-        // Prepare for redirection of compiler message output
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        PrintStream console = new PrintStream(output);
-        ByteArrayOutputStream errors = new ByteArrayOutputStream();
-        PrintStream userErrors = new PrintStream(errors);
-
-        Set<String> componentTypes =
-          isForCompanion ? getAllComponentTypes() : getComponentTypes(sourceFiles);
-
-        // Invoke YoungAndroid compiler
-        boolean success =
-            Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
-        console.close();
-        userErrors.close();
-
-        // Retrieve compiler messages and convert to HTML and log
-        String srcPath = projectRoot.getAbsolutePath() + "/" + PROJECT_DIRECTORY + "/../src/";
-        String messages = processCompilerOutput(output.toString(PathUtil.DEFAULT_CHARSET),
-            srcPath);
-
-        if (success) {
-          // Locate output file
-          File outputFile = new File(projectRoot,
-              "build/deploy/" + project.getProjectName() + ".apk");
-          if (!outputFile.exists()) {
-            LOG.warning("Young Android build - " + outputFile + " does not exist");
-          } else {
-            outputApk = new File(outputDir, outputFile.getName());
-            Files.copy(outputFile, outputApk);
-            if (saveKeystore) {
-              outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
-              Files.copy(keyStoreFile, outputKeystore);
-            }
-          }
-        }
-        return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        return buildProjectFiles(userName, projectRoot, sourceFiles, outputDir, isForCompanion,
+            childProcessRam, dexCachePath, buildStatus);
       } finally {
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
@@ -202,6 +248,78 @@ public final class ProjectBuilder {
     }
   }
 
+  /*
+   * Builds the project whose files have been extracted into projectRoot.
+   */
+  private Result buildProjectFiles(String userName, File projectRoot, List<String> sourceFiles,
+      File outputDir, boolean isForCompanion, int childProcessRam, String dexCachePath,
+      BuildStatus buildStatus) throws Exception {
+    buildStatus.startStage(GENERATE_YAIL_STAGE);
+    try {
+      genYailFilesIfNecessary(sourceFiles);
+    } catch (YailGenerationException e) {
+      // Note that we're using a special result code here for the case of a Yail gen error.
+      return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
+    } catch (Exception e) {
+      LOG.severe("Unknown exception signalled by genYailFilesIf Necessary");
+      e.printStackTrace();
+      return Result.createFailingResult("", "Unexpected problems generating YAIL.");
+    } finally {
+      buildStatus.finishStage(GENERATE_YAIL_STAGE);
+    }
+
+    File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
+    String keyStorePath = keyStoreFile.getPath();
+    if (!keyStoreFile.exists()) {
+      keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
+      saveKeystore = true;
+    }
+
+    // Create project object from project properties file.
+    Project project = getProjectProperties(projectRoot);
+
+    File buildTmpDir = new File(projectRoot, "build/tmp");
+    buildTmpDir.mkdirs();
+
+    // Prepare for redirection of compiler message output
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream console = new PrintStream(output);
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    PrintStream userErrors = new PrintStream(errors);
+
+    Set<String> componentTypes =
+      isForCompanion ? getAllComponentTypes() : getComponentTypes(sourceFiles);
+
+    // Invoke YoungAndroid compiler
+    boolean success =
+        Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
+                         keyStorePath, childProcessRam, dexCachePath, buildStatus);
+    console.close();
+    userErrors.close();
+
+    // Retrieve compiler messages and convert to HTML and log
+    String srcPath = projectRoot.getAbsolutePath() + "/" + PROJECT_DIRECTORY + "/../src/";
+    String messages = processCompilerOutput(output.toString(PathUtil.DEFAULT_CHARSET),
+        srcPath);
+
+    if (success) {
+      // Locate output file
+      File outputFile = new File(projectRoot,
+          "build/deploy/" + project.getProjectName() + ".apk");
+      if (!outputFile.exists()) {
+        LOG.warning("Young Android build - " + outputFile + " does not exist");
+      } else {
+        outputApk = new File(outputDir, outputFile.getName());
+        Files.copy(outputFile, outputApk);
+        if (saveKeystore) {
+          outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
+          Files.copy(keyStoreFile, outputKeystore);
+        }
+      }
+    }
+    return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+  }
+
   private void genYailFilesIfNecessary(List<String> sourceFiles)
       throws IOException, YailGenerationException {
     // Filter out the files that aren't really source files (i.e. that don't end in .scm or .yail)
@@ -259,6 +377,32 @@ public final class ProjectBuilder {
     return projectFileNames;
   }
 
+  private static ArrayList<String> extractProjectFiles(ZipInputStream inputZip, File projectRoot)
+      throws IOException {
+    ArrayList<String> projectFileNames = Lists.newArrayList();
+    String projectRootPath = projectRoot.getCanonicalPath() + File.separator;
+    ZipEntry zipEntry;
+    while ((zipEntry = inputZip.getNextEntry()) != null) {
+      if (zipEntry.isDirectory()) {
+        continue;
+      }
+      File extractedFile = new File(projectRoot, zipEntry.getName());
+      if (!extractedFile.getCanonicalPath().startsWith(projectRootPath)) {
+        throw new IOException("Zip entry outside of the project: " + zipEntry.getName());
+      }
+      LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
+      Files.createParentDirs(extractedFile);
+      FileOutputStream out = new FileOutputStream(extractedFile);
+      try {
+        ByteStreams.copy(inputZip, out);
+      } finally {
+        out.close();
+      }
+      projectFileNames.add(extractedFile.getPath());
+    }
+    return projectFileNames;
+  }
+
   private static Set<String> getComponentTypes(List<String> files)
       throws IOException {
     Set<String> componentTypes = Sets.newHashSet();
@@ -469,8 +613,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -0,0 +1,346 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} used for executing build tasks using a bounded pool of worker threads.
+ *
+ * <p>This Executor allows only a certain number of simultaneous tasks. Additional tasks wait in
+ * a bounded queue until a worker becomes available. Tasks are rejected if the queue is full, or
+ * if the estimated time a new task would spend waiting in the queue exceeds the configured
+ * deadline.</p>
+ *
+ * <p>Each task may be associated with a user. No user may have more than a certain number of
+ * tasks running at once, so that a single user can't occupy every worker while other users'
+ * tasks are waiting. A queued task whose user is at that limit is passed over in favor of the
+ * next eligible task.</p>
+ */
+final class QueuingExecutor implements Executor {
+  // The weight given to the most recent task when updating the average task time.
+  private static final double AVERAGE_TASK_TIME_WEIGHT = 0.2;
+
+  // The maximum number of active tasks. O means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of tasks waiting for a worker. 0 means tasks are never queued.
+  private final int maxQueuedTasks;
+
+  // The maximum number of active tasks for a single user. 0 means unlimited.
+  private final int maxActiveTasksPerUser;
+
+  // The maximum estimated wait, in milliseconds, for a newly queued task. 0 means unlimited.
+  private final long maxEstimatedWaitMillis;
+
+  // The following fields are guarded by lock.
+  private final Object lock = new Object();
+  private final LinkedList<Task> queue = new LinkedList<Task>();
+  private final Map<String, Integer> activeTaskCountPerUser = new HashMap<String, Integer>();
+  private int activeTaskCount;
+  private int maxQueuedTaskCount;
+  private double averageTaskTimeMillis;
+
+  private final AtomicInteger completedTaskCount = new AtomicInteger(0);
+  private final AtomicInteger rejectedTaskCount = new AtomicInteger(0);
+  private final AtomicInteger shedTaskCount = new AtomicInteger(0);
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(QueuingExecutor.class.getName());
+
+  /**
+   * Creates a QueuingExecutor that doesn't queue tasks. Additional tasks are rejected once the
+   * maximum number of active tasks has been reached.
+   *
+   * @param maxActiveTasks the maximum number of active tasks
+   */
+  QueuingExecutor(int maxActiveTasks) {
+    this(maxActiveTasks, 0, 0, 0);
+  }
+
+  /**
+   * Creates a QueuingExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, 0 means unlimited
+   * @param maxQueuedTasks the maximum number of tasks waiting for a worker
+   * @param maxActiveTasksPerUser the maximum number of active tasks for a single user, 0 means
+   *     unlimited
+   * @param maxEstimatedWaitMillis the maximum estimated wait for a newly queued task, in
+   *     milliseconds, 0 means unlimited
+   */
+  QueuingExecutor(int maxActiveTasks, int maxQueuedTasks, int maxActiveTasksPerUser,
+      long maxEstimatedWaitMillis) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.maxActiveTasksPerUser = maxActiveTasksPerUser;
+    this.maxEstimatedWaitMillis = maxEstimatedWaitMillis;
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(null, runnable);
+  }
+
+  /**
+   * Executes the given task on behalf of the given user, queuing it if no worker is available.
+   *
+   * @param userName the user the task is executed for, or null
+   * @param runnable the task
+   * @return the position of the task in the queue, or 0 if the task started immediately
+   * @throws RejectedExecutionException if the queue is full or the estimated wait is too long
+   */
+  public int execute(String userName, Runnable runnable) {
+    Task task = new Task(userName, runnable);
+    synchronized (lock) {
+      // Queued tasks are only ever waiting because they can't start, so a new task that can start
+      // doesn't need to wait behind them.
+      if (canStart(task)) {
+        startWorker(task);
+        return 0;
+      }
+
+      // No worker is available for this task.
+      if (queue.size() >= maxQueuedTasks) {
+        rejectedTaskCount.incrementAndGet();
+        throw new RejectedExecutionException("The build queue is full.");
+      }
+      long estimatedWaitMillis = estimateWaitMillis(queue.size() + 1);
+      if (maxEstimatedWaitMillis != 0 && estimatedWaitMillis > maxEstimatedWaitMillis) {
+        rejectedTaskCount.incrementAndGet();
+        shedTaskCount.incrementAndGet();
+        throw new RejectedExecutionException("The estimated wait of " + estimatedWaitMillis +
+            " ms exceeds " + maxEstimatedWaitMillis + " ms.");
+      }
+      queue.add(task);
+      maxQueuedTaskCount = Math.max(maxQueuedTaskCount, queue.size());
+      LOG.info("Queued task at position " + queue.size() + " for user " + userName);
+      return queue.size();
+    }
+  }
+
+  // Must be called while holding lock.
+  private boolean canStart(Task task) {
+    if (maxActiveTasks != 0 && activeTaskCount >= maxActiveTasks) {
+      return false;
+    }
+    return maxActiveTasksPerUser == 0 || task.userName == null
+        || getActiveTaskCount(task.userName) < maxActiveTasksPerUser;
+  }
+
+  // Must be called while holding lock.
+  private void startWorker(Task task) {
+    markActive(task);
+    Thread thread = new Thread(new Worker(task));
+    thread.start();
+  }
+
+  // Must be called while holding lock.
+  private void markActive(Task task) {
+    activeTaskCount++;
+    if (task.userName != null) {
+      activeTaskCountPerUser.put(task.userName, getActiveTaskCount(task.userName) + 1);
+    }
+  }
+
+  // Must be called while holding lock.
+  private void markFinished(Task task, long taskTimeMillis) {
+    activeTaskCount--;
+    if (task.userName != null) {
+      int count = getActiveTaskCount(task.userName) - 1;
+      if (count == 0) {
+        activeTaskCountPerUser.remove(task.userName);
+      } else {
+        activeTaskCountPerUser.put(task.userName, count);
+      }
+    }
+    if (averageTaskTimeMillis == 0) {
+      averageTaskTimeMillis = taskTimeMillis;
+    } else {
+      averageTaskTimeMillis = AVERAGE_TASK_TIME_WEIGHT * taskTimeMillis +
+          (1 - AVERAGE_TASK_TIME_WEIGHT) * averageTaskTimeMillis;
+    }
+  }
+
+  // Must be called while holding lock.
+  private Task pollEligibleTask() {
+    Iterator<Task> iterator = queue.iterator();
+    while (iterator.hasNext()) {
+      Task task = iterator.next();
+      if (canStart(task)) {
+        iterator.remove();
+        markActive(task);
+        return task;
+      }
+    }
+    return null;
+  }
+
+  // Must be called while holding lock.
+  private int getActiveTaskCount(String userName) {
+    Integer count = activeTaskCountPerUser.get(userName);
+    return (count == null) ? 0 : count;
+  }
+
+  // Must be called while holding lock.
+  private long estimateWaitMillis(int queuePosition) {
+    if (maxActiveTasks == 0) {
+      return 0;
+    }
+    // Tasks leave the queue in waves of maxActiveTasks, each taking about the average task time.
+    int waves = (queuePosition + maxActiveTasks - 1) / maxActiveTasks;
+    return (long) (waves * averageTaskTimeMillis);
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public int getMaxActiveTasksPerUser() {
+    return maxActiveTasksPerUser;
+  }
+
+  public long getMaxEstimatedWaitMillis() {
+    return maxEstimatedWaitMillis;
+  }
+
+  public int getActiveTaskCount() {
+    synchronized (lock) {
+      return activeTaskCount;
+    }
+  }
+
+  public int getActiveUserCount() {
+    synchronized (lock) {
+      return activeTaskCountPerUser.size();
+    }
+  }
+
+  public int getQueuedTaskCount() {
+    synchronized (lock) {
+      return queue.size();
+    }
+  }
+
+  public int getMaxQueuedTaskCount() {
+    synchronized (lock) {
+      return maxQueuedTaskCount;
+    }
+  }
+
+  /**
+   * Returns the 1-based position of the given user's first queued task, or 0 if the user has no
+   * queued tasks.
+   */
+  public int getQueuePosition(String userName) {
+    synchronized (lock) {
+      int position = 1;
+      for (Task task : queue) {
+        if (userName.equals(task.userName)) {
+          return position;
+        }
+        position++;
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the estimated time, in milliseconds, that a newly queued task would wait for a worker.
+   */
+  public long getEstimatedWaitMillis() {
+    synchronized (lock) {
+      if (queue.isEmpty() && (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks)) {
+        return 0;
+      }
+      return estimateWaitMillis(queue.size() + 1);
+    }
+  }
+
+  public long getAverageTaskTimeMillis() {
+    synchronized (lock) {
+      return (long) averageTaskTimeMillis;
+    }
+  }
+
+  public int getCompletedTaskCount() {
+    return completedTaskCount.get();
+  }
+
+  public int getRejectedTaskCount() {
+    return rejectedTaskCount.get();
+  }
+
+  public int getShedTaskCount() {
+    return shedTaskCount.get();
+  }
+
+  private static class Task {
+    private final String userName;
+    private final Runnable runnable;
+
+    Task(String userName, Runnable runnable) {
+      this.userName = userName;
+      this.runnable = runnable;
+    }
+  }
+
+  /*
+   * Runs the task it was started with and then keeps taking eligible tasks from the queue. The
+   * worker thread ends when no queued task can be started.
+   */
+  private class Worker implements Runnable {
+    private Task task;
+
+    Worker(Task task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      while (task != null) {
+        long start = System.currentTimeMillis();
+        boolean finished = false;
+        try {
+          task.runnable.run();
+          finished = true;
+        } catch (RuntimeException e) {
+          LOG.severe("Task for user " + task.userName + " failed: " + e);
+          finished = true;
+        } finally {
+          completedTaskCount.incrementAndGet();
+          synchronized (lock) {
+            markFinished(task, System.currentTimeMillis() - start);
+            if (finished) {
+              task = pollEligibleTask();
+            } else {
+              // An Error is propagating and will end this thread, so hand every eligible task to
+              // a new worker.
+              task = null;
+            }
+            // Keep every eligible task running, so queued tasks are only ever waiting because
+            // they can't start.
+            Task next;
+            while ((task != null || !finished) && (next = pollEligibleTask()) != null) {
+              Thread thread = new Thread(new Worker(next));
+              thread.start();
+            }
+          }
+        }
+      }
+    }
+  }
+}
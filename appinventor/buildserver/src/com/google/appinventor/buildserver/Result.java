@@ -6,6 +6,8 @@
 
 package com.google.appinventor.buildserver;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -43,6 +45,8 @@ public class Result {
   private String error;
   // The name of the form being built when an error occurred
   private String formName;
+  // The elapsed milliseconds for each build stage
+  private Map<String, Long> stageTimes = Collections.emptyMap();
   
   // Logging support
   private static final Logger LOG = Logger.getLogger(Result.class.getName());
@@ -152,6 +156,21 @@ public class Result {
     return formName;
   }
 
+  /**
+   * Returns the elapsed milliseconds for each stage of the build, in the order the stages
+   * finished.
+   */
+  public Map<String, Long> getStageTimes() {
+    return stageTimes;
+  }
+
+  /**
+   * Sets the elapsed milliseconds for each stage of the build.
+   */
+  public void setStageTimes(Map<String, Long> stageTimes) {
+    this.stageTimes = stageTimes;
+  }
+
   /**
    * Indicates whether this succeeded
    *
@@ -308,7 +308,8 @@
 
        (define (add-to-form-environment name :: gnu.mapping.Symbol object)
          (android-log-form (format #f "Adding ~A to env ~A with value ~A" name form-environment object))
-         (gnu.mapping.Environment:put form-environment name object))
+         (gnu.mapping.Environment:put form-environment name object)
+         (*:clear event-bindings))
 
        (define (lookup-in-form-environment name :: gnu.mapping.Symbol #!optional (default-value #f))
          (if (and (not (eq? form-environment #!null))
@@ -319,6 +320,15 @@
        (define (is-bound-in-form-environment name :: gnu.mapping.Symbol)
          (gnu.mapping.Environment:isBound form-environment name))
 
+       ;; A table of the component and the event handler that each registered
+       ;; component name and event name are bound to, filled in by dispatchEvent
+       ;; so that later events don't have to look them up in the form
+       ;; environment again.  It maps the component name to a table that maps
+       ;; the event name to a pair of the component and the handler.  It must be
+       ;; cleared whenever the form environment changes (see
+       ;; clear-event-bindings), for instance when the REPL redefines a handler.
+       (define event-bindings :: java.util.HashMap (java.util.HashMap))
+
        (define global-var-environment :: gnu.mapping.Environment
          (gnu.mapping.Environment:make (string-append
                                         (symbol->string 'form-name)
@@ -405,10 +415,10 @@
            ;; component name that registered the event.  This is
            ;; necessary, in part, due to the late binding that we want
            ;; for event handlers and component names.
-           (let ((registeredObject (string->symbol registeredComponentName)))
-                 (if (is-bound-in-form-environment registeredObject)
-                     (if (eq? (lookup-in-form-environment registeredObject) componentObject)
-                        (let ((handler (lookup-handler registeredComponentName eventName)))
+           (let ((binding (lookup-event-binding registeredComponentName eventName)))
+                 (if (not (eq? binding #!null))
+                     (if (eq? (car binding) componentObject)
+                        (let ((handler (cdr binding)))
                                 ;; Note: This try-catch was originally part of the
                                 ;; generated handler from define-event.  It was moved
                                 ;; here because Kawa seems be unable to eval a
@@ -417,7 +427,7 @@
                                 ;; might get sent to the REPL!
                                 (try-catch
                                  (begin
-                                   (apply handler (gnu.lists.LList:makeList args 0))
+                                   ((as gnu.mapping.Procedure handler):applyN args)
                                    #t)
                                  (exception java.lang.Throwable
                                   (begin
@@ -434,6 +444,28 @@
                          registeredComponentName eventName)
                        #f))))
 
+       ;; Returns a pair of the component that componentName is bound to and
+       ;; its handler for eventName, or #!null if componentName isn't bound.
+       (define (lookup-event-binding componentName :: java.lang.String
+                                     eventName :: java.lang.String)
+         (let* ((component-bindings :: java.util.HashMap
+                 (let ((bindings (event-bindings:get componentName)))
+                   (if (eq? bindings #!null)
+                       (let ((new-bindings (java.util.HashMap)))
+                         (event-bindings:put componentName new-bindings)
+                         new-bindings)
+                       bindings)))
+                (binding (component-bindings:get eventName)))
+           (if (eq? binding #!null)
+               (let ((componentSymbol (string->symbol componentName)))
+                 (if (is-bound-in-form-environment componentSymbol)
+                     (let ((new-binding (cons (lookup-in-form-environment componentSymbol)
+                                              (lookup-handler componentName eventName))))
+                       (component-bindings:put eventName new-binding)
+                       new-binding)
+                     #!null))
+               binding)))
+
        (define (lookup-handler componentName eventName)
          (lookup-in-form-environment
           (string->symbol
@@ -688,7 +720,9 @@
                     ;                                     (if (not (eq? *this-form* #!null)) (*:.form-environment *this-form*) 'null)
                     ;                                     object))
   (if (not (eq? *this-form* #!null))
-      (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
+      (begin
+        (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
+        (clear-event-bindings))
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
       (gnu.mapping.Environment:put *test-environment* name object)))
 
@@ -705,10 +739,19 @@
 
 (define (delete-from-current-form-environment name :: gnu.mapping.Symbol)
   (if (not (eq? *this-form* #!null))
-      (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
+      (begin
+        (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
+        (clear-event-bindings))
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
       (gnu.mapping.Environment:remove *test-environment* name)))
 
+;; The form remembers which component and handler each event is dispatched
+;; to (see dispatchEvent in define-form), so it has to forget them when the
+;; form environment changes.
+(define (clear-event-bindings)
+  (when (not (eq? *this-form* #!null))
+    (*:clear (*:.event-bindings *this-form*))))
+
 (define (rename-in-current-form-environment old-name :: gnu.mapping.Symbol new-name :: gnu.mapping.Symbol)
   (when (not (eqv? old-name new-name))
     (let ((old-value (lookup-in-current-form-environment old-name)))
@@ -1680,8 +1723,9 @@ list, use the make-yail-list constructor with no arguments.
 
 
 ;; Implements the Blocks length operation
+;; YailList keeps the length, so this doesn't walk the list
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  (*:size (as YailList yail-list)))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -1726,7 +1770,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (*:getObject (as YailList yail-list) (- index 1)))))
 
 
 ;; Implements the Blocks set list item operation
@@ -1745,7 +1789,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (*:setObject (as YailList yail-list) (- index 1) value))
 
 
 
@@ -1776,8 +1820,7 @@ list, use the make-yail-list constructor with no arguments.
                    len
                    (get-display-representation yail-list))
            "List index too large"))
-      (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+      (*:removeObject (as YailList yail-list) (- index2 1)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -1806,11 +1849,7 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list)
                    len+1)
            "List index too large"))
-      (let ((contents (yail-list-contents yail-list)))
-        (if (= index2 1)
-            (set-yail-list-contents! yail-list (cons item contents))
-            (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+      (*:insertObject (as YailList yail-list) (- index2 1) item))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -1820,21 +1859,16 @@ list, use the make-yail-list constructor with no arguments.
   ;; between the augmented list and the source of the added elements.
   ;; But like Python, we do a shallow copy, so that substructure is
   ;; shared.
-  (define (list-copy l)
-    (if (null? l)
-    '()
-    (cons (car l) (list-copy (cdr l)))))
-  ;; We have to operate on the yail-list itself, not the contents, because
-  ;; the contents might be empty
-  (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+  ;; We go through YailList so that it can keep track of the items
+  ;; without walking the list.
+  (*:addObjects (as YailList yail-list-A) yail-list-B))
 
 
 ;; Extend list A by appending the items to it
 ;; Modifies list A
 ;; Implements blocks add to list operation
 (define (yail-list-add-to-list! yail-list . items)
-  (yail-list-append! yail-list (apply make-yail-list items)))
+  (for-each (lambda (item) (*:addObject (as YailList yail-list) item)) items))
 
 ;;;TODO(halabelson): BUG!  We need to recognize that "1" is
 ;;; a member of (1 2 3)
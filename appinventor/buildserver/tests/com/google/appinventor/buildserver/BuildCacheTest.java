@@ -0,0 +1,98 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildCache class.
+ */
+public class BuildCacheTest extends TestCase {
+  private File cacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cacheDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cacheDir.delete();
+    super.tearDown();
+  }
+
+  public void testEntryIsFoundByLaterBuilds() throws Exception {
+    BuildCache cache = new BuildCache(cacheDir);
+    assertNull(cache.acquire("classes-1.jar"));
+
+    File entry = cache.acquire("classes-1.jar", new WritingProducer("compiled"));
+    assertEquals("compiled", Files.toString(entry, Charsets.UTF_8));
+    cache.release(entry);
+    assertEquals(1, cache.getMissCount());
+
+    // A later build, even after a restart, finds the entry without producing it again.
+    BuildCache restarted = new BuildCache(cacheDir);
+    assertEquals(entry, restarted.acquire("classes-1.jar"));
+    assertEquals(entry, restarted.acquire("classes-1.jar", new WritingProducer("recompiled")));
+    assertEquals("compiled", Files.toString(entry, Charsets.UTF_8));
+    assertEquals(2, restarted.getHitCount());
+    assertEquals(0, restarted.getMissCount());
+  }
+
+  public void testFailedEntryIsNotCached() throws Exception {
+    BuildCache cache = new BuildCache(cacheDir);
+    assertNull(cache.acquire("resources-1.ap_", new BuildCache.Producer() {
+      @Override
+      public boolean produce(File output) {
+        return false;
+      }
+    }));
+    assertNull(cache.acquire("resources-1.ap_"));
+    assertEquals(0, cacheDir.list().length);
+  }
+
+  public void testHashFile() throws Exception {
+    BuildCache cache = new BuildCache(cacheDir);
+    File file = new File(cacheDir, "tmp-source");
+    Files.write("(define x 1)", file, Charsets.UTF_8);
+    String hash = cache.hashFile(file);
+    assertEquals(32, hash.length());
+    assertEquals(hash, cache.hashFile(file));
+    assertEquals(hash, cache.hashRuntimeFile(file));
+    assertEquals(hash, cache.hashRuntimeFile(file));
+  }
+
+  private static class WritingProducer implements BuildCache.Producer {
+    private final String contents;
+
+    WritingProducer(String contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    public boolean produce(File output) {
+      try {
+        Files.write(contents, output, Charsets.UTF_8);
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+}
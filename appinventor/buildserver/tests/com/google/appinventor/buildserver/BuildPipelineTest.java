@@ -0,0 +1,96 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildPipeline class.
+ */
+public class BuildPipelineTest extends TestCase {
+  private final PrintStream out = new PrintStream(new ByteArrayOutputStream());
+  private final List<String> finished = new CopyOnWriteArrayList<String>();
+
+  public void testIndependentStagesRunAtTheSameTime() throws Exception {
+    // Each of the first two stages waits for the other to start, so the pipeline only completes
+    // if they run at the same time.
+    final CountDownLatch started = new CountDownLatch(2);
+    BuildStatus buildStatus = new BuildStatus();
+    BuildPipeline pipeline = new BuildPipeline(out, buildStatus);
+    pipeline.addStage("a", new WaitingStage("a", started));
+    pipeline.addStage("b", new WaitingStage("b", started));
+    pipeline.addStage("c", new RecordingStage("c", true), "a", "b");
+
+    assertTrue(pipeline.run());
+    assertEquals(3, finished.size());
+    assertEquals("c", finished.get(2));
+    assertTrue(buildStatus.getStageTimes().keySet().containsAll(finished));
+  }
+
+  public void testNoStagesStartAfterAFailure() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out, new BuildStatus());
+    pipeline.addStage("a", new RecordingStage("a", false));
+    pipeline.addStage("b", new RecordingStage("b", true), "a");
+
+    assertFalse(pipeline.run());
+    assertFalse(finished.contains("b"));
+  }
+
+  public void testUnknownDependency() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out, new BuildStatus());
+    try {
+      pipeline.addStage("a", new RecordingStage("a", true), "b");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private class RecordingStage implements BuildPipeline.Stage {
+    private final String name;
+    private final boolean result;
+
+    RecordingStage(String name, boolean result) {
+      this.name = name;
+      this.result = result;
+    }
+
+    @Override
+    public boolean run() {
+      finished.add(name);
+      return result;
+    }
+  }
+
+  private class WaitingStage extends RecordingStage {
+    private final CountDownLatch started;
+
+    WaitingStage(String name, CountDownLatch started) {
+      super(name, true);
+      this.started = started;
+    }
+
+    @Override
+    public boolean run() {
+      started.countDown();
+      try {
+        if (!started.await(10, TimeUnit.SECONDS)) {
+          return false;
+        }
+      } catch (InterruptedException e) {
+        return false;
+      }
+      return super.run();
+    }
+  }
+}
@@ -0,0 +1,170 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests DexCache class.
+ */
+public class DexCacheTest extends TestCase {
+  private File cacheDir;
+  private File libDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cacheDir = Files.createTempDir();
+    libDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    deleteDirectory(cacheDir);
+    deleteDirectory(libDir);
+    super.tearDown();
+  }
+
+  public void testLibraryIsDexedOnce() throws Exception {
+    File lib = createLibrary("lib.jar", "contents");
+    CountingDexer dexer = new CountingDexer();
+
+    DexCache cache = new DexCache(cacheDir);
+    File first = cache.acquire(lib, dexer);
+    cache.release(first);
+    File second = cache.acquire(lib, dexer);
+    cache.release(second);
+    assertEquals(first, second);
+    assertEquals(1, dexer.count.get());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+
+    // A library with the same contents at another path uses the same entry.
+    File copy = createLibrary("copy.jar", "contents");
+    assertEquals(first, cache.acquire(copy, dexer));
+    assertEquals(1, dexer.count.get());
+
+    // The entry survives a restart.
+    DexCache restarted = new DexCache(cacheDir);
+    assertEquals(first, restarted.acquire(lib, dexer));
+    assertEquals(1, dexer.count.get());
+    assertEquals(first.length(), restarted.getSizeBytes());
+  }
+
+  public void testFailedDexIsNotCached() throws Exception {
+    File lib = createLibrary("lib.jar", "contents");
+    DexCache cache = new DexCache(cacheDir);
+    DexCache.Dexer failingDexer = new DexCache.Dexer() {
+      @Override
+      public boolean dex(File input, File output) {
+        return false;
+      }
+    };
+    assertNull(cache.acquire(lib, failingDexer));
+    assertEquals(0, cacheDir.list().length);
+  }
+
+  public void testConcurrentBuildsDexOnce() throws Exception {
+    final File lib = createLibrary("lib.jar", "contents");
+    final DexCache cache = new DexCache(cacheDir);
+    final CountDownLatch signal = new CountDownLatch(1);
+    final CountingDexer dexer = new CountingDexer() {
+      @Override
+      public boolean dex(File input, File output) {
+        try {
+          signal.await();
+        } catch (InterruptedException e) {
+          return false;
+        }
+        return super.dex(input, output);
+      }
+    };
+
+    int builds = 4;
+    final CountDownLatch done = new CountDownLatch(builds);
+    final AtomicInteger successes = new AtomicInteger(0);
+    for (int i = 0; i < builds; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            File entry = cache.acquire(lib, dexer);
+            if (entry != null && entry.isFile()) {
+              successes.incrementAndGet();
+              cache.release(entry);
+            }
+          } catch (IOException e) {
+            // counted as a failure
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+
+    signal.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(builds, successes.get());
+    assertEquals(1, dexer.count.get());
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    DexCache cache = new DexCache(cacheDir);
+    CountingDexer dexer = new CountingDexer();
+    File old = cache.acquire(createLibrary("old.jar", "old"), dexer);
+    cache.release(old);
+    old.setLastModified(System.currentTimeMillis() - 60000);
+    File inUse = cache.acquire(createLibrary("inuse.jar", "in use"), dexer);
+    inUse.setLastModified(System.currentTimeMillis() - 120000);
+
+    // Allow only one entry. The entry that is in use is kept even though it is older.
+    cache.setMaxSizeBytes(old.length());
+    File recent = cache.acquire(createLibrary("recent.jar", "recent"), dexer);
+    assertFalse(old.exists());
+    assertTrue(inUse.exists());
+    assertTrue(recent.exists());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  private File createLibrary(String name, String contents) throws IOException {
+    File lib = new File(libDir, name);
+    Files.write(contents, lib, Charsets.UTF_8);
+    return lib;
+  }
+
+  private static void deleteDirectory(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteDirectory(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static class CountingDexer implements DexCache.Dexer {
+    final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public boolean dex(File input, File output) {
+      count.incrementAndGet();
+      try {
+        Files.copy(input, output);
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for {@link ProjectBuilder}.
+ */
+public class ProjectBuilderTest extends TestCase {
+
+  private static byte[] zip(String... namesAndContents) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(bytes);
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      out.putNextEntry(new ZipEntry(namesAndContents[i]));
+      out.write(namesAndContents[i + 1].getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  public void testExtractProject() throws Exception {
+    BuildStatus buildStatus = new BuildStatus();
+    ProjectBuilder.ExtractedProject project = ProjectBuilder.extractProject(
+        new ByteArrayInputStream(zip(
+            "youngandroidproject/project.properties", "main=appinventor.ai_test.Test.Screen1",
+            "src/appinventor/ai_test/Test/Screen1.scm", "#|\n$JSON\n{}\n|#")),
+        buildStatus);
+    File projectRoot = project.getProjectRoot();
+    try {
+      assertEquals("main=appinventor.ai_test.Test.Screen1", Files.toString(
+          new File(projectRoot, "youngandroidproject/project.properties"), Charsets.UTF_8));
+      assertTrue(new File(projectRoot, "src/appinventor/ai_test/Test/Screen1.scm").isFile());
+      assertTrue(buildStatus.getStageTimes().containsKey("Extracting project files"));
+    } finally {
+      project.delete();
+    }
+    assertFalse(projectRoot.exists());
+    // Deleting again does nothing.
+    project.delete();
+  }
+
+  public void testExtractProjectRejectsEntriesOutsideProject() throws Exception {
+    try {
+      ProjectBuilder.extractProject(
+          new ByteArrayInputStream(zip("ok.txt", "ok", "../../evil.txt", "evil")),
+          new BuildStatus());
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
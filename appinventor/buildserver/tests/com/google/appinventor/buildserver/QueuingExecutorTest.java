@@ -0,0 +1,190 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests QueuingExecutor class.
+ */
+public class QueuingExecutorTest extends TestCase {
+  public void testAdditionalTaskIsRejected() throws Exception {
+    // Create the QueuingExecutor with capacity 10 and no queue.
+    int maxCapacity = 10;
+    QueuingExecutor executor = new QueuingExecutor(maxCapacity);
+
+    // Execute the maximum number of tasks, which will all wait until I count down the signal.
+    CountDownLatch signal = new CountDownLatch(1);
+    for (int i = 0; i < maxCapacity; i++) {
+      executor.execute(new TaskThatWaitsForSignal(signal, null));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, executor.getRejectedTaskCount());
+
+    // Count down the signal so the active tasks can complete.
+    signal.countDown();
+  }
+
+  public void testAdditionalTaskIsQueued() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(1, 2, 0, 0);
+
+    CountDownLatch signal = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    assertEquals(0, executor.execute("a", new TaskThatWaitsForSignal(signal, done)));
+    assertEquals(1, executor.execute("b", new TaskThatWaitsForSignal(signal, done)));
+    assertEquals(2, executor.execute("c", new TaskThatWaitsForSignal(signal, done)));
+    assertEquals(1, executor.getActiveTaskCount());
+    assertEquals(2, executor.getQueuedTaskCount());
+    assertEquals(2, executor.getQueuePosition("c"));
+    assertEquals(0, executor.getQueuePosition("a"));
+
+    // The queue is full.
+    try {
+      executor.execute("d", new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Once the tasks are allowed to finish, the queued tasks run too.
+    signal.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueuedTaskCount());
+  }
+
+  public void testUserCannotTakeAllSlots() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(3, 10, 1, 0);
+
+    CountDownLatch signal = new CountDownLatch(1);
+    assertEquals(0, executor.execute("greedy", new TaskThatWaitsForSignal(signal, null)));
+    // The greedy user's second task has to wait, even though slots are free.
+    assertEquals(1, executor.execute("greedy", new TaskThatWaitsForSignal(signal, null)));
+    // Another user's task starts right away.
+    assertEquals(0, executor.execute("other", new TaskThatWaitsForSignal(signal, null)));
+    assertEquals(2, executor.getActiveTaskCount());
+    assertEquals(2, executor.getActiveUserCount());
+    assertEquals(1, executor.getQueuePosition("greedy"));
+
+    signal.countDown();
+  }
+
+  public void testTaskIsShedWhenWaitIsTooLong() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(1, 10, 0, 50);
+
+    // Run one slow task so that the executor learns the average task time.
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute("a", new TaskThatSleeps(200, done));
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    waitForIdle(executor);
+
+    CountDownLatch signal = new CountDownLatch(1);
+    executor.execute("a", new TaskThatWaitsForSignal(signal, null));
+    try {
+      executor.execute("b", new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, executor.getShedTaskCount());
+
+    signal.countDown();
+  }
+
+  public void testErrorInTaskFreesItsSlot() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(1, 10, 1, 0);
+
+    final CountDownLatch signal = new CountDownLatch(1);
+    executor.execute("a", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          signal.await();
+        } catch (InterruptedException e) {
+          // Fall through and fail anyway.
+        }
+        throw new StackOverflowError();
+      }
+    });
+    CountDownLatch done = new CountDownLatch(1);
+    assertEquals(1, executor.execute("a", new TaskThatSleeps(0, done)));
+
+    // The queued task still runs after the first one fails with an Error.
+    signal.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    waitForIdle(executor);
+    assertEquals(0, executor.getActiveUserCount());
+  }
+
+  private static void waitForIdle(QueuingExecutor executor) throws InterruptedException {
+    for (int i = 0; i < 100 && executor.getActiveTaskCount() > 0; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(0, executor.getActiveTaskCount());
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final CountDownLatch signal;
+    private final CountDownLatch done;
+
+    private TaskThatWaitsForSignal(CountDownLatch signal, CountDownLatch done) {
+      this.signal = signal;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        // Wait for the signal.
+        signal.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+      if (done != null) {
+        done.countDown();
+      }
+    }
+  }
+
+  private static class TaskThatSleeps implements Runnable {
+    private final long millis;
+    private final CountDownLatch done;
+
+    private TaskThatSleeps(long millis, CountDownLatch done) {
+      this.millis = millis;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        // ignored
+      }
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
@@ -354,8 +354,17 @@ public class YaVersion {
   // - WEB_COMPONENT_VERSION was incremented to 4.
   // For YOUNG_ANDROID_VERSION 134:
   // - TWITTER_COMPONENT_VERSION was incremented to 5.
-
-  public static final int YOUNG_ANDROID_VERSION = 134;
+  // For YOUNG_ANDROID_VERSION 135:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 4.
+  // For YOUNG_ANDROID_VERSION 136:
+  // - TINYDB_COMPONENT_VERSION was incremented to 2.
+  // For YOUNG_ANDROID_VERSION 137:
+  // - BLUETOOTHCLIENT_COMPONENT_VERSION was incremented to 6.
+  // - BLUETOOTHSERVER_COMPONENT_VERSION was incremented to 6.
+  // For YOUNG_ANDROID_VERSION 138:
+  // - LINKED_DATA_COMPONENT_VERSION was incremented to 5.
+
+  public static final int YOUNG_ANDROID_VERSION = 138;
  
 
   // ............................... Blocks Language Version Number ...............................
@@ -493,7 +502,9 @@ public class YaVersion {
   // - The BluetoothClient.DelimiterByte property was added.
   // For BLUETOOTHCLIENT_COMPONENT_VERSION 5:
   // - The BluetoothClient.Secure property was added.
-  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 5;
+  // For BLUETOOTHCLIENT_COMPONENT_VERSION 6:
+  // - The BluetoothClient.DataReceivedEventEnabled property and DataReceived event were added.
+  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 6;
 
   // For BLUETOOTHSERVER_COMPONENT_VERSION 2:
   // - The BluetoothServer.Enabled property was added.
@@ -503,7 +514,9 @@ public class YaVersion {
   // - The BluetoothServer.DelimiterByte property was added.
   // For BLUETOOTHSERVER_COMPONENT_VERSION 5:
   // - The BluetoothServer.Secure property was added.
-  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 5;
+  // For BLUETOOTHSERVER_COMPONENT_VERSION 6:
+  // - The BluetoothServer.DataReceivedEventEnabled property and DataReceived event were added.
+  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 6;
 
   // For BUTTON_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -819,7 +832,9 @@ public class YaVersion {
   // timepicker dialog.
   public static final int TIMEPICKER_COMPONENT_VERSION = 2;
 
-  public static final int TINYDB_COMPONENT_VERSION = 1;
+  // For TINYDB_COMPONENT_VERSION 2:
+  // - Added StoreValues and GetValues methods
+  public static final int TINYDB_COMPONENT_VERSION = 2;
 
   // For TINYWEBDB_COMPONENT_VERSION 2:
   // - The TinyWebDB.ShowAlert method was removed. Notifier.ShowAlert should be used instead.
@@ -898,7 +913,12 @@ public class YaVersion {
   // - Renamed SemanticWeb component to LinkedData component
   // For LINKED_DATA_COMPONENT_VERSION 3:
   // - Removed BaseURL property eclipsed by FormID on Linked Data Form
-  public static final int LINKED_DATA_COMPONENT_VERSION = 3;
+  // For LINKED_DATA_COMPONENT_VERSION 4:
+  // - Added RawResults, ResultsPageSize and HasMoreResults properties
+  // - Added FetchMoreResults method and RetrievedResultsPage event
+  // For LINKED_DATA_COMPONENT_VERSION 5:
+  // - Added UpdateBatchSize and CompressUpdates properties
+  public static final int LINKED_DATA_COMPONENT_VERSION = 5;
   
 
   public static final int LD_COMPONENT_VERSION = 1;
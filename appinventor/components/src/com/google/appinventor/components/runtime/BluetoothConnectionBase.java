@@ -13,14 +13,16 @@ import com.google.appinventor.components.annotations.SimpleFunction;
 import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.PropertyTypeConstants;
+import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.BluetoothReflection;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
+import com.google.appinventor.components.runtime.util.ReceiveBuffer;
 import com.google.appinventor.components.runtime.util.SdkLevel;
 import com.google.appinventor.components.runtime.util.YailList;
 
+import android.os.Handler;
 import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -41,6 +43,9 @@ import java.util.List;
 public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     implements Component, OnDestroyListener, Deleteable {
 
+  // The most bytes received from the device that are kept until they are read
+  private static final int RECEIVE_BUFFER_SIZE = 8192;
+
   protected final String logTag;
   private final List<BluetoothConnectionListener> bluetoothConnectionListeners =
       new ArrayList<BluetoothConnectionListener>();
@@ -49,16 +54,45 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   private String encoding;
   private byte delimiter;
   protected boolean secure;
+  private boolean dataReceivedEventEnabled;
 
   private Object connectedBluetoothSocket;
-  private InputStream inputStream;
+  private ReceiveBuffer inputStream;
   private OutputStream outputStream;
 
+  // Used to raise DataReceived on the UI thread; null when testing
+  private Handler androidUIHandler;
+  private boolean framesPosted;
+
+  // Raises DataReceived with the frames that have been received, if any
+  private final Runnable deliverFrames = new Runnable() {
+    public void run() {
+      synchronized (BluetoothConnectionBase.this) {
+        framesPosted = false;
+      }
+      ReceiveBuffer buffer = inputStream;
+      if (buffer == null || !dataReceivedEventEnabled) {
+        return;
+      }
+      List<byte[]> frames = buffer.takeFrames(delimiter);
+      if (!frames.isEmpty()) {
+        List<String> texts = new ArrayList<String>(frames.size());
+        for (byte[] frame : frames) {
+          // Leave out the trailing delimiter byte, like ReceiveText does.
+          int length = frame[frame.length - 1] == delimiter ? frame.length - 1 : frame.length;
+          texts.add(decode(frame, length));
+        }
+        DataReceived(YailList.makeList(texts));
+      }
+    }
+  };
+
   /**
    * Creates a new BluetoothConnectionBase.
    */
   protected BluetoothConnectionBase(ComponentContainer container, String logTag) {
     this(container.$form(), logTag);
+    androidUIHandler = new Handler();
     form.registerForOnDestroy(this);
   }
 
@@ -79,7 +113,8 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     this((Form) null, (String) null);
     this.connectedBluetoothSocket = "Not Null";
     this.outputStream = outputStream;
-    this.inputStream = inputStream;
+    // Nothing receives in the background, so reads come straight from the stream.
+    this.inputStream = new ReceiveBuffer(inputStream, RECEIVE_BUFFER_SIZE);
   }
 
   /**
@@ -162,13 +197,37 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
 
   protected final void setConnection(Object bluetoothSocket) throws IOException {
     connectedBluetoothSocket = bluetoothSocket;
-    inputStream = new BufferedInputStream(
-        BluetoothReflection.getInputStream(connectedBluetoothSocket));
+    final ReceiveBuffer buffer = new ReceiveBuffer(
+        BluetoothReflection.getInputStream(connectedBluetoothSocket), RECEIVE_BUFFER_SIZE);
+    buffer.setListener(new ReceiveBuffer.Listener() {
+      public void bytesReceived(ReceiveBuffer buffer) {
+        if (dataReceivedEventEnabled) {
+          postFrames();
+        }
+      }
+    });
+    inputStream = buffer;
     outputStream = new BufferedOutputStream(
         BluetoothReflection.getOutputStream(connectedBluetoothSocket));
+    // Receive on a thread of its own, which waits for the device for as long
+    // as the connection is open, so that reads don't wait for the device.
+    AsynchUtil.runInNewThread(new Runnable() {
+      public void run() {
+        buffer.receive();
+      }
+    });
     fireAfterConnectEvent();
   }
 
+  // Called on the receiving thread. Posts at most one delivery at a time, so
+  // that bytes arriving in quick succession raise a single event.
+  private synchronized void postFrames() {
+    if (!framesPosted && androidUIHandler != null) {
+      framesPosted = true;
+      androidUIHandler.post(deliverFrames);
+    }
+  }
+
   /**
    * Disconnects from the connected Bluetooth device.
    */
@@ -184,6 +243,9 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       }
       connectedBluetoothSocket = null;
     }
+    if (inputStream != null) {
+      inputStream.close();
+    }
     inputStream = null;
     outputStream = null;
   }
@@ -301,6 +363,46 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     return delimiter;
   }
 
+  /**
+   * Returns whether the DataReceived event is raised.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "Whether the DataReceived event is raised when text ending with the " +
+      "DelimiterByte is received. Text that is delivered by the event can't also be " +
+      "received with ReceiveText or the other receive methods.")
+  public boolean DataReceivedEventEnabled() {
+    return dataReceivedEventEnabled;
+  }
+
+  /**
+   * Specifies whether the DataReceived event is raised.
+   *
+   * @param enabled {@code true} to raise the DataReceived event
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "False")
+  @SimpleProperty
+  public void DataReceivedEventEnabled(boolean enabled) {
+    dataReceivedEventEnabled = enabled;
+    if (enabled && inputStream != null) {
+      // Deliver what was received before the event was enabled.
+      postFrames();
+    }
+  }
+
+  /**
+   * Indicates that text ending with the delimiter byte has been received.
+   *
+   * @param frames the pieces of text received, in order, each without its
+   *        delimiter byte
+   */
+  @SimpleEvent(description = "Indicates that text ending with the DelimiterByte has been " +
+      "received, when DataReceivedEventEnabled is true. frames is a list with each piece of " +
+      "text that was received, without its delimiter byte.")
+  public void DataReceived(YailList frames) {
+    EventDispatcher.dispatchEvent(this, "DataReceived", frames);
+  }
+
   /**
    * Converts the given text to bytes and writes them to the output stream.
    *
@@ -558,16 +660,20 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       "If numberOfBytes is less than 0, read until a delimiter byte value is received.")
   public String ReceiveText(int numberOfBytes) {
     byte[] bytes = read("ReceiveText", numberOfBytes);
+    if (numberOfBytes < 0) {
+      // bytes contains a trailing delimiter byte that we ignore when converting to String.
+      return decode(bytes, bytes.length - 1);
+    } else {
+      return decode(bytes, bytes.length);
+    }
+  }
+
+  private String decode(byte[] bytes, int length) {
     try {
-      if (numberOfBytes < 0) {
-        // bytes contains a trailing delimiter byte that we ignore when converting to String.
-        return new String(bytes, 0, bytes.length - 1, encoding);
-      } else {
-        return new String(bytes, encoding);
-      }
+      return new String(bytes, 0, length, encoding);
     } catch (UnsupportedEncodingException e) {
       Log.w(logTag, "UnsupportedEncodingException: " + e.getMessage());
-      return new String(bytes);
+      return new String(bytes, 0, length);
     }
   }
 
@@ -769,24 +875,15 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       }
       buffer.write(bytes, 0, totalBytesRead);
     } else {
-      // Read one byte at a time until a delimiter byte is read.
-      while (true) {
-        try {
-          int value = inputStream.read();
-          if (value == -1) {
-            bluetoothError(functionName,
-                ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
-            break;
-          }
-          buffer.write(value);
-          if (value == delimiter) {
-            break;
-          }
-        } catch (IOException e) {
+      // Read until a delimiter byte is read.
+      try {
+        if (!inputStream.readFrame(delimiter, buffer)) {
           bluetoothError(functionName,
-              ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
-          break;
+              ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
         }
+      } catch (IOException e) {
+        bluetoothError(functionName,
+            ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
       }
     }
 
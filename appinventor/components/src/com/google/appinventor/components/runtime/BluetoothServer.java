@@ -114,7 +114,8 @@ public final class BluetoothServer extends BluetoothConnectionBase {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    // Waiting for a connection may take a long time, so don't hold on to a shared thread.
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
         Object acceptedBluetoothSocket = null;
 
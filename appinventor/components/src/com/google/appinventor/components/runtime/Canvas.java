@@ -23,6 +23,7 @@ import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SpatialGrid;
 
 import android.app.Activity;
 import android.content.Context;
@@ -33,6 +34,7 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -44,9 +46,14 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>A two-dimensional touch-sensitive rectangular panel on which drawing can
@@ -114,11 +121,31 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_PAINT_COLOR = Component.COLOR_BLACK;
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int FLING_INTERVAL = 1000;  // ms
+  private static final int SPRITE_GRID_CELL_SIZE = 64;  // pixels
 
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // The bounding boxes of the sprites, for finding the sprites that may be
+  // colliding with a sprite without checking every sprite.
+  private final SpatialGrid<Sprite> spriteGrid;
+
+  // Sprites that have changed since collisions were last checked.  Collisions
+  // are checked once for all sprites that change while handling the same
+  // message, such as the timer events that move sprites, instead of after
+  // every change.
+  private final Set<Sprite> changedSprites;
+  private boolean collisionCheckPosted;
+  private final Handler androidUIHandler;
+  private final Runnable collisionCheck = new Runnable() {
+    @Override
+    public void run() {
+      collisionCheckPosted = false;
+      findChangedSpriteCollisions();
+    }
+  };
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -672,6 +699,9 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     FontSize(Component.FONT_DEFAULT_SIZE);
 
     sprites = new LinkedList<Sprite>();
+    spriteGrid = new SpatialGrid<Sprite>(SPRITE_GRID_CELL_SIZE);
+    changedSprites = new LinkedHashSet<Sprite>();
+    androidUIHandler = new Handler();
     motionEventParser = new MotionEventParser();
     mGestureDetector = new GestureDetector(context, new FlingGestureListener());
   }
@@ -703,6 +733,12 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the sprite to add
    */
   void addSprite(Sprite sprite) {
+    if (!spriteGrid.contains(sprite)) {
+      // The sprite isn't fully constructed yet, so it can't be asked for its
+      // size.  Its bounds are recorded when it changes.
+      spriteGrid.update(sprite, new BoundingBox(sprite.X(), sprite.Y(), sprite.X(), sprite.Y()));
+    }
+
     // Add before first element with greater Z value.
     // This ensures not only that items are in increasing Z value
     // but that sprites whose Z values are always equal are
@@ -727,6 +763,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteGrid.remove(sprite);
+    changedSprites.remove(sprite);
   }
 
   /**
@@ -736,7 +774,7 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param Sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    sprites.remove(sprite);
     addSprite(sprite);
     view.invalidate();
   }
@@ -781,7 +819,25 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void registerChange(Sprite sprite) {
     view.invalidate();
-    findSpriteCollisions(sprite);
+    updateSpriteBounds(sprite);
+    changedSprites.add(sprite);
+    if (!collisionCheckPosted) {
+      collisionCheckPosted = true;
+      androidUIHandler.post(collisionCheck);
+    }
+  }
+
+  /**
+   * Records the location and size of a sprite, without checking for
+   * collisions.
+   *
+   * @param sprite the sprite whose location or size may have changed
+   */
+  private void updateSpriteBounds(Sprite sprite) {
+    // Sprites that have been removed from this Canvas are no longer in the grid.
+    if (spriteGrid.contains(sprite)) {
+      spriteGrid.update(sprite, sprite.getBoundingBox(1));
+    }
   }
 
 
@@ -803,10 +859,45 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
-      if (sprite != movedSprite) {
+    findSpriteCollisions(movedSprite, Collections.<Sprite>emptySet());
+  }
+
+  /**
+   * Checks for collisions of the sprites that have changed since collisions
+   * were last checked.  This is called after handling the message in which
+   * the sprites changed, and before
+   * {@link com.google.appinventor.components.runtime.Sprite#CollidingWith(Sprite)}
+   * reports whether sprites are colliding.
+   */
+  void findChangedSpriteCollisions() {
+    if (changedSprites.isEmpty()) {
+      return;
+    }
+    List<Sprite> movedSprites = new ArrayList<Sprite>(changedSprites);
+    changedSprites.clear();
+    // Each pair of sprites that both moved only needs to be checked once.
+    Set<Sprite> checkedSprites = new HashSet<Sprite>();
+    for (Sprite movedSprite : movedSprites) {
+      findSpriteCollisions(movedSprite, checkedSprites);
+      checkedSprites.add(movedSprite);
+    }
+  }
+
+  private void findSpriteCollisions(Sprite movedSprite, Set<Sprite> checkedSprites) {
+    // Only sprites whose bounding boxes are near the moved sprite can be
+    // colliding with it.  The sprites it was colliding with are checked too,
+    // to notice that they no longer are.
+    Set<Sprite> candidates = new HashSet<Sprite>();
+    spriteGrid.query(movedSprite.getBoundingBox(1), candidates);
+    for (Sprite sprite : movedSprite.getRegisteredCollisions()) {
+      if (spriteGrid.contains(sprite)) {
+        candidates.add(sprite);
+      }
+    }
+    for (Sprite sprite : sortByZ(candidates)) {
+      if (sprite != movedSprite && !checkedSprites.contains(sprite)) {
         // Check whether we already raised an event for their collision.
-        if (movedSprite.CollidingWith(sprite)) {
+        if (movedSprite.getRegisteredCollisions().contains(sprite)) {
           // If they no longer conflict, note that.
           if (!movedSprite.Visible() || !movedSprite.Enabled() ||
               !sprite.Visible() || !sprite.Enabled() ||
@@ -832,6 +923,21 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     }
   }
 
+  /*
+   * Returns the given sprites ordered by increasing Z, so that events are
+   * raised in the same order as the sprites are drawn.
+   */
+  private static List<Sprite> sortByZ(Set<Sprite> spriteSet) {
+    List<Sprite> sorted = new ArrayList<Sprite>(spriteSet);
+    Collections.sort(sorted, new Comparator<Sprite>() {
+      @Override
+      public int compare(Sprite sprite1, Sprite sprite2) {
+        return Double.compare(sprite1.Z(), sprite2.Z());
+      }
+    });
+    return sorted;
+  }
+
 
   // Properties
 
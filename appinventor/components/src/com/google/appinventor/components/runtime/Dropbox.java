@@ -306,7 +306,7 @@ public class Dropbox extends AndroidNonvisibleComponent
       Log.i(TAG, "After authURL:" + authURL);
       
       // start browser for authentication
-      AsynchUtil.runAsynchronously(new Runnable() {
+      AsynchUtil.runInNewThread(new Runnable() {
         public void run() {
           if (CheckAuthorized()) {
             // if we have the access token already, just return
@@ -342,7 +342,8 @@ public class Dropbox extends AndroidNonvisibleComponent
   public void resultReturned(int requestCode, int resultCode, Intent data) {
     Log.i(TAG, "After authorized.... " + resultCode);
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    // Retrieving the access token waits on the Dropbox servers.
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
         AccessTokenPair myAccessTokenPair = null;
 
@@ -10,6 +10,7 @@ import android.util.Log;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -70,6 +71,13 @@ public class EventDispatcher {
     private final HashMap<String, Set<EventClosure>> eventClosuresMap =
         new HashMap<String, Set<EventClosure>>();
 
+    // Mapping of event names to the event closure that last dispatched the event for each
+    // component, so that later events from the component go straight to that closure
+    // instead of trying every closure for the event name.  Cleared whenever the event
+    // closures change.
+    private final HashMap<String, Map<Component, EventClosure>> resolvedClosuresMap =
+        new HashMap<String, Map<Component, EventClosure>>();
+
     EventRegistry(HandlesEventDispatching dispatchDelegate) {
       this.dispatchDelegate = dispatchDelegate;
     }
@@ -116,6 +124,7 @@ public class EventDispatcher {
     }
 
     eventClosures.add(new EventClosure(componentId, eventName));
+    er.resolvedClosuresMap.remove(eventName);
     if (DEBUG) {
       Log.i("EventDispatcher", "Registered event closure for " +
           componentId + "." + eventName);
@@ -151,6 +160,7 @@ public class EventDispatcher {
       }
       eventClosures.remove(eventClosure);
     }
+    er.resolvedClosuresMap.remove(eventName);
   }
 
   /**
@@ -161,6 +171,7 @@ public class EventDispatcher {
   public static void unregisterAllEventsForDelegation() {
     for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
       er.eventClosuresMap.clear();
+      er.resolvedClosuresMap.clear();
     }
   }
 
@@ -175,6 +186,7 @@ public class EventDispatcher {
     EventRegistry er = removeEventRegistry(dispatchDelegate);
     if (er != null) {
       er.eventClosuresMap.clear();
+      er.resolvedClosuresMap.clear();
     }
   }
 
@@ -193,9 +205,25 @@ public class EventDispatcher {
     HandlesEventDispatching dispatchDelegate = component.getDispatchDelegate();
     if (dispatchDelegate.canDispatchEvent(component, eventName)) {
       EventRegistry er = getEventRegistry(dispatchDelegate);
+      Map<Component, EventClosure> resolvedClosures = er.resolvedClosuresMap.get(eventName);
+      EventClosure triedClosure = null;
+      if (resolvedClosures != null) {
+        EventClosure eventClosure = resolvedClosures.get(component);
+        if (eventClosure != null) {
+          if (dispatchDelegate.dispatchEvent(component, eventClosure.componentId,
+                                             eventClosure.eventName, args)) {
+            return true;
+          }
+          // The component name may have been rebound, so try the other closures. The delegate
+          // also returns false if the handler failed, so don't run this closure again.
+          resolvedClosures.remove(component);
+          triedClosure = eventClosure;
+        }
+      }
       Set<EventClosure> eventClosures = er.eventClosuresMap.get(eventName);
       if (eventClosures != null && eventClosures.size() > 0) {
-        dispatched = delegateDispatchEvent(dispatchDelegate, eventClosures, component, args);
+        dispatched = delegateDispatchEvent(er, dispatchDelegate, eventClosures, triedClosure,
+            component, args);
       }
     }
     return dispatched;
@@ -205,18 +233,25 @@ public class EventDispatcher {
    * Delegates the dispatch of an event to the dispatch delegate.
    *
    * @param eventClosures set of event closures matching the event name
+   * @param triedClosure an event closure that has already been tried, or null
    * @param component the component that generated the event
    * @param args  arguments to event handler
    */
-  private static boolean delegateDispatchEvent(HandlesEventDispatching dispatchDelegate,
+  private static boolean delegateDispatchEvent(EventRegistry er,
+                                               HandlesEventDispatching dispatchDelegate,
                                                Set<EventClosure> eventClosures,
+                                               EventClosure triedClosure,
                                                Component component, Object... args) {
     // The event closures set will contain all event closures matching the event name.
     // We depend on the delegate's dispatchEvent method to check the registered event closure and
     // only dispatch the event if the registered component matches the component that generated the
     // event.  This should only be true for one (or zero) of the closures.
+    // The delegate may unregister closures while we iterate, so iterate over a copy.
     boolean dispatched = false;
-    for (EventClosure eventClosure : eventClosures) {
+    for (EventClosure eventClosure : eventClosures.toArray(new EventClosure[0])) {
+      if (eventClosure.equals(triedClosure)) {
+        continue;
+      }
       if (dispatchDelegate.dispatchEvent(component,
                                          eventClosure.componentId,
                                          eventClosure.eventName,
@@ -225,6 +260,13 @@ public class EventDispatcher {
           Log.i("EventDispatcher", "Successfully dispatched event " +
               eventClosure.componentId + "." + eventClosure.eventName);
         }
+        Map<Component, EventClosure> resolvedClosures =
+            er.resolvedClosuresMap.get(eventClosure.eventName);
+        if (resolvedClosures == null) {
+          resolvedClosures = new IdentityHashMap<Component, EventClosure>();
+          er.resolvedClosuresMap.put(eventClosure.eventName, resolvedClosures);
+        }
+        resolvedClosures.put(component, eventClosure);
         dispatched = true;  // break here or keep iterating through loop?
       }
     }
@@ -143,7 +143,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
       }
 
       final InputStream asyncInputStream = inputStream;
-      AsynchUtil.runAsynchronously(new Runnable() {
+      AsynchUtil.runFileOperation(new Runnable() {
           @Override
           public void run() {
             AsyncRead(asyncInputStream, fileName);
@@ -200,7 +200,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
       }
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runFileOperation(new Runnable() {
       @Override
       public void run() {
         final String filepath = AbsoluteFileName(filename);
@@ -283,7 +283,8 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
         mBoundGCMIntentService.setServerURL(SERVER_URL);
         mBoundGCMIntentService.setPhoneNumber(phoneNumber);
 
-        AsynchUtil.runAsynchronously(new Runnable() {
+        // Registration retries with backoff, so it may take minutes.
+        AsynchUtil.runInNewThread(new Runnable() {
             public void run() {
                 try {
                     final String regId = GCMRegistrar.getRegistrationId(form);                    
@@ -328,7 +329,8 @@ public final class GoogleCloudMessaging extends AndroidNonvisibleComponent
     @SimpleFunction(description = "Removes the GCM authorization from this running app instance")
     public void UnRegister() { 
         
-        AsynchUtil.runAsynchronously(new Runnable() {
+        // Unregistering waits on the app server and on GCM.
+        AsynchUtil.runInNewThread(new Runnable() {
             public void run() {
                 final String regId = GCMRegistrar.getRegistrationId(form);     
                 try {
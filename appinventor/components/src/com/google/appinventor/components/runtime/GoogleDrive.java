@@ -341,7 +341,8 @@ import edu.mit.media.funf.storage.UploadService;
   private void setUpDriveService(String accountName) {
 
     final String mAccountName = accountName;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    // Getting a token may wait on the network and the account manager.
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
         String token = "";
         credential.setSelectedAccountName(mAccountName);
@@ -430,7 +431,7 @@ import edu.mit.media.funf.storage.UploadService;
   		"will return true if successful, otherwise false.")
   public void CopyFile(String googleDocId) {
 	final String id = googleDocId;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
 	    File copiedFile = new File();
 	    copiedFile.setMimeType("application/vnd.google-apps.folder");
@@ -451,7 +452,7 @@ import edu.mit.media.funf.storage.UploadService;
   @SimpleFunction(description = "Create a folder witht the given name.")
   public void CreateFolder(String folderName) {
 	final String FolderName = folderName;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
 	    File body = new File();
 	    body.setTitle(FolderName);
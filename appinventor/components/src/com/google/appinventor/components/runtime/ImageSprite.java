@@ -57,6 +57,8 @@ public class ImageSprite extends Sprite {
   private int widthHint = LENGTH_PREFERRED;
   private int heightHint = LENGTH_PREFERRED;
   private String picturePath = "";  // Picture property
+  // Whether the picture was decoded at the sprite's size, rather than at its own size
+  private boolean pictureDecodedAtSize;
   private boolean rotates;
 
   private Matrix mat;
@@ -169,7 +171,10 @@ public class ImageSprite extends Sprite {
   public void Picture(String path) {
     picturePath = (path == null) ? "" : path;
     try {
-      drawable = MediaUtil.getBitmapDrawable(form, picturePath);
+      // When the sprite has a size of its own, the picture doesn't need to be any larger than that.
+      // Otherwise the sprite takes its size from the picture.
+      drawable = MediaUtil.getBitmapDrawable(form, picturePath, widthHint, heightHint);
+      pictureDecodedAtSize = widthHint > 0 && heightHint > 0;
     } catch (IOException ioe) {
       Log.e("ImageSprite", "Unable to load " + picturePath);
       drawable = null;
@@ -201,6 +206,7 @@ public class ImageSprite extends Sprite {
   @SimpleProperty
   public void Height(int height) {
     heightHint = height;
+    reloadPictureIfTooSmall();
     registerChange();
   }
 
@@ -218,9 +224,23 @@ public class ImageSprite extends Sprite {
   @SimpleProperty
   public void Width(int width) {
     widthHint = width;
+    reloadPictureIfTooSmall();
     registerChange();
   }
 
+  // A picture that was decoded at the sprite's size may be smaller than the sprite is now.
+  // Decode it again so that it isn't scaled up and drawn blurry.
+  private void reloadPictureIfTooSmall() {
+    if (!pictureDecodedAtSize || unrotatedBitmap == null) {
+      return;
+    }
+    if (widthHint == LENGTH_PREFERRED || widthHint == LENGTH_FILL_PARENT
+        || heightHint == LENGTH_PREFERRED || heightHint == LENGTH_FILL_PARENT
+        || widthHint > unrotatedBitmap.getWidth() || heightHint > unrotatedBitmap.getHeight()) {
+      Picture(picturePath);
+    }
+  }
+
   /**
    * Rotates property getter method.
    *
@@ -28,6 +28,7 @@ import com.google.appinventor.components.runtime.util.AsyncCallbackPair;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.RdfUtil;
 import com.google.appinventor.components.runtime.util.RdfUtil.Solution;
+import com.google.appinventor.components.runtime.util.SparqlUpdateWriter;
 import com.google.appinventor.components.runtime.util.WebServiceUtil;
 import com.google.appinventor.components.runtime.util.YailList;
 import com.hp.hpl.jena.query.ResultSet;
@@ -73,6 +74,30 @@ public class LinkedData extends AndroidNonvisibleComponent implements
   /** endpointURL stores the URI of a SPARQL endpoint **/
   private String endpointURL;
 
+  /** rawResults is true if RetrievedRawResults is raised for each query **/
+  private boolean rawResults = true;
+
+  /** resultsPageSize is the number of solutions in each page, or 0 for all **/
+  private int resultsPageSize = 0;
+
+  /** pendingResults holds the solutions of the last query not yet delivered **/
+  private ResultSet pendingResults;
+
+  /** queryCount counts the queries executed, so a page of an older query isn't put back **/
+  private int queryCount;
+
+  /** hasMoreResults is true while the last query has solutions not yet delivered **/
+  private volatile boolean hasMoreResults;
+
+  /** pageLock makes pages be converted one at a time, in order, without holding this **/
+  private final Object pageLock = new Object();
+
+  /** updateBatchSize is the most statements sent in each request that writes data **/
+  private int updateBatchSize = SparqlUpdateWriter.DEFAULT_BATCH_SIZE;
+
+  /** compressUpdates is true if the requests that write data are compressed with gzip **/
+  private boolean compressUpdates = false;
+
   public LinkedData(ComponentContainer container) {
 	  super(container.$form());
 	  endpointURL = "http://dbpedia.org/sparql";
@@ -129,6 +154,11 @@ public class LinkedData extends AndroidNonvisibleComponent implements
 
   private void executeQuery(String queryText) {
     try {
+      synchronized (this) {
+        queryCount++;
+        pendingResults = null;
+        hasMoreResults = false;
+      }
       ResultSet results = RdfUtil.executeSELECT( endpointURL, queryText );
       if ( results == null ) {
         form.runOnUiThread(new Runnable() {
@@ -138,27 +168,186 @@ public class LinkedData extends AndroidNonvisibleComponent implements
         });
         return;
       }
-      results = ResultSetFactory.copyResults( results );
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ResultSetFormatter.outputAsJSON( baos, results );
-      final String jsonResults = baos.toString();
-      form.runOnUiThread(new Runnable() {
-        public void run() {
-          RetrievedRawResults("SELECT", jsonResults);
+      if ( rawResults ) {
+        results = ResultSetFactory.copyResults( results );
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ResultSetFormatter.outputAsJSON( baos, results );
+        final String jsonResults = baos.toString();
+        baos = null;
+        form.runOnUiThread(new Runnable() {
+          public void run() {
+            RetrievedRawResults("SELECT", jsonResults);
+          }
+        });
+        ((ResultSetRewindable)results).reset();
+      }
+      if ( resultsPageSize == 0 ) {
+        final YailList solutions = RdfUtil.resultSetAsYailList( results );
+        form.runOnUiThread(new Runnable() {
+          public void run() {
+            RetrievedResults("SELECT", solutions);
+          }
+        });
+      } else {
+        synchronized (this) {
+          pendingResults = results;
+          hasMoreResults = true;
         }
-      });
-      ((ResultSetRewindable)results).reset();
-      final YailList solutions = RdfUtil.resultSetAsYailList( results );
+        deliverResultsPage();
+      }
+    } catch ( Exception e ) {
+      Log.w(LOG_TAG, e);
+    }
+  }
+
+  /**
+   * Converts the next page of the pending solutions and raises
+   * RetrievedResultsPage with it. The solutions are taken from
+   * pendingResults while they are converted, so that HasMoreResults and a
+   * new query don't wait for the conversion.
+   */
+  private void deliverResultsPage() {
+    synchronized (pageLock) {
+      final ResultSet results;
+      final int query;
+      synchronized (this) {
+        results = pendingResults;
+        query = queryCount;
+        pendingResults = null;
+      }
+      if ( results == null ) {
+        return;
+      }
+      final YailList solutions = RdfUtil.resultSetAsYailList( results, resultsPageSize );
+      final boolean hasMore = results.hasNext();
+      synchronized (this) {
+        // Unless a new query has started, put the rest of the solutions back.
+        if ( query == queryCount ) {
+          pendingResults = hasMore ? results : null;
+          hasMoreResults = hasMore;
+        }
+      }
       form.runOnUiThread(new Runnable() {
         public void run() {
-          RetrievedResults("SELECT", solutions);
+          RetrievedResultsPage("SELECT", solutions, hasMore);
         }
       });
-    } catch ( Exception e ) {
-      Log.w(LOG_TAG, e);
     }
   }
 
+  /**
+   * Requests the next page of solutions of the last query. The page is
+   * delivered by the RetrievedResultsPage event.
+   */
+  @SimpleFunction(description = "Requests the next page of solutions of the last "
+      + "query when ResultsPageSize is not 0. The page is delivered by the "
+      + "RetrievedResultsPage event. Does nothing if there are no more solutions.")
+  public void FetchMoreResults() {
+    final Runnable call = new Runnable() {
+      public void run() { deliverResultsPage(); }
+    };
+    AsynchUtil.runAsynchronously(call);
+  }
+
+  /**
+   * Returns whether the last query has solutions that haven't been
+   * delivered yet.
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "True if the last query has solutions that haven't been "
+          + "delivered yet. Use FetchMoreResults to get them.")
+  public boolean HasMoreResults() {
+    return hasMoreResults;
+  }
+
+  /**
+   * Returns whether RetrievedRawResults is raised for each query.
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "If true, the RetrievedRawResults event is raised with the "
+          + "results of each query as JSON. Turning it off saves a copy of "
+          + "the results, which matters for queries with many solutions.")
+  public boolean RawResults() {
+    return rawResults;
+  }
+
+  /**
+   * Specifies whether RetrievedRawResults is raised for each query.
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "True")
+  @SimpleProperty
+  public void RawResults(boolean enabled) {
+    rawResults = enabled;
+  }
+
+  /**
+   * Returns the number of solutions delivered in each page of results.
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "The number of solutions delivered at a time by the "
+          + "RetrievedResultsPage event. If 0, all of the solutions are "
+          + "delivered at once by the RetrievedResults event.")
+  public int ResultsPageSize() {
+    return resultsPageSize;
+  }
+
+  /**
+   * Specifies the number of solutions delivered in each page of results.
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void ResultsPageSize(int size) {
+    resultsPageSize = Math.max(size, 0);
+  }
+
+  /**
+   * Returns the most statements sent in each request that writes data.
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "The most statements sent in each request by AddDataToWeb, "
+          + "DeleteDataFromWeb and FeedDataToWeb. More statements are sent in "
+          + "several requests.")
+  public int UpdateBatchSize() {
+    return updateBatchSize;
+  }
+
+  /**
+   * Specifies the most statements sent in each request that writes data.
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = SparqlUpdateWriter.DEFAULT_BATCH_SIZE + "")
+  @SimpleProperty
+  public void UpdateBatchSize(int size) {
+    updateBatchSize = Math.max(size, 1);
+  }
+
+  /**
+   * Returns whether the requests that write data are compressed with gzip.
+   */
+  @SimpleProperty(category = PropertyCategory.LINKED_DATA,
+      description = "If true, the requests sent by AddDataToWeb, "
+          + "DeleteDataFromWeb and FeedDataToWeb are compressed with gzip. "
+          + "Only turn this on if the endpoint accepts compressed requests.")
+  public boolean CompressUpdates() {
+    return compressUpdates;
+  }
+
+  /**
+   * Specifies whether the requests that write data are compressed with gzip.
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "False")
+  @SimpleProperty
+  public void CompressUpdates(boolean enabled) {
+    compressUpdates = enabled;
+  }
+
   /**
    * This event is raised after a SPARQL engine finishes processing a query
    * and the client has received the results, but before those results have
@@ -183,6 +372,18 @@ public class LinkedData extends AndroidNonvisibleComponent implements
     EventDispatcher.dispatchEvent(this, "RetrievedResults", type, bindings);
   }
 
+  /**
+   * This event is raised with each page of solutions when ResultsPageSize
+   * is not 0.
+   * @param type Type of query executed, e.g. SELECT
+   * @param bindings A list of at most ResultsPageSize bindings
+   * @param hasMoreResults true if FetchMoreResults will deliver more bindings
+   */
+  @SimpleEvent
+  public void RetrievedResultsPage(String type, YailList bindings, boolean hasMoreResults) {
+    EventDispatcher.dispatchEvent(this, "RetrievedResultsPage", type, bindings, hasMoreResults);
+  }
+
   /**
    * Event raised when a SPARQL query to be executed is not supported
    * by the Linked Data component.
@@ -404,7 +605,8 @@ public class LinkedData extends AndroidNonvisibleComponent implements
 
   private void doInsertModel(final URI uri, final String graph) {
     try {
-      if(RdfUtil.insertData(uri, model, graph.length() == 0 ? null : graph)) {
+      if(RdfUtil.insertData(uri, model, graph.length() == 0 ? null : graph,
+          updateBatchSize, compressUpdates)) {
         form.runOnUiThread(new Runnable() {
           public void run() {
             FinishedAddingDataToWeb(graph);
@@ -454,7 +656,7 @@ public class LinkedData extends AndroidNonvisibleComponent implements
 
   private void doFeedModel(final URI uri) {
     try {
-      if(RdfUtil.feedData(uri, model)) {
+      if(RdfUtil.feedData(uri, model, updateBatchSize, compressUpdates)) {
         form.runOnUiThread(new Runnable() {
           public void run() {
             FinishedFeedingDataToWeb();
@@ -552,7 +754,8 @@ public class LinkedData extends AndroidNonvisibleComponent implements
 
   private void doDeleteModel(final URI uri, final String graph) {
     try {
-      if(RdfUtil.deleteData(uri, model, graph.length() == 0 ? null : graph)) {
+      if(RdfUtil.deleteData(uri, model, graph.length() == 0 ? null : graph,
+          updateBatchSize, compressUpdates)) {
         form.runOnUiThread(new Runnable() {
           public void run() {
               FinishedDeletingDataFromWeb(graph);
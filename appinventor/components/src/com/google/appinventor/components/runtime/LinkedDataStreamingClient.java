@@ -232,7 +232,8 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
         mBoundGCMIntentService.setSenderID(SENDER_ID);
         mBoundGCMIntentService.setServerURL(SERVER_URL);
 
-        AsynchUtil.runAsynchronously(new Runnable() {
+        // Registration retries with backoff, so it may take minutes.
+        AsynchUtil.runInNewThread(new Runnable() {
             public void run() {
                 try {
                     final String regId = GCMRegistrar.getRegistrationId(form);                    
@@ -277,7 +278,8 @@ public final class LinkedDataStreamingClient extends AndroidNonvisibleComponent
     @SimpleFunction(description = "Removes the GCM authorization from this running app instance")
     public void UnRegister() { 
         
-        AsynchUtil.runAsynchronously(new Runnable() {
+        // Unregistering waits on the app server and on GCM.
+        AsynchUtil.runInNewThread(new Runnable() {
             public void run() {
                 final String regId = GCMRegistrar.getRegistrationId(form);     
                 try {
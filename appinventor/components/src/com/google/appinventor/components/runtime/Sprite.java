@@ -581,9 +581,20 @@ public abstract class Sprite extends VisibleComponent
    */
   @SimpleFunction
   public boolean CollidingWith(Sprite other) {
+    // Sprites that moved while handling the current event haven't been
+    // checked for collisions yet.
+    canvas.findChangedSpriteCollisions();
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites with which a collision has been registered.  This
+   * is for use by the enclosing {@link Canvas}, which must not modify it.
+   */
+  Set<Sprite> getRegisteredCollisions() {
+    return registeredCollisions;
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -15,17 +15,22 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
+import com.google.appinventor.components.runtime.util.GingerbreadUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
+import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.YailList;
 
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 
 import org.json.JSONException;
 
@@ -55,19 +60,140 @@ import org.json.JSONException;
     "<p>When you are developing apps using the AI Companion, all the apps " +
     "using that companion will share the same TinyDb.  That sharing will disappear " +
     "once the apps are packaged.  But, during development, you should be careful to clear " +
-    "the TinyDb each time you start working on a new app.</p>",
+    "the TinyDb each time you start working on a new app.</p>" +
+    "<p>To store or retrieve many values at once, use StoreValues and " +
+    "GetValues instead of calling StoreValue or GetValue in a loop.</p>",
     category = ComponentCategory.STORAGE,
     nonVisible = true,
     iconName = "images/tinyDB.png")
 
 @SimpleObject
-public class TinyDB extends AndroidNonvisibleComponent implements Component, Deleteable {
+public class TinyDB extends AndroidNonvisibleComponent
+    implements Component, Deleteable, OnPauseListener, OnDestroyListener {
 
-  private SharedPreferences sharedPreferences;
+  // How long changes are collected before they are written, in milliseconds
+  private static final long WRITE_DELAY_MILLIS = 250;
+
+  // The data store shared by all TinyDB components
+  private static Store store;
 
   private Context context;  // this was a local in constructor and final not private
 
 
+  /**
+   * The data store shared by all TinyDB components in the app.
+   *
+   * <p>Values are kept in memory, as JSON text, once the store has been
+   * read, so looking up a value or the list of tags doesn't go to the
+   * preferences. Changes are applied to the memory copy at once and
+   * collected for a short while before they are written to the
+   * preferences together, so that storing many values in a row rewrites
+   * the preferences file once instead of once per value. On Gingerbread and
+   * later the file is written in the background.
+   *
+   * <p>The values are still kept in the "TinyDB1" preferences, so data
+   * stored by earlier versions of the app is read as before.
+   */
+  private static class Store {
+    private final SharedPreferences sharedPreferences;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // The JSON representation of each value, by tag, or null until first used
+    private TreeMap<String, String> values;
+
+    // The changes that haven't been written. A null value means the tag was cleared.
+    private final Map<String, String> pendingChanges = new HashMap<String, String>();
+    private boolean pendingClear;
+    private boolean writeScheduled;
+
+    private final Runnable writeChanges = new Runnable() {
+      public void run() {
+        flush();
+      }
+    };
+
+    Store(Context context) {
+      sharedPreferences = context.getSharedPreferences("TinyDB1", Context.MODE_PRIVATE);
+    }
+
+    private TreeMap<String, String> values() {
+      if (values == null) {
+        values = new TreeMap<String, String>();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+          if (entry.getValue() instanceof String) {
+            values.put(entry.getKey(), (String) entry.getValue());
+          }
+        }
+      }
+      return values;
+    }
+
+    synchronized String get(String tag) {
+      return values().get(tag);
+    }
+
+    synchronized List<String> tags() {
+      return new ArrayList<String>(values().keySet());
+    }
+
+    synchronized void put(String tag, String json) {
+      values().put(tag, json);
+      pendingChanges.put(tag, json);
+      scheduleWrite();
+    }
+
+    synchronized void remove(String tag) {
+      values().remove(tag);
+      pendingChanges.put(tag, null);
+      scheduleWrite();
+    }
+
+    synchronized void clear() {
+      values = new TreeMap<String, String>();
+      pendingChanges.clear();
+      pendingClear = true;
+      scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+      if (!writeScheduled) {
+        writeScheduled = true;
+        handler.postDelayed(writeChanges, WRITE_DELAY_MILLIS);
+      }
+    }
+
+    /**
+     * Writes the changes that haven't been written yet to the preferences.
+     */
+    synchronized void flush() {
+      if (writeScheduled) {
+        handler.removeCallbacks(writeChanges);
+        writeScheduled = false;
+      }
+      if (!pendingClear && pendingChanges.isEmpty()) {
+        return;
+      }
+      SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
+      if (pendingClear) {
+        sharedPrefsEditor.clear();
+      }
+      for (Map.Entry<String, String> change : pendingChanges.entrySet()) {
+        if (change.getValue() == null) {
+          sharedPrefsEditor.remove(change.getKey());
+        } else {
+          sharedPrefsEditor.putString(change.getKey(), change.getValue());
+        }
+      }
+      pendingChanges.clear();
+      pendingClear = false;
+      if (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD) {
+        GingerbreadUtil.applyEdits(sharedPrefsEditor);
+      } else {
+        sharedPrefsEditor.commit();
+      }
+    }
+  }
+
   /**
    * Creates a new TinyDB component.
    *
@@ -76,7 +202,13 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
   public TinyDB(ComponentContainer container) {
     super(container.$form());
     context = (Context) container.$context();
-    sharedPreferences = context.getSharedPreferences("TinyDB1", Context.MODE_PRIVATE);
+    synchronized (TinyDB.class) {
+      if (store == null) {
+        store = new Store(context.getApplicationContext());
+      }
+    }
+    form.registerForOnPause(this);
+    form.registerForOnDestroy(this);
   }
 
   /**
@@ -89,12 +221,33 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void StoreValue(final String tag, final Object valueToStore) {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    try {
-      sharedPrefsEditor.putString(tag, JsonUtil.getJsonRepresentation(valueToStore));
-      sharedPrefsEditor.commit();
-    } catch (JSONException e) {
-      throw new YailRuntimeError("Value failed to convert to JSON.", "JSON Creation Error.");
+    store.put(tag, toJson(valueToStore));
+  }
+
+  /**
+   * Store each of the given values under the tag at the same position in
+   * the list of tags.
+   *
+   * @param tags The tags to use
+   * @param valuesToStore The values to store, one for each tag.
+   */
+  @SimpleFunction(description = "Store each value in the list of values under the tag at the " +
+      "same position in the list of tags. The lists must have the same length.")
+  public void StoreValues(YailList tags, YailList valuesToStore) {
+    if (tags.size() != valuesToStore.size()) {
+      throw new YailRuntimeError("The number of tags and values must be the same.",
+          "TinyDB Error.");
+    }
+    String[] tagArray = tags.toStringArray();
+    Object[] valueArray = valuesToStore.toArray();
+    // Convert every value before storing any, so that a value that can't be
+    // converted doesn't leave the list half stored.
+    String[] jsonArray = new String[valueArray.length];
+    for (int i = 0; i < valueArray.length; i++) {
+      jsonArray[i] = toJson(valueArray[i]);
+    }
+    for (int i = 0; i < tagArray.length; i++) {
+      store.put(tagArray[i], jsonArray[i]);
     }
   }
 
@@ -108,14 +261,25 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public Object GetValue(final String tag, final Object valueIfTagNotThere) {
-    try {
-      String value = sharedPreferences.getString(tag, "");
-      // If there's no entry with tag as a key then return the empty string.
-      //    was  return (value.length() == 0) ? "" : JsonUtil.getObjectFromJson(value);
-      return (value.length() == 0) ? valueIfTagNotThere : JsonUtil.getObjectFromJson(value);
-    } catch (JSONException e) {
-      throw new YailRuntimeError("Value failed to convert from JSON.", "JSON Creation Error.");
+    return fromJson(store.get(tag), valueIfTagNotThere);
+  }
+
+  /**
+   * Retrieve the values stored under the given tags.
+   *
+   * @param tags The tags to use
+   * @param valueIfTagNotThere The value used for each tag that is not in TinyDB
+   * @return a list with the value stored under each tag, in the same order
+   * as the tags.
+   */
+  @SimpleFunction(description = "Return a list with the value stored under each tag in the " +
+      "list of tags. valueIfTagNotThere is used for each tag that is not in the data store.")
+  public YailList GetValues(YailList tags, Object valueIfTagNotThere) {
+    List<Object> valueList = new ArrayList<Object>(tags.size());
+    for (String tag : tags.toStringArray()) {
+      valueList.add(fromJson(store.get(tag), valueIfTagNotThere));
     }
+    return YailList.makeList(valueList);
   }
 
    /**
@@ -126,12 +290,8 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public Object GetTags() {
-    List<String> keyList = new ArrayList<String>();
-    Map<String,?> keyValues = sharedPreferences.getAll();
-    // here is the simple way to get keys
-    keyList.addAll(keyValues.keySet());
-    java.util.Collections.sort(keyList);
-    return keyList;
+    // The store keeps the tags sorted.
+    return store.tags();
   }
 
   /**
@@ -140,9 +300,7 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void ClearAll() {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.clear();
-    sharedPrefsEditor.commit();
+    store.clear();
   }
 
   /**
@@ -152,15 +310,42 @@ public class TinyDB extends AndroidNonvisibleComponent implements Component, Del
    */
   @SimpleFunction
   public void ClearTag(final String tag) {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.remove(tag);
-    sharedPrefsEditor.commit();
+    store.remove(tag);
   }
 
   @Override
   public void onDelete() {
-    final SharedPreferences.Editor sharedPrefsEditor = sharedPreferences.edit();
-    sharedPrefsEditor.clear();
-    sharedPrefsEditor.commit();
+    store.clear();
+    store.flush();
+  }
+
+  @Override
+  public void onPause() {
+    store.flush();
+  }
+
+  @Override
+  public void onDestroy() {
+    store.flush();
+  }
+
+  private static String toJson(Object value) {
+    try {
+      return JsonUtil.getJsonRepresentation(value);
+    } catch (JSONException e) {
+      throw new YailRuntimeError("Value failed to convert to JSON.", "JSON Creation Error.");
+    }
+  }
+
+  private static Object fromJson(String value, Object valueIfTagNotThere) {
+    // If there's no entry with tag as a key then return valueIfTagNotThere.
+    if (value == null || value.length() == 0) {
+      return valueIfTagNotThere;
+    }
+    try {
+      return JsonUtil.getObjectFromJson(value);
+    } catch (JSONException e) {
+      throw new YailRuntimeError("Value failed to convert from JSON.", "JSON Creation Error.");
+    }
   }
 }
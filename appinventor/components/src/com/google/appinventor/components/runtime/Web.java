@@ -156,6 +156,12 @@ public class Web extends AndroidNonvisibleComponent implements Component {
 
   private static final String LOG_TAG = "Web";
 
+  // How long to wait for a connection to the server, in milliseconds
+  private static final int CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+
+  // How long to wait for the server to send more of its response, in milliseconds
+  private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+
   private static final Map<String, String> mimeTypeToExtension;
   static {
     mimeTypeToExtension = Maps.newHashMap();
@@ -891,6 +897,10 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       throws IOException, ClassCastException, ProtocolException {
 
     HttpURLConnection connection = (HttpURLConnection) webProps.url.openConnection();
+    // Without timeouts, a server that never answers would keep one of the shared AsynchUtil
+    // threads forever.
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
 
     if (httpVerb.equals("PUT") || httpVerb.equals("DELETE")){
       // Set the Request Method; GET is the default, and if it is a POST, it will be marked as such
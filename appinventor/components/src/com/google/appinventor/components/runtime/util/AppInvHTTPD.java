@@ -9,6 +9,8 @@ package com.google.appinventor.components.runtime.util;
 import com.google.appinventor.components.runtime.ReplForm;
 import java.util.Enumeration;
 import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -20,6 +22,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -51,6 +54,27 @@ public class AppInvHTTPD extends NanoHTTPD {
   private static final String LOG_TAG = "AppInvHTTPD";
   private static byte[] hmacKey;
   private static int seq;
+  // Whether the YAIL runtime has been required into the REPL's environment
+  private volatile boolean runtimeRequired;
+
+  // The most definitions kept in codeCache
+  private static final int CODE_CACHE_SIZE = 500;
+  // The most forms in one batch, matching the blocks editor's MAX_BATCH_SIZE
+  private static final int MAX_BATCH_SIZE = 50;
+  // Result sent for a form that was sent as a hash that isn't in codeCache
+  private static final String MISSING_RESULT = "{\"status\" : \"MISSING\"}";
+  // The code of the block definitions received in batches, by SHA-1 hash. A
+  // definition that the blocks editor sends again, e.g. after a screen switch
+  // or a reconnect, only needs to be sent as its hash. The cache is kept when
+  // a new HMAC key is set: a hash names the code exactly, and is only used
+  // when it comes with a valid MAC for the current key.
+  private static final Map<String, String> codeCache =
+      new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+          return size() > CODE_CACHE_SIZE;
+        }
+      };
   private static final String MIME_JSON = "application/json"; // Other mime types defined in NanoHTTPD
   private final Handler androidUIHandler = new Handler();
 
@@ -125,23 +149,14 @@ public class AppInvHTTPD extends NanoHTTPD {
       String code = parms.getProperty("code");
       String inMac = parms.getProperty("mac", "no key provided");
       String compMac = "";
-      String input_code = code;
       if (hmacKey != null) {
         try {
-          Mac hmacSha1 = Mac.getInstance("HmacSHA1");
-          SecretKeySpec key = new SecretKeySpec(hmacKey, "RAW");
-          hmacSha1.init(key);
-          byte [] tmpMac = hmacSha1.doFinal((code + inSeq + blockid).getBytes());
-          StringBuffer sb = new StringBuffer(tmpMac.length * 2);
-          Formatter formatter = new Formatter(sb);
-          for (byte b : tmpMac)
-            formatter.format("%02x", b);
-          compMac = sb.toString();
+          compMac = computeMac(code + inSeq + blockid);
         } catch (Exception e) {
           Log.e(LOG_TAG, "Error working with hmac", e);
           form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
             ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Exception working on HMAC");
-          Response res = new Response(HTTP_OK, MIME_PLAINTEXT, "NOT");
+          Response res = new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Exception working on HMAC\"}");
           return(res);
         }
         Log.d(LOG_TAG, "Incoming Mac = " + inMac);
@@ -176,26 +191,14 @@ public class AppInvHTTPD extends NanoHTTPD {
         return(res);
       }
 
-      code = "(begin (require <com.google.youngandroid.runtime>) (process-repl-input " + blockid + " (begin " +
-        code + " )))";
-
-      Log.d(LOG_TAG, "To Eval: " + code);
-
-      Response res;
-
-      try {
-        // Don't evaluate a simple "#f" which is used by the poller
-        if (input_code.equals("#f")) {
-          Log.e(LOG_TAG, "Skipping evaluation of #f");
-        } else {
-          scheme.eval(code);
-        }
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
-      } catch (Throwable ex) {
-        Log.e(LOG_TAG, "newblocks: Scheme Failure", ex);
-        RetValManager.appendReturnValue(blockid, "BAD", ex.toString());
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
-      }
+      Response res = new Response(HTTP_OK, MIME_JSON, evalReplInput(blockid, code, true));
+      res.addHeader("Access-Control-Allow-Origin", "*");
+      res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
+      res.addHeader("Access-Control-Allow-Methods", "POST,OPTIONS,GET,HEAD,PUT");
+      res.addHeader("Allow", "POST,OPTIONS,GET,HEAD,PUT");
+      return(res);
+    } else if (uri.equals("/_newblocks_batch")) { // Several sequenced forms in one request
+      Response res = serveBatch(parms);
       res.addHeader("Access-Control-Allow-Origin", "*");
       res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
       res.addHeader("Access-Control-Allow-Methods", "POST,OPTIONS,GET,HEAD,PUT");
@@ -227,7 +230,8 @@ public class AppInvHTTPD extends NanoHTTPD {
           installer = "Not Known";
         res = new Response(HTTP_OK, MIME_JSON, "{\"version\" : \"" + versionName +
           "\", \"fingerprint\" : \"" + Build.FINGERPRINT + "\"," +
-          " \"installer\" : \"" + installer + "\", \"package\" : \"" + packageName + "\" }");
+          " \"installer\" : \"" + installer + "\", \"package\" : \"" + packageName + "\"," +
+          " \"batch\" : true, \"cache\" : true }");
       } catch (NameNotFoundException n) {
         n.printStackTrace();
         res = new Response(HTTP_OK, MIME_JSON, "{\"verison\" : \"Unknown\"");
@@ -408,6 +412,205 @@ public class AppInvHTTPD extends NanoHTTPD {
     return serveFile( uri, header, rootDir, true );
   }
 
+  /*
+   * Serves /_newblocks_batch. The request carries "count" forms, each with
+   * its own "code<i>", "blockid<i>" and "mac<i>" parameters, where the i'th
+   * form has sequence number "seq" + i and is signed like a /_newblocks
+   * request with that sequence number. A block definition that was sent
+   * before may be sent as "hash<i>", the SHA-1 hash of its code, which is
+   * signed in place of the code; if its code is no longer cached, its result
+   * is {"status" : "MISSING"}, the forms after it are not evaluated, and the
+   * blocks editor sends it and the forms after it again, with their code.
+   * Nothing is evaluated unless every form is valid. The forms are then evaluated in order while the response
+   * is sent, and the result of each form is sent as one line of JSON as soon
+   * as it is ready, so the blocks editor can send many forms without waiting
+   * for a round trip per form.
+   */
+  private Response serveBatch(Properties parms) {
+    if (hmacKey == null) {
+      Log.e(LOG_TAG, "No HMAC Key");
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "No HMAC Key");
+      return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: No HMAC Key\"}");
+    }
+    int iseq;
+    int count;
+    try {
+      iseq = Integer.parseInt(parms.getProperty("seq", "0"));
+      count = Integer.parseInt(parms.getProperty("count", "0"));
+    } catch (NumberFormatException e) {
+      return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Missing Parameters\"}");
+    }
+    if (count < 0 || count > MAX_BATCH_SIZE) {
+      return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Missing Parameters\"}");
+    }
+    String[] codes = new String[count];
+    String[] hashes = new String[count];
+    String[] blockids = new String[count];
+    for (int i = 0; i < count; i++) {
+      codes[i] = parms.getProperty("code" + i);
+      hashes[i] = parms.getProperty("hash" + i);
+      blockids[i] = parms.getProperty("blockid" + i);
+      String inMac = parms.getProperty("mac" + i, "no key provided");
+      if ((codes[i] == null && hashes[i] == null) || blockids[i] == null) {
+        return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Missing Parameters\"}");
+      }
+      String compMac;
+      try {
+        compMac = computeMac((codes[i] != null ? codes[i] : hashes[i]) + (iseq + i) + blockids[i]);
+      } catch (Exception e) {
+        Log.e(LOG_TAG, "Error working with hmac", e);
+        form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+          ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Exception working on HMAC");
+        return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Exception working on HMAC\"}");
+      }
+      if (!inMac.equals(compMac)) {
+        Log.e(LOG_TAG, "Hmac does not match");
+        form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+          ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid HMAC");
+        return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Invalid MAC\"}");
+      }
+    }
+    if ((seq != iseq) && (seq != (iseq+1))) {
+      Log.e(LOG_TAG, "Seq does not match");
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid Seq");
+      return new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Invalid Seq\"}");
+    }
+    seq = iseq + count;
+    synchronized (codeCache) {
+      for (int i = 0; i < count; i++) {
+        if (codes[i] == null) {
+          codes[i] = codeCache.get(hashes[i]); // null if it isn't cached
+        } else if (!blockids[i].equals("-1")) {
+          try {
+            codeCache.put(sha1(codes[i]), codes[i]);
+          } catch (Exception e) {
+            Log.e(LOG_TAG, "Error hashing code", e);
+          }
+        }
+      }
+    }
+    Response res = new Response(HTTP_OK, MIME_JSON, new ReplBatchStream(codes, blockids));
+    res.streaming = true;
+    return res;
+  }
+
+  /*
+   * Evaluates a form sent by the blocks editor and returns the pending
+   * return values, JSON encoded. A form sent to /_newblocks requires the YAIL
+   * runtime into the REPL's environment itself, as it always has. The forms
+   * of batches rely on the runtime being required once, before the first of
+   * them is evaluated, rather than by every form.
+   */
+  private String evalReplInput(String blockid, String code, boolean requireRuntime) {
+    try {
+      // Don't evaluate a simple "#f" which is used by the poller
+      if (code.equals("#f")) {
+        Log.e(LOG_TAG, "Skipping evaluation of #f");
+      } else {
+        if (requireRuntime) {
+          code = "(begin (require <com.google.youngandroid.runtime>) (process-repl-input " +
+            blockid + " (begin " + code + " )))";
+        } else {
+          if (!runtimeRequired) {
+            scheme.eval("(require <com.google.youngandroid.runtime>)");
+            runtimeRequired = true;
+          }
+          code = "(process-repl-input " + blockid + " (begin " + code + " ))";
+        }
+        Log.d(LOG_TAG, "To Eval: " + code);
+        scheme.eval(code);
+      }
+    } catch (Throwable ex) {
+      Log.e(LOG_TAG, "newblocks: Scheme Failure", ex);
+      RetValManager.appendReturnValue(blockid, "BAD", ex.toString());
+    }
+    return RetValManager.fetch(false);
+  }
+
+  /*
+   * Evaluates the forms of a batch one at a time as the response is read, so
+   * that the result of each form is sent as soon as it has been evaluated.
+   */
+  private class ReplBatchStream extends InputStream {
+    private final String[] codes;
+    private final String[] blockids;
+    private int next = 0;             // The next form to evaluate
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+
+    ReplBatchStream(String[] codes, String[] blockids) {
+      this.codes = codes;
+      this.blockids = blockids;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.length - position);
+      System.arraycopy(buffer, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    // Evaluates the next form if everything read so far has been consumed.
+    // Returns false once all the forms have been evaluated and consumed.
+    private boolean fill() throws IOException {
+      while (position == buffer.length) {
+        if (next == codes.length) {
+          return false;
+        }
+        String result;
+        if (codes[next] == null) {
+          // The forms after this one may depend on it, so don't evaluate them.
+          result = MISSING_RESULT;
+          next = codes.length;
+        } else {
+          result = evalReplInput(blockids[next], codes[next], false);
+          next++;
+        }
+        buffer = (result + "\n").getBytes("UTF-8");
+        position = 0;
+      }
+      return true;
+    }
+  }
+
+  private static String computeMac(String text) throws Exception {
+    Mac hmacSha1 = Mac.getInstance("HmacSHA1");
+    SecretKeySpec key = new SecretKeySpec(hmacKey, "RAW");
+    hmacSha1.init(key);
+    byte [] tmpMac = hmacSha1.doFinal(text.getBytes());
+    StringBuffer sb = new StringBuffer(tmpMac.length * 2);
+    Formatter formatter = new Formatter(sb);
+    for (byte b : tmpMac)
+      formatter.format("%02x", b);
+    return sb.toString();
+  }
+
+  private static String sha1(String text) throws Exception {
+    byte [] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes());
+    StringBuffer sb = new StringBuffer(digest.length * 2);
+    Formatter formatter = new Formatter(sb);
+    for (byte b : digest)
+      formatter.format("%02x", b);
+    return sb.toString();
+  }
+
   private void copyFile(File infile, File outfile) {
     try {
       FileInputStream in = new FileInputStream(infile);
@@ -7,23 +7,124 @@
 package com.google.appinventor.components.runtime.util;
 
 import android.os.Handler;
+import android.util.Log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Calls are run by shared pools with a fixed number of threads. When all
+ * of a pool's threads are busy, further calls wait in its queue, so that an
+ * app that makes a call on every timer tick or sensor event doesn't end up
+ * with hundreds of threads. Calls that wait on the network use one pool, and
+ * calls that work on files use another, so that slow web requests don't hold
+ * up file writes. The queues are bounded: a call made while its pool's queue
+ * is full runs on a thread of its own, as every call did before the pools.
+ * Every call that is made runs, even if the Form that made it is destroyed
+ * first, so a queued write is never dropped.
+ *
+ * <p>The pools are meant for calls that finish on their own in a short time,
+ * such as a web request with timeouts or a file write. A call that can block
+ * for a long time, such as waiting for an incoming connection, retrying with
+ * backoff or waiting on the user, would keep one of the shared threads from
+ * the other calls, so it should use {@link #runInNewThread} instead.
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
 
+  private static final String LOG_TAG = "AsynchUtil";
+
+  // The most network calls that run at the same time. These calls mostly
+  // wait for the network, so this doesn't depend on the number of processors.
+  // It allows for a few slow web requests without holding up the other calls.
+  private static final int NETWORK_POOL_SIZE = 8;
+
+  // The most file calls that run at the same time. With one thread, writes
+  // to a file are made in the order they were asked for.
+  private static final int FILE_POOL_SIZE = 1;
+
+  // The most calls that wait in each pool's queue
+  private static final int QUEUE_CAPACITY = 64;
+
+  // How long an idle thread is kept, in seconds
+  private static final int KEEP_ALIVE_SECONDS = 30;
+
+  private static final ThreadPoolExecutor networkExecutor =
+      createExecutor("network", NETWORK_POOL_SIZE);
+
+  private static final ThreadPoolExecutor fileExecutor =
+      createExecutor("file", FILE_POOL_SIZE);
+
+  private static ThreadPoolExecutor createExecutor(final String poolName, int poolSize) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+        new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable,
+                "AsynchUtil-" + poolName + "-" + threadCount.incrementAndGet());
+          }
+        },
+        new RejectedExecutionHandler() {
+          public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            // Rather than drop the call, which its caller's callbacks depend on, or run it on
+            // the caller's thread, which may be the UI thread, give it a thread of its own.
+            Log.w(LOG_TAG, "The " + poolName + " queue is full, running a call on a new thread");
+            runInNewThread(runnable);
+          }
+        });
+    if (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD) {
+      GingerbreadUtil.allowCoreThreadTimeOut(executor);
+    }
+    return executor;
+  }
+
   /**
-   * Make an asynchronous call in a separate thread.
+   * Make an asynchronous call in a separate thread. Use this for a call that
+   * waits on the network.
    * @param call a {@link Runnable} to run in the thread.
    */
   public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+    networkExecutor.execute(newTask(call));
   }
+
+  /**
+   * Make an asynchronous call that works on files, or computes, in a separate
+   * thread. These calls don't wait behind calls that wait on the network, and
+   * run one at a time in the order they were made.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runFileOperation(final Runnable call) {
+    fileExecutor.execute(newTask(call));
+  }
+
+  private static FutureTask<Void> newTask(Runnable call) {
+    return new FutureTask<Void>(call, null) {
+      @Override
+      protected void done() {
+        try {
+          get();
+        } catch (ExecutionException e) {
+          // Treat the exception as uncaught, like it was when each call had its own thread.
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e.getCause());
+        } catch (InterruptedException e) {
+          // The call has finished, so get doesn't wait.
+        }
+      }
+    };
+  }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
@@ -46,7 +147,18 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
+    runAsynchronously(runnable);
+  }
+
+  /**
+   * Make an asynchronous call in a new thread of its own. Use this instead of
+   * {@link #runAsynchronously(Runnable)} for a call that may block for a long
+   * time, such as waiting for an incoming connection, so that it doesn't hold
+   * on to one of the shared threads.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runInNewThread(final Runnable call) {
+    Thread thread = new Thread(call);
     thread.start();
   }
 }
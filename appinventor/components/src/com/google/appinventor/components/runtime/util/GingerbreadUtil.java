@@ -9,6 +9,7 @@ package com.google.appinventor.components.runtime.util;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
@@ -27,6 +28,7 @@ import java.net.CookieStore;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Helper methods for calling methods added in Gingerbread (2.3, API level 9).
@@ -179,4 +181,22 @@ public class GingerbreadUtil {
         return false;
     }
   }
+
+  /**
+   * Lets the core threads of the given executor time out when they are idle.
+   *
+   * @param executor the executor
+   */
+  public static void allowCoreThreadTimeOut(ThreadPoolExecutor executor) {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Writes the changes in the given editor to disk in the background.
+   *
+   * @param editor the editor
+   */
+  public static void applyEdits(SharedPreferences.Editor editor) {
+    editor.apply();
+  }
 }
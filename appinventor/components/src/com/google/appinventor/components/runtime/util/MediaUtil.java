@@ -20,11 +20,13 @@ import android.media.SoundPool;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.Contacts;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
 import android.widget.VideoView;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
@@ -32,8 +34,10 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Array;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -52,6 +56,40 @@ public class MediaUtil {
   // tempFileMap maps cached media (assets, etc) to their respective temp files.
   private static final Map<String, File> tempFileMap = new HashMap<String, File>();
 
+  // How many bytes at the start of an image may be read to find its size
+  // without having to open the image again to decode it.
+  private static final int IMAGE_HEADER_LIMIT = 64 * 1024;
+
+  // bitmapCache maps images, by media path and the size they were decoded
+  // for, to their decoded bitmaps. It is bounded by a fraction of the heap.
+  private static final LruCache<String, CachedBitmap> bitmapCache =
+      new LruCache<String, CachedBitmap>(
+          (int) Math.max(1, Runtime.getRuntime().maxMemory() / 1024 / 8)) {
+        @Override
+        protected int sizeOf(String key, CachedBitmap value) {
+          // In kilobytes, to match the maximum size.
+          return Math.max(1, value.bitmap.getRowBytes() * value.bitmap.getHeight() / 1024);
+        }
+      };
+
+  /**
+   * A decoded image, with the version of the media it was decoded from.
+   */
+  private static class CachedBitmap {
+    final Bitmap bitmap;
+    // For files, the modification time and length. For URLs, the ETag
+    // response header. Null for assets, which don't change.
+    final String version;
+    // For URLs, the Last-Modified response header
+    final String lastModified;
+
+    CachedBitmap(Bitmap bitmap, String version, String lastModified) {
+      this.bitmap = bitmap;
+      this.version = version;
+      this.lastModified = lastModified;
+    }
+  }
+
   private MediaUtil() {
   }
 
@@ -268,43 +306,195 @@ public class MediaUtil {
    * @return a Drawable or null
    */
   public static BitmapDrawable getBitmapDrawable(Form form, String mediaPath) throws IOException {
+    return getBitmapDrawable(form, mediaPath, 0, 0);
+  }
+
+  /**
+   * Loads the image specified by mediaPath and returns a Drawable. The image
+   * is scaled down while it is decoded, as far as it can be while still being
+   * at least as large as the given size.
+   *
+   * <p/>Decoded images are kept in memory and reused for later calls with the
+   * same media path and size, as long as the media hasn't changed. Images from
+   * the internet are only reused when the server says they haven't changed,
+   * so each call still makes a request, but the image is neither downloaded
+   * nor decoded again.
+   *
+   * <p/>If mediaPath is null or empty, null is returned.
+   *
+   * @param form the Form
+   * @param mediaPath the path to the media
+   * @param desiredWidth the width the image is shown at, in pixels, or 0 if
+   *        not known
+   * @param desiredHeight the height the image is shown at, in pixels, or 0 if
+   *        not known
+   * @return a Drawable or null
+   */
+  public static BitmapDrawable getBitmapDrawable(Form form, String mediaPath, int desiredWidth,
+      int desiredHeight) throws IOException {
     if (mediaPath == null || mediaPath.length() == 0) {
       return null;
     }
+    if (desiredWidth <= 0 || desiredHeight <= 0) {
+      desiredWidth = 0;
+      desiredHeight = 0;
+    }
 
     MediaSource mediaSource = determineMediaSource(form, mediaPath);
+    String key = mediaPath + "@" + desiredWidth + "x" + desiredHeight;
+
+    String version;
+    switch (mediaSource) {
+      case ASSET:
+        version = null;
+        break;
+
+      case REPL_ASSET:
+        version = fileVersion(new File(replAssetPath(mediaPath)));
+        break;
+
+      case SDCARD:
+        version = fileVersion(new File(mediaPath));
+        break;
+
+      case FILE_URL:
+        version = fileVersion(new File(fileUrlToFilePath(mediaPath)));
+        break;
+
+      case URL:
+        return getUrlBitmapDrawable(form, mediaPath, key, desiredWidth, desiredHeight);
+
+      default:
+        // Content can change without any way to tell, so it isn't cached.
+        return new BitmapDrawable(decodeMedia(form, mediaPath, mediaSource,
+            desiredWidth, desiredHeight));
+    }
+
+    CachedBitmap cached = bitmapCache.get(key);
+    if (cached != null && equal(cached.version, version)) {
+      return new BitmapDrawable(cached.bitmap);
+    }
+    Bitmap bitmap = decodeMedia(form, mediaPath, mediaSource, desiredWidth, desiredHeight);
+    if (bitmap != null) {
+      bitmapCache.put(key, new CachedBitmap(bitmap, version, null));
+    } else {
+      bitmapCache.remove(key);
+    }
+    return new BitmapDrawable(bitmap);
+  }
 
-    // Unlike other types of media, we don't cache image files from the internet to temp files.
-    // The image at a particular URL, such as an image from a web cam, may change over time.
-    // When the app says to fetch the image, we need to get the latest image, not one that we
-    // cached previously.
+  private static String fileVersion(File file) {
+    return file.lastModified() + "/" + file.length();
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  /**
+   * Loads an image from the internet. If the server sent an ETag or
+   * Last-Modified header with the image, the decoded image is kept, and the
+   * next request for it asks the server to only send the image if it has
+   * changed.
+   */
+  private static BitmapDrawable getUrlBitmapDrawable(Form form, String mediaPath, String key,
+      int desiredWidth, int desiredHeight) throws IOException {
+    URLConnection connection = new URL(mediaPath).openConnection();
+    if (!(connection instanceof HttpURLConnection)) {
+      InputStream is = connection.getInputStream();
+      try {
+        return new BitmapDrawable(decodeMedia(form, mediaPath, MediaSource.URL, is,
+            desiredWidth, desiredHeight));
+      } finally {
+        is.close();
+      }
+    }
+
+    HttpURLConnection conn = (HttpURLConnection) connection;
+    CachedBitmap cached = bitmapCache.get(key);
+    if (cached != null) {
+      if (cached.version != null) {
+        conn.setRequestProperty("If-None-Match", cached.version);
+      }
+      if (cached.lastModified != null) {
+        conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+      }
+      if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return new BitmapDrawable(cached.bitmap);
+      }
+    }
+
+    Bitmap bitmap;
+    InputStream is = conn.getInputStream();
+    try {
+      bitmap = decodeMedia(form, mediaPath, MediaSource.URL, is, desiredWidth, desiredHeight);
+    } finally {
+      is.close();
+    }
+    String etag = conn.getHeaderField("ETag");
+    String lastModified = conn.getHeaderField("Last-Modified");
+    if (bitmap != null && (etag != null || lastModified != null)) {
+      bitmapCache.put(key, new CachedBitmap(bitmap, etag, lastModified));
+    } else {
+      // The image at a particular URL, such as an image from a web cam, may change over time.
+      // Without a way to ask the server whether it has, we can't reuse what we fetched before.
+      bitmapCache.remove(key);
+    }
+    return new BitmapDrawable(bitmap);
+  }
 
-    InputStream is1;
+  /**
+   * Opens and decodes the image specified by mediaPath.
+   */
+  private static Bitmap decodeMedia(Form form, String mediaPath, MediaSource mediaSource,
+      int desiredWidth, int desiredHeight) throws IOException {
+    InputStream is;
     try {
-      is1 = openMedia(form, mediaPath, mediaSource);
+      is = openMedia(form, mediaPath, mediaSource);
     } catch (IOException e) {
       if (mediaSource == MediaSource.CONTACT_URI) {
         // There's no photo for this contact, return a placeholder image.
-        return new BitmapDrawable(BitmapFactory.decodeResource(form.getResources(),
-            android.R.drawable.picture_frame, null));
+        return BitmapFactory.decodeResource(form.getResources(),
+            android.R.drawable.picture_frame, null);
       }
       throw e;
     }
-
-    BitmapFactory.Options options;
     try {
-      options = getBitmapOptions(form, is1);
+      return decodeMedia(form, mediaPath, mediaSource, is, desiredWidth, desiredHeight);
     } finally {
-      is1.close();
+      is.close();
     }
+  }
 
-    InputStream is2 = openMedia(form, mediaPath, mediaSource);
-      BitmapDrawable originalBitmapDrawable = null;
+  /**
+   * Decodes the image in the given stream. The size of the image is read
+   * from the start of the stream, which is then rewound for decoding, so the
+   * media is only opened again if its header is unusually large.
+   */
+  private static Bitmap decodeMedia(Form form, String mediaPath, MediaSource mediaSource,
+      InputStream is, int desiredWidth, int desiredHeight) throws IOException {
+    InputStream in = new BufferedInputStream(is, 8192);
+    in.mark(IMAGE_HEADER_LIMIT);
+    // Hide mark support from BitmapFactory, so that it doesn't replace our mark with its own.
+    InputStream header = new FilterInputStream(in) {
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+    BitmapFactory.Options options = getBitmapOptions(form, header, desiredWidth, desiredHeight);
+    InputStream reopened = null;
+    try {
+      in.reset();
+    } catch (IOException e) {
+      reopened = openMedia(form, mediaPath, mediaSource);
+      in = reopened;
+    }
     try {
-      return new BitmapDrawable(decodeStream(is2, null, options));
+      return decodeStream(in, null, options);
     } finally {
-      if (is2 != null) {
-        is2.close();
+      if (reopened != null) {
+        reopened.close();
       }
     }
   }
@@ -342,7 +532,8 @@ public class MediaUtil {
     }
   }
 
-  private static BitmapFactory.Options getBitmapOptions(Form form, InputStream is) {
+  private static BitmapFactory.Options getBitmapOptions(Form form, InputStream is,
+      int desiredWidth, int desiredHeight) {
     // Get the size of the image.
     BitmapFactory.Options options = new BitmapFactory.Options();
     options.inJustDecodeBounds = true;
@@ -350,6 +541,19 @@ public class MediaUtil {
     int imageWidth = options.outWidth;
     int imageHeight = options.outHeight;
 
+    if (desiredWidth > 0 && desiredHeight > 0) {
+      // Set the sample size so that the image is scaled down as far as it can be without becoming
+      // smaller than the size it is shown at.
+      int sampleSize = 1;
+      while (imageWidth / (sampleSize * 2) >= desiredWidth
+          && imageHeight / (sampleSize * 2) >= desiredHeight) {
+        sampleSize *= 2;
+      }
+      options = new BitmapFactory.Options();
+      options.inSampleSize = sampleSize;
+      return options;
+    }
+
     // Get the screen size.
     Display display = ((WindowManager) form.getSystemService(Context.WINDOW_SERVICE)).
         getDefaultDisplay();
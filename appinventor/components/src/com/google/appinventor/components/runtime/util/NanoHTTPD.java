@@ -200,6 +200,14 @@ public class NanoHTTPD
                  * to add lines.
                  */
                 public Properties header = new Properties();
+
+                /**
+                 * If true, data is read until it ends, rather than only
+                 * what is available when the response starts, and each
+                 * read is sent to the client right away. Use this for
+                 * data that is produced while the response is sent.
+                 */
+                public boolean streaming = false;
         }
 
         /**
@@ -477,7 +485,7 @@ public class NanoHTTPD
                                 if ( r == null )
                                         sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
                                 else
-                                        sendResponse( r.status, r.mimeType, r.header, r.data );
+                                        sendResponse( r.status, r.mimeType, r.header, r.data, r.streaming );
 
                                 in.close();
                                 is.close();
@@ -777,14 +785,15 @@ public class NanoHTTPD
                  */
                 private void sendError( String status, String msg ) throws InterruptedException
                 {
-                        sendResponse( status, MIME_PLAINTEXT, null, new ByteArrayInputStream( msg.getBytes()));
+                        sendResponse( status, MIME_PLAINTEXT, null, new ByteArrayInputStream( msg.getBytes()), false );
                         throw new InterruptedException();
                 }
 
                 /**
                  * Sends given response to the socket.
                  */
-                private void sendResponse( String status, String mime, Properties header, InputStream data )
+                private void sendResponse( String status, String mime, Properties header, InputStream data,
+                                           boolean streaming )
                 {
                         try
                         {
@@ -815,7 +824,17 @@ public class NanoHTTPD
                                 pw.print("\r\n");
                                 pw.flush();
 
-                                if ( data != null )
+                                if ( data != null && streaming )
+                                {
+                                        byte[] buff = new byte[theBufferSize];
+                                        int read;
+                                        while (( read = data.read( buff, 0, theBufferSize )) > 0 )
+                                        {
+                                                out.write( buff, 0, read );
+                                                out.flush();
+                                        }
+                                }
+                                else if ( data != null )
                                 {
                                         int pending = data.available(); // This is to support partial sends, see serveFile()
                                         byte[] buff = new byte[theBufferSize];
@@ -3,9 +3,7 @@ package com.google.appinventor.components.runtime.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
@@ -22,10 +20,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import android.util.Base64;
 import android.util.Log;
 
 import com.google.appinventor.components.runtime.AndroidViewComponent;
@@ -530,90 +525,14 @@ public final class RdfUtil {
    * @param model RDF model to send to the endpoint
    * @param graph Optional graph URI to insert data into. Pass null to insert
    * into the default graph.
+   * @param batchSize the most triples sent in each request
+   * @param gzip true to compress the requests with gzip
    * @return true on success, false otherwise.
    */
-  public static boolean insertData(URI uri, Model model, String graph) {
-    boolean success = false;
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    model.write(baos, "TTL");
-    Log.d(LOG_TAG, "Byte array size: "+baos.size());
-    // get model contents in turtle
-    String contents = null;
-    try {
-      contents = baos.toString("UTF-8");
-    } catch(UnsupportedEncodingException e) {
-      Log.e(LOG_TAG, "Unable to encode query.", e);
-      return false;
-    }
-    baos = null;
-    Log.d(LOG_TAG, "Model: "+contents);
-    // remove PREFIX statements and move them before an insert data block
-    Pattern prefixPattern = Pattern.compile("@prefix[ \t]+([^:]*:)[ \t]+<([^>]+)>[ \t]+.[ \t\r\n]+", Pattern.CASE_INSENSITIVE);
-    Matcher matcher = prefixPattern.matcher(contents);
-    StringBuffer prefixes = new StringBuffer();
-    StringBuffer sb = new StringBuffer("INSERT DATA { ");
-    if(graph != null && graph.length() != 0) {
-      sb.append("GRAPH <"+graph+"> { ");
-    }
-    sb.append("\r\n");
-    while(matcher.find()) {
-      prefixes.append("PREFIX ");
-      prefixes.append(matcher.group(1));
-      prefixes.append(" <");
-      prefixes.append(matcher.group(2));
-      prefixes.append(">\r\n");
-      matcher.appendReplacement(sb, "");
-    }
-    matcher.appendTail(sb);
-    prefixes.append(sb);
-    if(graph != null && graph.length() != 0) {
-      prefixes.append("}\r\n");
-    }
-    prefixes.append("}\r\n");
-    sb = null;
-    HttpURLConnection conn = null;
-    Log.i(LOG_TAG, "Sending update to server:");
-    Log.d(LOG_TAG, prefixes.toString());
-    try {
-      conn = (HttpURLConnection) uri.toURL().openConnection();
-      conn.setDoInput(true);
-      conn.setDoOutput(true);
-      conn.setRequestMethod("POST");
-      //conn.setRequestProperty("Content-Length", Integer.toString(prefixes.length()));
-      conn.setRequestProperty("Content-Type", "application/sparql-query");
-      conn.setRequestProperty("Accept", "*/*");
-      String userInfo = uri.getUserInfo();
-      if(userInfo != null && userInfo.length() != 0) {
-        if(!userInfo.contains(":")) {
-          userInfo = userInfo + ":";
-        }
-        String encodedInfo = Base64.encodeToString(userInfo.getBytes("UTF-8"), Base64.NO_WRAP).trim();
-        Log.d(LOG_TAG, "Authorization = "+encodedInfo);
-        conn.setRequestProperty("Authorization", "Basic "+encodedInfo);
-      }
-      conn.connect();
-      OutputStream os = conn.getOutputStream();
-      PrintStream ps = new PrintStream(os);
-      ps.print(prefixes);
-      ps.close();
-      int status = conn.getResponseCode();
-      Log.d(LOG_TAG, "HTTP Status = " + status);
-      if(status == 200) {
-        success = true;
-      } else if(status >= 400) {
-        success = false;
-        Log.w(LOG_TAG, "HTTP status for update was "+status);
-        Log.w(LOG_TAG, "HTTP response msg was "+conn.getResponseMessage());
-      }
-      conn.disconnect();
-    } catch (MalformedURLException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to malformed URL.");
-    } catch (ProtocolException e) {
-      Log.w(LOG_TAG, "Unable to perform HTTP POST to given URI.", e);
-    } catch (IOException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to communication issue.", e);
-    }
-    return success;
+  public static boolean insertData(URI uri, Model model, String graph, int batchSize,
+      boolean gzip) {
+    return new SparqlUpdateWriter(uri, SparqlUpdateWriter.Operation.INSERT, graph)
+        .setBatchSize(batchSize).setGzip(gzip).write(model);
   }
 
   /**
@@ -624,165 +543,51 @@ public final class RdfUtil {
    * @param model RDF model containing the data to be deleted from the endpoint
    * @param graph Optional graph URI to delete data from. Pass null to delete
    * from the default graph.
+   * @param batchSize the most triples sent in each request
+   * @param gzip true to compress the requests with gzip
    * @return true on success, false otherwise.
    */
-  public static boolean deleteData(URI uri, Model model, String graph) {
-    boolean success = false;
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    model.write(baos, "TTL");
-    Log.d(LOG_TAG, "Byte array size: "+baos.size());
-    // get model contents in turtle
-    String contents = null;
-    try {
-      contents = baos.toString("UTF-8");
-    } catch(UnsupportedEncodingException e) {
-      Log.e(LOG_TAG, "Unable to encode query.", e);
-      return false;
-    }
-    baos = null;
-    Log.d(LOG_TAG, "Model: "+contents);
-    // remove PREFIX statements and move them before a delete data block
-    Pattern prefixPattern = Pattern.compile("@prefix[ \t]+([^:]*:)[ \t]+<([^>]+)>[ \t]+.[ \t\r\n]+", Pattern.CASE_INSENSITIVE);
-    Matcher matcher = prefixPattern.matcher(contents);
-    StringBuffer prefixes = new StringBuffer();
-    StringBuffer sb = new StringBuffer("DELETE DATA { ");
-    if(graph != null && graph.length() != 0) {
-      sb.append("GRAPH <"+graph+"> { ");
-    }
-    sb.append("\r\n");
-    while(matcher.find()) {
-      prefixes.append("PREFIX ");
-      prefixes.append(matcher.group(1));
-      prefixes.append(" <");
-      prefixes.append(matcher.group(2));
-      prefixes.append(">\r\n");
-      matcher.appendReplacement(sb, "");
-    }
-    matcher.appendTail(sb);
-    prefixes.append(sb);
-    if(graph != null && graph.length() != 0) {
-      prefixes.append("}\r\n");
-    }
-    prefixes.append("}\r\n");
-    sb = null;
-    HttpURLConnection conn = null;
-    Log.i(LOG_TAG, "Sending update to server:");
-    Log.d(LOG_TAG, prefixes.toString());
-    try {
-      conn = (HttpURLConnection) uri.toURL().openConnection();
-      conn.setDoInput(true);
-      conn.setDoOutput(true);
-      conn.setRequestMethod("POST");
-      conn.setRequestProperty("Content-Length", Integer.toString(prefixes.length()));
-      conn.setRequestProperty("Content-Type", "application/sparql-update");
-      conn.setRequestProperty("Accept", "*/*");
-      String userInfo = uri.getUserInfo();
-      if(userInfo != null && userInfo.length() != 0) {
-        if(!userInfo.contains(":")) {
-          userInfo = userInfo + ":";
-        }
-        String encodedInfo = Base64.encodeToString(userInfo.getBytes("UTF-8"), Base64.NO_WRAP).trim();
-        Log.d(LOG_TAG, "Authorization = "+encodedInfo);
-        conn.setRequestProperty("Authorization", "Basic "+encodedInfo);
-      }
-      conn.connect();
-      OutputStream os = conn.getOutputStream();
-      PrintStream ps = new PrintStream(os);
-      ps.print(prefixes);
-      ps.close();
-      int status = conn.getResponseCode();
-      Log.d(LOG_TAG, "HTTP Status = " + status);
-      if(status == 200) {
-        success = true;
-      } else if(status >= 400) {
-        success = false;
-        Log.w(LOG_TAG, "HTTP status for update was "+status);
-      }
-      conn.disconnect();
-    } catch (MalformedURLException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to malformed URL.");
-    } catch (ProtocolException e) {
-      Log.w(LOG_TAG, "Unable to perform HTTP POST to given URI.", e);
-    } catch (IOException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to communication issue.", e);
-    }
-    return success;
+  public static boolean deleteData(URI uri, Model model, String graph, int batchSize,
+      boolean gzip) {
+    return new SparqlUpdateWriter(uri, SparqlUpdateWriter.Operation.DELETE, graph)
+        .setBatchSize(batchSize).setGzip(gzip).write(model);
   }
   
   public static YailList resultSetAsYailList(ResultSet results) {
-    final Collection<Solution> solutions = RdfUtil.resultSetAsCollection( results );
+    return resultSetAsYailList( results, 0 );
+  }
+
+  /**
+   * Converts the next solutions of a ResultSet from a SELECT query into a
+   * list that can be passed to other App Inventor components, leaving the
+   * rest of the solutions in the ResultSet.
+   * @param results
+   * @param limit Maximum number of solutions to convert, or 0 for all of them
+   * @return
+   */
+  public static YailList resultSetAsYailList(ResultSet results, int limit) {
     final List<YailList> list = new ArrayList<YailList>();
-    for ( Solution i : solutions ) {
+    while ( results.hasNext() && ( limit == 0 || list.size() < limit ) ) {
       List<YailList> solution = new ArrayList<YailList>();
-      for ( VariableBinding j : i ) {
+      for ( VariableBinding j : new Solution( results.next() ) ) {
         solution.add( YailList.makeList( j ) );
       }
       list.add( YailList.makeList( solution ) );
     }
     return YailList.makeList( list );
   }
-  
+
   /**
    * Performs a POST to a remote CSPARQL Engine feed
    * @param uri URI for the endpoint
    * @param model RDF model to send to the endpoint
+   * @param batchSize the most triples sent in each request
+   * @param gzip true to compress the requests with gzip
    * @return true on success, false otherwise.
    */
-  public static boolean feedData(URI uri, Model model) {
-    boolean success = false;
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    model.write(baos, "TTL");
-    Log.d(LOG_TAG, "Byte array size: "+baos.size());
-    // get model contents in turtle
-    String contents = null;
-    try {
-      contents = baos.toString("UTF-8");
-    } catch(UnsupportedEncodingException e) {
-      Log.e(LOG_TAG, "Unable to encode query.", e);
-      return false;
-    }
-    baos = null;
-    
-    HttpURLConnection conn = null;
-    Log.i(LOG_TAG, "Sending update to server:");
-    Log.d(LOG_TAG, contents);
-    try {
-      conn = (HttpURLConnection) uri.toURL().openConnection();
-      conn.setDoInput(true);
-      conn.setDoOutput(true);
-      conn.setRequestMethod("POST");
-      conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
-      String userInfo = uri.getUserInfo();
-      if(userInfo != null && userInfo.length() != 0) {
-        if(!userInfo.contains(":")) {
-          userInfo = userInfo + ":";
-        }
-        String encodedInfo = Base64.encodeToString(userInfo.getBytes("UTF-8"), Base64.NO_WRAP).trim();
-        Log.d(LOG_TAG, "Authorization = "+encodedInfo);
-        conn.setRequestProperty("Authorization", "Basic "+encodedInfo);
-      }
-      conn.connect();
-      OutputStream os = conn.getOutputStream();
-      PrintStream ps = new PrintStream(os);
-      ps.print(contents);
-      ps.close();
-      int status = conn.getResponseCode();
-      Log.d(LOG_TAG, "HTTP Status = " + status);
-      if(status == 200) {
-        success = true;
-      } else if(status >= 400) {
-        success = false;
-        Log.w(LOG_TAG, "HTTP status for update was "+status);
-      }
-      conn.disconnect();
-    } catch (MalformedURLException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to malformed URL.");
-    } catch (ProtocolException e) {
-      Log.w(LOG_TAG, "Unable to perform HTTP POST to given URI.", e);
-    } catch (IOException e) {
-      Log.w(LOG_TAG, "Unable to insert triples due to communication issue.", e);
-    }
-    return success;
+  public static boolean feedData(URI uri, Model model, int batchSize, boolean gzip) {
+    return new SparqlUpdateWriter(uri, SparqlUpdateWriter.Operation.FEED, null)
+        .setBatchSize(batchSize).setGzip(gzip).write(model);
   }
 
   public static String prepStreamingQuery(String querytext, String regId, String streamName, String window, String step) {
@@ -0,0 +1,296 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded ring buffer of bytes received from an input stream.
+ *
+ * <p>Once {@link #receive} is running on a thread of its own, that thread
+ * moves bytes from the stream into the buffer as soon as they arrive, and
+ * reads from the buffer only wait when the bytes they ask for haven't
+ * arrived yet. When the buffer is full, the receiving thread waits for
+ * bytes to be read instead of dropping any.
+ *
+ * <p>If {@link #receive} isn't running, reads fill the buffer from the
+ * stream themselves, on the thread that reads.
+ */
+public final class ReceiveBuffer extends InputStream {
+
+  /**
+   * Listener for bytes arriving in a {@link ReceiveBuffer}.
+   */
+  public interface Listener {
+    /**
+     * Called on the receiving thread each time bytes have been added to the
+     * buffer.
+     */
+    void bytesReceived(ReceiveBuffer buffer);
+  }
+
+  private final InputStream in;
+  private final byte[] data;
+  private int head;   // the index of the next byte to read
+  private int count;  // the number of bytes in the buffer
+
+  private Listener listener;
+  private boolean receiving;
+  private boolean endOfStream;
+  private boolean closed;
+  private IOException error;
+
+  /**
+   * Creates a buffer for the given stream.
+   *
+   * @param in the stream to receive bytes from
+   * @param capacity the most bytes the buffer holds
+   */
+  public ReceiveBuffer(InputStream in, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.in = in;
+    this.data = new byte[capacity];
+  }
+
+  /**
+   * Sets the listener that is told when bytes have been received.
+   */
+  public synchronized void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Moves bytes from the stream into the buffer until the stream ends, a
+   * read from the stream fails, or the buffer is closed. This doesn't
+   * return until then, so call it on a thread of its own.
+   *
+   * <p>If the stream ends or fails, reads from the buffer report it once
+   * the bytes received before then have been read.
+   */
+  public void receive() {
+    synchronized (this) {
+      receiving = true;
+    }
+    byte[] chunk = new byte[Math.min(data.length, 1024)];
+    try {
+      while (true) {
+        int n = in.read(chunk);
+        Listener listener;
+        synchronized (this) {
+          if (n == -1) {
+            endOfStream = true;
+            notifyAll();
+            return;
+          }
+          if (!append(chunk, n)) {
+            return;
+          }
+          listener = this.listener;
+        }
+        if (listener != null) {
+          listener.bytesReceived(this);
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        if (!closed) {
+          error = e;
+        }
+        notifyAll();
+      }
+    } finally {
+      synchronized (this) {
+        receiving = false;
+      }
+    }
+  }
+
+  // Adds bytes to the buffer, waiting for room as needed. Returns false if
+  // the buffer was closed first.
+  private boolean append(byte[] bytes, int length) throws InterruptedIOException {
+    int offset = 0;
+    while (offset < length) {
+      while (count == data.length && !closed) {
+        waitForChange();
+      }
+      if (closed) {
+        return false;
+      }
+      int tail = (head + count) % data.length;
+      int n = Math.min(length - offset, Math.min(data.length - count, data.length - tail));
+      System.arraycopy(bytes, offset, data, tail, n);
+      count += n;
+      offset += n;
+      notifyAll();
+    }
+    return true;
+  }
+
+  private void waitForChange() throws InterruptedIOException {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  // Waits until there is at least one byte to read. Returns false at the end
+  // of the stream.
+  private boolean awaitBytes() throws IOException {
+    while (count == 0) {
+      if (closed) {
+        throw new IOException("Receive buffer closed");
+      }
+      if (error != null) {
+        throw error;
+      }
+      if (endOfStream) {
+        return false;
+      }
+      if (receiving) {
+        waitForChange();
+      } else {
+        fill();
+      }
+    }
+    return true;
+  }
+
+  // Reads from the stream straight into the buffer, for when no thread is
+  // receiving. Only called when the buffer is empty.
+  private void fill() throws IOException {
+    head = 0;
+    int n = in.read(data, 0, data.length);
+    if (n == -1) {
+      endOfStream = true;
+    } else {
+      count = n;
+    }
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    if (!receiving && !endOfStream && !closed && error == null) {
+      return count + in.available();
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    if (!awaitBytes()) {
+      return -1;
+    }
+    int b = data[head] & 0xFF;
+    consume(1);
+    return b;
+  }
+
+  @Override
+  public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!awaitBytes()) {
+      return -1;
+    }
+    int n = Math.min(length, Math.min(count, data.length - head));
+    System.arraycopy(data, head, bytes, offset, n);
+    consume(n);
+    return n;
+  }
+
+  private void consume(int n) {
+    head = (head + n) % data.length;
+    count -= n;
+    notifyAll();
+  }
+
+  /**
+   * Reads bytes up to and including the next delimiter byte, waiting for
+   * them to arrive as needed.
+   *
+   * @param delimiter the byte that ends the frame
+   * @param out where to write the bytes that are read
+   * @return true if the delimiter was read, false if the stream ended first
+   */
+  public synchronized boolean readFrame(byte delimiter, ByteArrayOutputStream out)
+      throws IOException {
+    while (awaitBytes()) {
+      // Copy the bytes up to the delimiter, or the end of the buffer, at once.
+      int n = 0;
+      int available = Math.min(count, data.length - head);
+      while (n < available) {
+        if (data[head + n++] == delimiter) {
+          out.write(data, head, n);
+          consume(n);
+          return true;
+        }
+      }
+      out.write(data, head, n);
+      consume(n);
+    }
+    return false;
+  }
+
+  /**
+   * Removes the complete frames in the buffer, without waiting for more
+   * bytes. Each frame ends with the delimiter byte. If the buffer is full
+   * but holds no delimiter, its contents are removed as one frame, so that
+   * a frame that is too long to fit doesn't stop bytes from being received.
+   *
+   * @param delimiter the byte that ends each frame
+   * @return the frames, which may be empty
+   */
+  public synchronized List<byte[]> takeFrames(byte delimiter) {
+    List<byte[]> frames = new ArrayList<byte[]>();
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      if (data[(head + i) % data.length] == delimiter) {
+        frames.add(copy(start, i + 1 - start));
+        start = i + 1;
+      }
+    }
+    if (frames.isEmpty() && count == data.length) {
+      frames.add(copy(0, count));
+      start = count;
+    }
+    if (start > 0) {
+      consume(start);
+    }
+    return frames;
+  }
+
+  // Copies length bytes starting at the given offset from head.
+  private byte[] copy(int offset, int length) {
+    byte[] bytes = new byte[length];
+    int from = (head + offset) % data.length;
+    int n = Math.min(length, data.length - from);
+    System.arraycopy(data, from, bytes, 0, n);
+    System.arraycopy(data, 0, bytes, n, length - n);
+    return bytes;
+  }
+
+  /**
+   * Stops receiving and discards the buffered bytes. The stream itself is
+   * not closed.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    count = 0;
+    notifyAll();
+  }
+}
@@ -0,0 +1,336 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.util.Base64;
+import android.util.Log;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.sparql.serializer.SerializationContext;
+import com.hp.hpl.jena.sparql.util.FmtUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends the statements of a Jena model to a remote endpoint in batches of a
+ * bounded number of triples, writing each batch straight to the connection
+ * instead of building the whole request in memory first.
+ *
+ * <p>Each batch is sent as a separate request: a SPARQL 1.1 Update
+ * INSERT DATA or DELETE DATA operation, or a Turtle document for a CSPARQL
+ * feed. Connections are left open after a request has been answered so that
+ * later batches can reuse them, and a batch that fails because of a
+ * communication issue or a server error is retried before giving up.
+ *
+ * <p>Batches are sent in order and a failed batch stops the write, so if
+ * the write fails the batches before it have already been applied.
+ */
+public final class SparqlUpdateWriter {
+  private static final String LOG_TAG = SparqlUpdateWriter.class.getSimpleName();
+
+  /**
+   * The default number of triples sent in each batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  // How many times a batch is sent before giving up
+  private static final int MAX_ATTEMPTS = 3;
+
+  // How long to wait before sending a batch again, doubled on each attempt
+  private static final long RETRY_DELAY_MILLIS = 500;
+
+  // How long to wait for a connection to the endpoint, in milliseconds
+  private static final int CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+
+  // How long to wait for the endpoint to send more of its response, in milliseconds
+  private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+
+  /**
+   * The kind of request each batch is sent as.
+   */
+  public enum Operation {
+    INSERT("INSERT DATA", "application/sparql-query"),
+    DELETE("DELETE DATA", "application/sparql-update"),
+    FEED(null, "text/plain; charset=UTF-8");
+
+    private final String keyword;
+    private final String contentType;
+
+    private Operation(String keyword, String contentType) {
+      this.keyword = keyword;
+      this.contentType = contentType;
+    }
+  }
+
+  /**
+   * Sends one batch of triples. This lets tests see the batches without a
+   * connection.
+   */
+  interface BatchSender {
+    /**
+     * Sends the batch and returns true if it succeeded.
+     */
+    boolean send(List<Triple> batch);
+  }
+
+  private final URI uri;
+  private final Operation operation;
+  private final String graph;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean gzip;
+
+  /**
+   * Creates a writer.
+   *
+   * @param uri URI for the endpoint
+   * @param operation the kind of request to send
+   * @param graph Optional graph URI for INSERT and DELETE. Pass null to use
+   * the default graph.
+   */
+  public SparqlUpdateWriter(URI uri, Operation operation, String graph) {
+    this.uri = uri;
+    this.operation = operation;
+    this.graph = graph != null && graph.length() != 0 ? graph : null;
+  }
+
+  /**
+   * Sets the maximum number of triples sent in each request.
+   */
+  public SparqlUpdateWriter setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Sets whether request bodies are compressed with gzip. Only enable this
+   * for endpoints that accept a Content-Encoding of gzip.
+   */
+  public SparqlUpdateWriter setGzip(boolean gzip) {
+    this.gzip = gzip;
+    return this;
+  }
+
+  /**
+   * Sends the statements of the model to the endpoint.
+   *
+   * <p>Statements that mention a blank node are held back and sent together
+   * in the last request, because a blank node label only identifies the same
+   * node within a single request.
+   *
+   * @param model the statements to send
+   * @return true if every batch succeeded, false otherwise
+   */
+  public boolean write(final Model model) {
+    final SerializationContext context = new SerializationContext(model);
+    int batches = write(model, new BatchSender() {
+      public boolean send(List<Triple> batch) {
+        return sendBatch(model, context, batch);
+      }
+    });
+    if (batches < 0) {
+      return false;
+    }
+    Log.i(LOG_TAG, "Sent " + model.size() + " triples in " + batches + " batches");
+    return true;
+  }
+
+  /**
+   * Splits the statements of the model into batches and passes each batch to
+   * the sender, stopping at the first batch that fails.
+   *
+   * @param model the statements to send
+   * @param sender sends each batch
+   * @return the number of batches sent, or -1 if a batch failed
+   */
+  int write(Model model, BatchSender sender) {
+    List<Triple> batch = new ArrayList<Triple>(Math.min(batchSize, 1024));
+    List<Triple> blankTriples = new ArrayList<Triple>();
+    int batches = 0;
+    StmtIterator it = model.listStatements();
+    try {
+      while (it.hasNext()) {
+        Triple triple = it.nextStatement().asTriple();
+        if (triple.getSubject().isBlank() || triple.getObject().isBlank()) {
+          blankTriples.add(triple);
+          continue;
+        }
+        batch.add(triple);
+        if (batch.size() == batchSize) {
+          if (!sender.send(batch)) {
+            return -1;
+          }
+          batches++;
+          batch.clear();
+        }
+      }
+    } finally {
+      it.close();
+    }
+    batch.addAll(blankTriples);
+    if (!batch.isEmpty()) {
+      if (!sender.send(batch)) {
+        return -1;
+      }
+      batches++;
+    }
+    return batches;
+  }
+
+  private boolean sendBatch(Model model, SerializationContext context, List<Triple> batch) {
+    long delay = RETRY_DELAY_MILLIS;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        int status = post(model, context, batch);
+        Log.d(LOG_TAG, "HTTP Status = " + status);
+        if (status >= 200 && status < 300) {
+          return true;
+        }
+        Log.w(LOG_TAG, "HTTP status for update was " + status);
+        if (status < 500) {
+          // The server rejected the request itself, so sending it again won't help.
+          return false;
+        }
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Unable to send triples due to communication issue.", e);
+      }
+      if (attempt == MAX_ATTEMPTS) {
+        return false;
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      delay *= 2;
+    }
+  }
+
+  private int post(Model model, SerializationContext context, List<Triple> batch)
+      throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) uri.toURL().openConnection();
+    try {
+      conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+      conn.setDoInput(true);
+      conn.setDoOutput(true);
+      conn.setRequestMethod("POST");
+      conn.setChunkedStreamingMode(0);
+      conn.setRequestProperty("Content-Type", operation.contentType);
+      conn.setRequestProperty("Accept", "*/*");
+      if (gzip) {
+        conn.setRequestProperty("Content-Encoding", "gzip");
+      }
+      String userInfo = uri.getUserInfo();
+      if (userInfo != null && userInfo.length() != 0) {
+        if (!userInfo.contains(":")) {
+          userInfo = userInfo + ":";
+        }
+        String encodedInfo =
+            Base64.encodeToString(userInfo.getBytes("UTF-8"), Base64.NO_WRAP).trim();
+        conn.setRequestProperty("Authorization", "Basic " + encodedInfo);
+      }
+      writeRequest(conn.getOutputStream(), model.getNsPrefixMap(), context, batch);
+      int status = conn.getResponseCode();
+      // Read the rest of the response so that the connection can be reused.
+      InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+      if (in != null) {
+        try {
+          byte[] buffer = new byte[1024];
+          while (in.read(buffer) != -1) {
+          }
+        } finally {
+          in.close();
+        }
+      }
+      return status;
+    } catch (IOException e) {
+      // Don't reuse a connection that failed part way through a request.
+      conn.disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes the body of the request for one batch of triples to the stream,
+   * compressed if gzip is enabled, and closes the stream.
+   *
+   * @param os where to write the request
+   * @param prefixes the namespace prefixes used by the context
+   * @param context the context used to format the nodes of the triples
+   * @param batch the triples to write
+   */
+  void writeRequest(OutputStream os, Map<String, String> prefixes, SerializationContext context,
+      List<Triple> batch) throws IOException {
+    if (gzip) {
+      os = new GZIPOutputStream(os);
+    }
+    Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+    try {
+      writeBatch(out, prefixes, context, batch);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the body of the request for one batch of triples.
+   *
+   * @param out where to write the request
+   * @param prefixes the namespace prefixes used by the context
+   * @param context the context used to format the nodes of the triples
+   * @param batch the triples to write
+   */
+  void writeBatch(Writer out, Map<String, String> prefixes, SerializationContext context,
+      List<Triple> batch) throws IOException {
+    for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+      if (operation == Operation.FEED) {
+        out.write("@prefix " + prefix.getKey() + ": <" + prefix.getValue() + "> .\r\n");
+      } else {
+        out.write("PREFIX " + prefix.getKey() + ": <" + prefix.getValue() + ">\r\n");
+      }
+    }
+    if (operation != Operation.FEED) {
+      out.write(operation.keyword);
+      out.write(" { ");
+      if (graph != null) {
+        out.write("GRAPH <" + graph + "> { ");
+      }
+      out.write("\r\n");
+    }
+    for (Triple triple : batch) {
+      out.write(FmtUtils.stringForNode(triple.getSubject(), context));
+      out.write(' ');
+      out.write(FmtUtils.stringForNode(triple.getPredicate(), context));
+      out.write(' ');
+      out.write(FmtUtils.stringForNode(triple.getObject(), context));
+      out.write(" .\r\n");
+    }
+    if (operation != Operation.FEED) {
+      if (graph != null) {
+        out.write("}\r\n");
+      }
+      out.write("}\r\n");
+    }
+  }
+}
@@ -0,0 +1,185 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid of square cells, used to quickly find the items whose bounding
+ * boxes may overlap a given bounding box.  Each item is recorded in every cell
+ * that its bounding box touches, so a query only needs to look at the items
+ * in the cells touched by the queried box rather than at every item.
+ *
+ * <p>Items so large that they would touch too many cells are kept in a
+ * separate list that every query returns.
+ *
+ * @param <T> the type of the items
+ */
+public final class SpatialGrid<T> {
+  // Items touching more cells than this are not recorded in cells.
+  private static final int MAX_CELLS_PER_ITEM = 1024;
+
+  private final double cellSize;
+
+  // The items in each cell, by cell key
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+  // The range of cells {left, top, right, bottom} touched by each item, or
+  // null for items that are too large to be recorded in cells
+  private final Map<T, int[]> itemCells = new HashMap<T, int[]>();
+
+  private final Set<T> largeItems = new LinkedHashSet<T>();
+
+  /**
+   * Creates an empty grid.
+   *
+   * @param cellSize the width and height of the cells
+   */
+  public SpatialGrid(int cellSize) {
+    if (cellSize <= 0) {
+      throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item to the grid or updates its bounding box.
+   *
+   * @param item the item
+   * @param box the item's bounding box
+   */
+  public void update(T item, BoundingBox box) {
+    int[] range = cellRange(box);
+    boolean large = ((long) range[2] - range[0] + 1) * ((long) range[3] - range[1] + 1) >
+        MAX_CELLS_PER_ITEM;
+    if (itemCells.containsKey(item)) {
+      int[] oldRange = itemCells.get(item);
+      if (large ? oldRange == null : sameRange(oldRange, range)) {
+        // The item hasn't moved to different cells.
+        return;
+      }
+      remove(item);
+    }
+    if (large) {
+      itemCells.put(item, null);
+      largeItems.add(item);
+      return;
+    }
+    itemCells.put(item, range);
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> items = cells.get(key);
+        if (items == null) {
+          items = new ArrayList<T>(4);
+          cells.put(key, items);
+        }
+        items.add(item);
+      }
+    }
+  }
+
+  /**
+   * Removes an item from the grid.  Does nothing if the item isn't in the grid.
+   *
+   * @param item the item
+   */
+  public void remove(T item) {
+    if (!itemCells.containsKey(item)) {
+      return;
+    }
+    int[] range = itemCells.remove(item);
+    if (range == null) {
+      largeItems.remove(item);
+      return;
+    }
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> items = cells.get(key);
+        items.remove(item);
+        if (items.isEmpty()) {
+          cells.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Indicates whether the given item is in the grid.
+   *
+   * @param item the item
+   * @return {@code true} if the item has been added and not removed
+   */
+  public boolean contains(T item) {
+    return itemCells.containsKey(item);
+  }
+
+  /**
+   * Adds the items that share a cell with the given bounding box to result.
+   * These include every item whose bounding box intersects the given box, and
+   * may include some items whose bounding boxes are merely close to it.  Items
+   * that touch several cells are added more than once unless result is a
+   * {@link Set}.
+   *
+   * @param box the bounding box
+   * @param result the collection to which the items are added
+   */
+  public void query(BoundingBox box, Collection<T> result) {
+    int[] range = cellRange(box);
+    long cellCount = ((long) range[2] - range[0] + 1) * ((long) range[3] - range[1] + 1);
+    if (cellCount > cells.size()) {
+      // It is quicker to look at every occupied cell.
+      for (Map.Entry<Long, List<T>> entry : cells.entrySet()) {
+        long key = entry.getKey();
+        int col = (int) (key >> 32);
+        int row = (int) key;
+        if (col >= range[0] && col <= range[2] && row >= range[1] && row <= range[3]) {
+          result.addAll(entry.getValue());
+        }
+      }
+    } else {
+      for (int col = range[0]; col <= range[2]; col++) {
+        for (int row = range[1]; row <= range[3]; row++) {
+          List<T> items = cells.get(cellKey(col, row));
+          if (items != null) {
+            result.addAll(items);
+          }
+        }
+      }
+    }
+    result.addAll(largeItems);
+  }
+
+  private int[] cellRange(BoundingBox box) {
+    int left = cellIndex(box.getLeft());
+    int top = cellIndex(box.getTop());
+    // An empty box still occupies the cell it is in.
+    return new int[] {
+        left, top,
+        Math.max(left, cellIndex(box.getRight())), Math.max(top, cellIndex(box.getBottom()))
+    };
+  }
+
+  private int cellIndex(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static boolean sameRange(int[] a, int[] b) {
+    return a != null && a[0] == b[0] && a[1] == b[1] && a[2] == b[2] && a[3] == b[3];
+  }
+
+  private static Long cellKey(int col, int row) {
+    return ((long) col << 32) | (row & 0xffffffffL);
+  }
+}
@@ -21,6 +21,16 @@ import java.util.List;
  * by the Kawa framework. YailList is the main list primitive used
  * by App Inventor components.
  *
+ * <p>The items of the list are kept in a chain of pairs, so that the list can
+ * be used as an ordinary Kawa list. Besides that, a YailList keeps an array
+ * of the pairs of the chain, so that items can be read and replaced by index
+ * and the length can be found without walking the chain, and items can be
+ * added to the end without walking to it. The array is built when it is first
+ * needed and is kept up to date by the methods of this class that change the
+ * list, which is how runtime.scm changes lists. If the chain is changed some
+ * other way, the array is rebuilt when a change at the start or the end of
+ * the chain is noticed; changes to the middle of the chain by other means are
+ * not noticed and must be avoided.
  */
 public class YailList extends Pair {
 
@@ -34,6 +44,17 @@ public class YailList extends Pair {
   // legitimate Yail data types.  See the definition of sanitization
   // in runtime.scm.
 
+  // The pairs of the chain holding the items of this list, in order, or null
+  // if the array hasn't been built yet
+  private transient Pair[] cells;
+
+  // The number of items in this list when the array was last updated
+  private transient int length;
+
+  // What the last pair of the chain pointed to when the array was last
+  // updated, normally LList.Empty
+  private transient Object tail;
+
   /**
    * Create an empty YailList.
    */
@@ -132,7 +153,24 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    updateCells();
+    return length;
+  }
+
+  /**
+   * Return the item at the given index, where index 0 is the list header and
+   * the first item is at index 1.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    updateCells();
+    if (index < 0 || index > length) {
+      throw new IndexOutOfBoundsException();
+    }
+    return cells[index - 1].getCar();
   }
 
   /**
@@ -162,4 +200,106 @@ public class YailList extends Pair {
   public Object getObject(int index) {
     return get(index + 1);
   }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    updateCells();
+    checkIndex(index, length);
+    cells[index].setCar(value);
+  }
+
+  /**
+   * Add an Object to the end of this YailList.
+   */
+  public void addObject(Object value) {
+    insertObject(size(), value);
+  }
+
+  /**
+   * Add the items of another YailList to the end of this YailList. The
+   * items themselves are not copied.
+   */
+  public void addObjects(YailList other) {
+    // Take the items first, in case other is this list.
+    Object[] items = other.toArray();
+    for (Object item : items) {
+      addObject(item);
+    }
+  }
+
+  /**
+   * Insert an Object at the given index, moving the Objects at and after the
+   * index one place along. The index may be the size of this YailList, to add
+   * the Object to the end.
+   */
+  public void insertObject(int index, Object value) {
+    updateCells();
+    checkIndex(index, length + 1);
+    Pair cell = new Pair(value, index == length ? tail : cells[index]);
+    if (index == 0) {
+      cdr = cell;
+    } else {
+      cells[index - 1].setCdr(cell);
+    }
+    if (length == cells.length) {
+      Pair[] newCells = new Pair[length * 2];
+      System.arraycopy(cells, 0, newCells, 0, length);
+      cells = newCells;
+    }
+    System.arraycopy(cells, index, cells, index + 1, length - index);
+    cells[index] = cell;
+    length++;
+  }
+
+  /**
+   * Remove the Object at the given index, moving the Objects after the index
+   * one place back.
+   */
+  public void removeObject(int index) {
+    updateCells();
+    checkIndex(index, length);
+    Object next = cells[index].getCdr();
+    if (index == 0) {
+      cdr = next;
+    } else {
+      cells[index - 1].setCdr(next);
+    }
+    System.arraycopy(cells, index + 1, cells, index, length - index - 1);
+    cells[--length] = null;
+  }
+
+  private static void checkIndex(int index, int limit) {
+    if (index < 0 || index >= limit) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+  }
+
+  /**
+   * Makes sure that the array of pairs matches the chain, rebuilding it if
+   * the start or the end of the chain has changed since it was last updated.
+   */
+  private void updateCells() {
+    if (cells != null
+        && (length == 0 ? cdr == tail
+            : cdr == cells[0] && cells[length - 1].getCdr() == tail)) {
+      return;
+    }
+    Pair[] newCells = new Pair[8];
+    int newLength = 0;
+    Object list = cdr;
+    while (list instanceof Pair) {
+      if (newLength == newCells.length) {
+        Pair[] grownCells = new Pair[newLength * 2];
+        System.arraycopy(newCells, 0, grownCells, 0, newLength);
+        newCells = grownCells;
+      }
+      newCells[newLength++] = (Pair) list;
+      list = ((Pair) list).getCdr();
+    }
+    cells = newCells;
+    length = newLength;
+    tail = list;
+  }
 }
@@ -0,0 +1,128 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link EventDispatcher}.
+ */
+public class EventDispatcherTest extends TestCase {
+
+  /**
+   * A dispatch delegate that binds component names to components, like the
+   * form environment does, and records each dispatch it is asked to do.
+   */
+  private static class TestDelegate implements HandlesEventDispatching {
+    private final Map<String, Component> components = new HashMap<String, Component>();
+    private final List<String> attempts = new ArrayList<String>();
+    private final List<String> dispatched = new ArrayList<String>();
+    // Names of the components whose handlers fail
+    private final Set<String> failing = new HashSet<String>();
+
+    @Override
+    public boolean canDispatchEvent(Component component, String eventName) {
+      return true;
+    }
+
+    @Override
+    public boolean dispatchEvent(Component component, String componentName, String eventName,
+        Object[] args) {
+      attempts.add(componentName);
+      if (components.get(componentName) != component) {
+        return false;
+      }
+      dispatched.add(componentName + "." + eventName);
+      // Like the form environment, report a handler that fails as not dispatched.
+      return !failing.contains(componentName);
+    }
+  }
+
+  private static class TestComponent implements Component {
+    private final HandlesEventDispatching delegate;
+
+    TestComponent(HandlesEventDispatching delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public HandlesEventDispatching getDispatchDelegate() {
+      return delegate;
+    }
+  }
+
+  private TestDelegate delegate;
+  private Component clock1;
+  private Component clock2;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    delegate = new TestDelegate();
+    clock1 = new TestComponent(delegate);
+    clock2 = new TestComponent(delegate);
+    delegate.components.put("Clock1", clock1);
+    delegate.components.put("Clock2", clock2);
+    EventDispatcher.registerEventForDelegation(delegate, "Clock1", "Timer");
+    EventDispatcher.registerEventForDelegation(delegate, "Clock2", "Timer");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    EventDispatcher.removeDispatchDelegate(delegate);
+    super.tearDown();
+  }
+
+  public void testLaterEventsGoStraightToTheirHandler() {
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    delegate.attempts.clear();
+
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertEquals(2, delegate.attempts.size());
+    assertEquals("Clock2", delegate.attempts.get(0));
+    assertEquals(3, delegate.dispatched.size());
+  }
+
+  public void testReboundComponentName() {
+    assertTrue(EventDispatcher.dispatchEvent(clock1, "Timer"));
+
+    // The REPL binds the names to different components.
+    delegate.components.put("Clock1", clock2);
+    delegate.components.put("Clock2", clock1);
+    delegate.dispatched.clear();
+    assertTrue(EventDispatcher.dispatchEvent(clock1, "Timer"));
+    assertEquals("Clock2.Timer", delegate.dispatched.get(0));
+  }
+
+  public void testUnregisteredEvent() {
+    assertTrue(EventDispatcher.dispatchEvent(clock1, "Timer"));
+    EventDispatcher.unregisterEventForDelegation(delegate, "Clock1", "Timer");
+    assertFalse(EventDispatcher.dispatchEvent(clock1, "Timer"));
+    assertFalse(EventDispatcher.dispatchEvent(clock1, "OtherEvent"));
+  }
+
+  public void testFailingHandlerRunsOnce() {
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    delegate.failing.add("Clock2");
+    delegate.dispatched.clear();
+    assertFalse(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertEquals(1, delegate.dispatched.size());
+
+    // Without a remembered closure, the handler also runs once.
+    delegate.dispatched.clear();
+    assertFalse(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertEquals(1, delegate.dispatched.size());
+  }
+}
@@ -0,0 +1,125 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+
+/**
+ * Tests for {@link ReceiveBuffer}.
+ */
+public class ReceiveBufferTest extends TestCase {
+
+  private static Thread startReceiving(final ReceiveBuffer buffer) {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        buffer.receive();
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  // Waits for the receiving thread to deliver at least one frame.
+  private static List<byte[]> awaitFrames(ReceiveBuffer buffer, byte delimiter)
+      throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      List<byte[]> frames = buffer.takeFrames(delimiter);
+      if (!frames.isEmpty()) {
+        return frames;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("No frames received");
+  }
+
+  public void testReadWithoutReceivingThread() throws Exception {
+    ReceiveBuffer buffer = new ReceiveBuffer(
+        new ByteArrayInputStream("Hello\nWorld".getBytes("UTF-8")), 4);
+    assertEquals(11, buffer.available());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(buffer.readFrame((byte) '\n', out));
+    assertEquals("Hello\n", out.toString("UTF-8"));
+
+    out.reset();
+    assertFalse(buffer.readFrame((byte) '\n', out));
+    assertEquals("World", out.toString("UTF-8"));
+    assertEquals(-1, buffer.read());
+  }
+
+  public void testReceivingThreadWaitsForRoom() throws Exception {
+    byte[] bytes = new byte[100];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    ReceiveBuffer buffer = new ReceiveBuffer(new ByteArrayInputStream(bytes), 8);
+    Thread thread = startReceiving(buffer);
+
+    byte[] received = new byte[bytes.length];
+    int total = 0;
+    while (total < received.length) {
+      int n = buffer.read(received, total, received.length - total);
+      assertTrue(n > 0);
+      total += n;
+    }
+    assertEquals(-1, buffer.read());
+    thread.join();
+    for (int i = 0; i < bytes.length; i++) {
+      assertEquals(bytes[i], received[i]);
+    }
+  }
+
+  public void testTakeFrames() throws Exception {
+    PipedOutputStream pipe = new PipedOutputStream();
+    ReceiveBuffer buffer = new ReceiveBuffer(new PipedInputStream(pipe), 16);
+    Thread thread = startReceiving(buffer);
+
+    pipe.write("a;bc;d".getBytes("UTF-8"));
+    pipe.flush();
+    List<byte[]> frames = awaitFrames(buffer, (byte) ';');
+    assertEquals(2, frames.size());
+    assertEquals("a;", new String(frames.get(0), "UTF-8"));
+    assertEquals("bc;", new String(frames.get(1), "UTF-8"));
+    // The incomplete frame stays in the buffer.
+    assertEquals(1, buffer.available());
+    assertTrue(buffer.takeFrames((byte) ';').isEmpty());
+
+    pipe.close();
+    thread.join();
+    assertEquals('d', buffer.read());
+  }
+
+  public void testFullBufferWithoutDelimiterIsOneFrame() throws Exception {
+    ReceiveBuffer buffer = new ReceiveBuffer(
+        new ByteArrayInputStream("abcdef".getBytes("UTF-8")), 4);
+    Thread thread = startReceiving(buffer);
+    List<byte[]> frames = awaitFrames(buffer, (byte) ';');
+    assertEquals(1, frames.size());
+    assertEquals("abcd", new String(frames.get(0), "UTF-8"));
+    thread.join();
+    assertEquals(2, buffer.available());
+  }
+
+  public void testClose() throws Exception {
+    PipedOutputStream pipe = new PipedOutputStream();
+    ReceiveBuffer buffer = new ReceiveBuffer(new PipedInputStream(pipe), 16);
+    startReceiving(buffer);
+    buffer.close();
+    try {
+      buffer.read();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
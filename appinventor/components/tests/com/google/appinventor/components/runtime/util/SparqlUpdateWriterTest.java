@@ -0,0 +1,189 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.sparql.serializer.SerializationContext;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for {@link SparqlUpdateWriter}.
+ */
+public class SparqlUpdateWriterTest extends TestCase {
+  private static final URI ENDPOINT = URI.create("http://example.org/sparql/update");
+
+  private Model model;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    model = ModelFactory.createDefaultModel();
+    model.setNsPrefix("ex", "http://example.org/");
+    Resource subject = model.createResource("http://example.org/a");
+    model.add(subject, model.createProperty("http://example.org/name"), "say \"hi\"");
+  }
+
+  private String writeBatch(SparqlUpdateWriter writer) throws Exception {
+    List<Triple> batch = new ArrayList<Triple>();
+    batch.add(model.listStatements().nextStatement().asTriple());
+    StringWriter out = new StringWriter();
+    writer.writeBatch(out, model.getNsPrefixMap(), new SerializationContext(model), batch);
+    return out.toString();
+  }
+
+  public void testInsertIntoGraph() throws Exception {
+    assertEquals("PREFIX ex: <http://example.org/>\r\n"
+        + "INSERT DATA { GRAPH <http://example.org/g> { \r\n"
+        + "ex:a ex:name \"say \\\"hi\\\"\" .\r\n"
+        + "}\r\n"
+        + "}\r\n",
+        writeBatch(new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.INSERT,
+            "http://example.org/g")));
+  }
+
+  public void testDeleteFromDefaultGraph() throws Exception {
+    assertEquals("PREFIX ex: <http://example.org/>\r\n"
+        + "DELETE DATA { \r\n"
+        + "ex:a ex:name \"say \\\"hi\\\"\" .\r\n"
+        + "}\r\n",
+        writeBatch(new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.DELETE, "")));
+  }
+
+  public void testFeed() throws Exception {
+    assertEquals("@prefix ex: <http://example.org/> .\r\n"
+        + "ex:a ex:name \"say \\\"hi\\\"\" .\r\n",
+        writeBatch(new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.FEED, null)));
+  }
+
+  public void testBatchSizeMustBePositive() {
+    try {
+      new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.INSERT, null).setBatchSize(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  // Records the body of each request that the writer would send.
+  private static class RecordingSender implements SparqlUpdateWriter.BatchSender {
+    private final SparqlUpdateWriter writer;
+    private final Model model;
+    private final List<byte[]> requests = new ArrayList<byte[]>();
+    private int failAt = -1;
+
+    RecordingSender(SparqlUpdateWriter writer, Model model) {
+      this.writer = writer;
+      this.model = model;
+    }
+
+    public boolean send(List<Triple> batch) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        writer.writeRequest(out, model.getNsPrefixMap(), new SerializationContext(model), batch);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      requests.add(out.toByteArray());
+      return requests.size() != failAt;
+    }
+  }
+
+  private static Model createModel(int size) {
+    Model model = ModelFactory.createDefaultModel();
+    model.setNsPrefix("ex", "http://example.org/");
+    for (int i = 0; i < size; i++) {
+      model.add(model.createResource("http://example.org/s" + i),
+          model.createProperty("http://example.org/p"), "o" + i);
+    }
+    return model;
+  }
+
+  private static String read(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[256];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    return out.toString("UTF-8");
+  }
+
+  // Checks that each request holds an INSERT DATA of the expected number of
+  // triples, and that together they hold every triple of the model once.
+  private static void assertBatches(List<String> bodies, int... sizes) {
+    assertEquals(sizes.length, bodies.size());
+    Set<String> triples = new HashSet<String>();
+    int total = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      String[] lines = bodies.get(i).split("\r\n");
+      assertEquals(sizes[i] + 3, lines.length);
+      assertEquals("PREFIX ex: <http://example.org/>", lines[0]);
+      assertEquals("INSERT DATA { ", lines[1]);
+      for (int j = 2; j < lines.length - 1; j++) {
+        assertTrue(lines[j], lines[j].matches("ex:s(\\d+) ex:p \"o\\1\" \\."));
+        triples.add(lines[j]);
+      }
+      assertEquals("}", lines[lines.length - 1]);
+      total += sizes[i];
+    }
+    assertEquals(total, triples.size());
+  }
+
+  public void testModelIsSplitIntoBatches() throws Exception {
+    Model model = createModel(5);
+    SparqlUpdateWriter writer =
+        new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.INSERT, null)
+            .setBatchSize(2);
+    RecordingSender sender = new RecordingSender(writer, model);
+    assertEquals(3, writer.write(model, sender));
+    List<String> bodies = new ArrayList<String>();
+    for (byte[] request : sender.requests) {
+      bodies.add(new String(request, "UTF-8"));
+    }
+    assertBatches(bodies, 2, 2, 1);
+  }
+
+  public void testGzipBatches() throws Exception {
+    Model model = createModel(4);
+    SparqlUpdateWriter writer =
+        new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.INSERT, null)
+            .setBatchSize(3).setGzip(true);
+    RecordingSender sender = new RecordingSender(writer, model);
+    assertEquals(2, writer.write(model, sender));
+    List<String> bodies = new ArrayList<String>();
+    for (byte[] request : sender.requests) {
+      bodies.add(read(new GZIPInputStream(new ByteArrayInputStream(request))));
+    }
+    assertBatches(bodies, 3, 1);
+  }
+
+  public void testFailedBatchStopsWrite() throws Exception {
+    Model model = createModel(5);
+    SparqlUpdateWriter writer =
+        new SparqlUpdateWriter(ENDPOINT, SparqlUpdateWriter.Operation.INSERT, null)
+            .setBatchSize(2);
+    RecordingSender sender = new RecordingSender(writer, model);
+    sender.failAt = 2;
+    assertEquals(-1, writer.write(model, sender));
+    assertEquals(2, sender.requests.size());
+  }
+}
@@ -0,0 +1,77 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests SpatialGrid class.
+ */
+public class SpatialGridTest extends TestCase {
+  private SpatialGrid<String> grid;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    grid = new SpatialGrid<String>(10);
+    grid.update("a", new BoundingBox(0, 0, 5, 5));
+    grid.update("b", new BoundingBox(8, 8, 12, 12));
+    grid.update("c", new BoundingBox(100, 100, 105, 105));
+  }
+
+  private Set<String> query(double left, double top, double right, double bottom) {
+    Set<String> result = new HashSet<String>();
+    grid.query(new BoundingBox(left, top, right, bottom), result);
+    return result;
+  }
+
+  private Set<String> setOf(String... items) {
+    Set<String> set = new HashSet<String>();
+    for (String item : items) {
+      set.add(item);
+    }
+    return set;
+  }
+
+  public void testQuery() {
+    assertEquals(setOf("a", "b"), query(4, 4, 9, 9));
+    assertEquals(setOf("b"), query(11, 11, 15, 15));
+    assertEquals(setOf("c"), query(101, 101, 101, 101));
+    assertEquals(setOf(), query(50, 50, 60, 60));
+    assertEquals(setOf("a", "b", "c"), query(-1000, -1000, 1000, 1000));
+  }
+
+  public void testUpdateAndRemove() {
+    grid.update("a", new BoundingBox(95, 95, 99, 99));
+    assertEquals(setOf("b"), query(0, 0, 5, 5));
+    assertEquals(setOf("a", "c"), query(99, 99, 100, 100));
+
+    grid.remove("c");
+    assertFalse(grid.contains("c"));
+    assertEquals(setOf("a"), query(99, 99, 100, 100));
+    // Removing an item twice has no effect.
+    grid.remove("c");
+    assertTrue(grid.contains("a"));
+  }
+
+  public void testNegativeCoordinates() {
+    grid.update("d", new BoundingBox(-25, -25, -21, -21));
+    assertEquals(setOf("d"), query(-22, -22, -21, -21));
+    assertEquals(setOf("a", "b"), query(0, 0, 1, 1));
+  }
+
+  public void testLargeItemsAreAlwaysFound() {
+    grid.update("big", new BoundingBox(0, 0, 100000, 100000));
+    assertEquals(setOf("big"), query(-500, -500, -400, -400));
+    grid.update("big", new BoundingBox(-500, -500, -495, -495));
+    assertEquals(setOf("big"), query(-500, -500, -400, -400));
+    assertEquals(setOf("a", "b"), query(0, 0, 1, 1));
+  }
+}
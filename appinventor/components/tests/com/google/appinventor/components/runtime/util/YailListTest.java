@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 
 import junit.framework.TestCase;
 
@@ -203,4 +205,61 @@ public class YailListTest extends TestCase {
       // this is the intended behavior
     }
   }
+
+  public void testSetObject() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    yailList.setObject(1, "B");
+    assertEquals("(a B c)", yailList.toString());
+    try {
+      yailList.setObject(3, "d");
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  public void testAddInsertAndRemoveObjects() {
+    YailList yailList = new YailList();
+    yailList.addObject("b");
+    yailList.insertObject(0, "a");
+    yailList.insertObject(2, "d");
+    yailList.insertObject(2, "c");
+    assertEquals("(a b c d)", yailList.toString());
+    assertEquals(4, yailList.size());
+    assertEquals("c", yailList.getString(2));
+
+    yailList.removeObject(0);
+    yailList.removeObject(2);
+    assertEquals("(b c)", yailList.toString());
+    assertEquals(2, yailList.size());
+    assertEquals("c", yailList.getString(1));
+
+    yailList.addObjects(yailList);
+    assertEquals("(b c b c)", yailList.toString());
+    assertEquals(YailList.makeList(new Object[] {"b", "c", "b", "c"}), yailList);
+  }
+
+  public void testChangesToPairsAreNoticed() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    assertEquals(2, yailList.size());
+    ((Pair) yailList.getCdr()).lastPair().setCdr(new Pair("c", LList.Empty));
+    assertEquals(3, yailList.size());
+    assertEquals("c", yailList.getString(2));
+    yailList.setCdr(LList.Empty);
+    assertEquals(0, yailList.size());
+    yailList.addObject("d");
+    assertEquals("(d)", yailList.toString());
+  }
+
+  public void testManyItems() {
+    YailList yailList = new YailList();
+    for (int i = 0; i < 1000; i++) {
+      yailList.addObject(i);
+    }
+    assertEquals(1000, yailList.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, yailList.getObject(i));
+    }
+    assertEquals(1000, yailList.toArray().length);
+  }
 }